@@ -0,0 +1,25 @@
+package http;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* Runs benchmarks of package http, whose names match the first argument (all, if there is none),
+ * with the GC profiler, so that allocation per operation (gc.alloc.rate.norm) is reported next to
+ * the time, and allocation regressions on the parsing path show up as numbers. */
+public class Benchmarks {
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(Benchmarks.class.getPackageName() + "\\..*Benchmark\\..*" + (args.length > 0 ? args[0] : ""))
+			.addProfiler(GCProfiler.class)
+			.forks(1)
+			.warmupIterations(5)
+			.measurementIterations(5)
+			.build();
+		new Runner(options).run();
+	}
+
+}
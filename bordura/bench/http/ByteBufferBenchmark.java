@@ -0,0 +1,45 @@
+package http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* Collecting bytes of a token or header field value into http.ByteBuffer and reading them back
+ * as a string, with a reset buffer, as a parser reuses it between fields. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ByteBufferBenchmark {
+
+	@Param({"16", "200", "2000"}) // beyond the capacity of a single node of 512 bytes as well
+	public int length;
+
+	private byte[] value;
+	private final ByteBuffer buffer = new ByteBuffer();
+
+	@Setup
+	public void setUp() {
+		value = new byte[length];
+		for (int i = 0; i < length; i++) {
+			value[i] = (byte) ('a' + i % 26);
+		}
+	}
+
+	@Benchmark
+	public String putAndRead() {
+		buffer.reset();
+		for (byte b : value) {
+			buffer.put(b);
+		}
+		return buffer.read(StandardCharsets.US_ASCII);
+	}
+
+}
@@ -0,0 +1,50 @@
+package http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* Throughput of ChunkedOutputStream for a streamed body of 1 MiB, written in pieces of the given
+ * size: small writes are collected into chunks, large ones are passed through. Score is per
+ * write; a chunk is written to a stream, which discards it. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ChunkedOutputStreamBenchmark {
+
+	private static final int BODY_SIZE = 1 << 20;
+
+	@Param({"16", "512", "16384"})
+	public int writeSize;
+
+	private byte[] piece;
+	private int writes;
+	private final OutputStream out = new DiscardingOutputStream();
+
+	@Setup
+	public void setUp() {
+		piece = new byte[writeSize];
+		writes = BODY_SIZE / writeSize;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BODY_SIZE)
+	public void writeBody() throws IOException {
+		ChunkedOutputStream chunked = new ChunkedOutputStream(out); // with a pooled buffer
+		for (int i = 0; i < writes; i++) {
+			chunked.write(piece, 0, writeSize);
+		}
+		chunked.finish();
+	}
+
+}
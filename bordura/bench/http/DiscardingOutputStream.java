@@ -0,0 +1,15 @@
+package http;
+
+import java.io.OutputStream;
+
+/* Output stream, which discards everything written to it, also after close(), so that one
+ * instance can take any number of responses, including those, which close the connection. */
+class DiscardingOutputStream extends OutputStream {
+
+	@Override
+	public void write(int b) {}
+
+	@Override
+	public void write(byte[] b, int off, int len) {}
+
+}
@@ -0,0 +1,30 @@
+package http;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/* Splitting of comma-delimited header field values with Headers.readCommaDelimitedList, as done
+ * for Connection, Transfer-Encoding, Accept-Encoding and Content-Length of every request. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeadersBenchmark {
+
+	@Param({"keep-alive", "gzip, deflate, br", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,*/*;q=0.8",
+			"\"3f2a9c\", W/\"3f2a9d\", , \"quoted, with comma\""})
+	public String value;
+
+	@Benchmark
+	public List<String> readCommaDelimitedList() {
+		return Headers.readCommaDelimitedList(value);
+	}
+
+}
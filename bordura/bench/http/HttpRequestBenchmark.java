@@ -0,0 +1,64 @@
+package http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* Parsing of a request head with HttpRequest.readFrom, from a short request line with a single
+ * header field to a head, as browsers and proxies send it. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HttpRequestBenchmark {
+
+	private static final String SHORT = "GET /posts HTTP/1.1\r\nHost: bordura.si\r\n\r\n";
+
+	private static final String HEADER_HEAVY = """
+		GET /posts/3f2a9c/content/1?full=1&since=2022-01-01 HTTP/1.1\r
+		Host: bordura.si\r
+		User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:102.0) Gecko/20100101 Firefox/102.0\r
+		Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r
+		Accept-Language: sl,en-US;q=0.7,en;q=0.3\r
+		Accept-Encoding: gzip, deflate, br\r
+		Connection: keep-alive\r
+		Cookie: session=5b1c0e6a7d2f4f9b8e3a1c6d; theme=dark; consent=1\r
+		Upgrade-Insecure-Requests: 1\r
+		Sec-Fetch-Dest: document\r
+		Sec-Fetch-Mode: navigate\r
+		Sec-Fetch-Site: none\r
+		Sec-Fetch-User: ?1\r
+		If-None-Match: "3f2a9c", W/"3f2a9d"\r
+		If-Modified-Since: Sun, 06 Nov 1994 08:49:37 GMT\r
+		Cache-Control: max-age=0\r
+		X-Forwarded-For: 192.0.2.43, 198.51.100.17\r
+		\r
+		""";
+
+	@Param({"short", "header-heavy"})
+	public String head;
+
+	private ByteArrayInputStream in;
+
+	@Setup
+	public void setUp() {
+		String request = head.equals("short") ? SHORT : HEADER_HEAVY;
+		in = new ByteArrayInputStream(request.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Benchmark
+	public HttpRequest readFrom() throws IOException, HttpException {
+		in.reset(); // to the beginning of request
+		return HttpRequest.readFrom(in);
+	}
+
+}
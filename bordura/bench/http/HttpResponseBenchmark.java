@@ -0,0 +1,61 @@
+package http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* Writing of a response with HttpResponse.writeTo, for each transfer encoding, which the builder
+ * chooses: Content-Length (NONE), end of body at close (NONE_AND_CLOSE), chunked (for a body of
+ * unknown length), and gzip, either chunked or until close. The body is half text, half random
+ * bytes, so that it compresses about as well as a typical page. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HttpResponseBenchmark {
+
+	@Param({"NONE", "NONE_AND_CLOSE", "CHUNKED", "GZIP_AND_CHUNKED", "GZIP_AND_CLOSE"})
+	public String transferEncoding;
+
+	@Param({"16384"})
+	public int bodySize;
+
+	private HttpResponse response;
+	private final OutputStream out = new DiscardingOutputStream();
+
+	@Setup
+	public void setUp() throws IOException {
+		byte[] body = new byte[bodySize];
+		new Random(1).nextBytes(body);
+		for (int i = 0; i < bodySize / 2; i++) {
+			body[i] = (byte) ('a' + i % 26);
+		}
+		HttpResponse.Builder builder = HttpResponse.newBuilder().status(200).addHeader("Content-Type", "text/plain");
+		switch (transferEncoding) {
+			case "NONE" -> builder.body(HttpResponse.BodyPublisher.ofByteArray(body));
+			case "NONE_AND_CLOSE" -> builder.body(HttpResponse.BodyPublisher.ofByteArray(body)).closeConnectionAtEnd(true);
+			case "CHUNKED" -> builder.body(HttpResponse.BodyPublisher.ofInputStream(() -> new ByteArrayInputStream(body)));
+			case "GZIP_AND_CHUNKED" -> builder.body(HttpResponse.BodyPublisher.ofByteArray(body)).useGzipTransferEncoding(true);
+			case "GZIP_AND_CLOSE" -> builder.body(HttpResponse.BodyPublisher.ofByteArray(body)).useGzipTransferEncoding(true)
+				.closeConnectionAtEnd(true);
+			default -> throw new IllegalArgumentException(transferEncoding);
+		}
+		response = builder.build();
+	}
+
+	@Benchmark
+	public void writeTo() throws IOException {
+		response.writeTo(out);
+	}
+
+}
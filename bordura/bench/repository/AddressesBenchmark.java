@@ -0,0 +1,79 @@
+package repository;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* Statements of Addresses on a database of its own: insertion of a new address, update of last
+ * contact of several addresses at once, and lookup of the active address of a peer. */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AddressesBenchmark {
+
+	private static final int PEER_ID = 1;
+	private static final int PORT = 7070;
+
+	private int created; // addresses inserted by createNew, each a different one, as (ip, port) is unique
+
+	/* Addresses of the trial, whose last contact is updated at once. */
+	@State(Scope.Thread)
+	public static class Contacts {
+
+		@Param({"1", "16", "256"})
+		public int count;
+
+		InetSocketAddress[] addresses;
+
+		@Setup(Level.Trial)
+		public void insert(TemporaryRepository repository) throws SQLException, UnknownHostException {
+			addresses = new InetSocketAddress[count];
+			for (int i = 0; i < count; i++) {
+				addresses[i] = new InetSocketAddress(address(172, 16 << 16 | i), PORT);
+				Addresses.createNew(repository.dbcon, addresses[i], true);
+			}
+		}
+
+	}
+
+	@Setup(Level.Trial)
+	public void insertActive(TemporaryRepository repository) throws SQLException, UnknownHostException {
+		Addresses.createNew(repository.dbcon, new InetSocketAddress(InetAddress.getByName("192.0.2.1"), PORT), PEER_ID, false);
+		Addresses.createNew(repository.dbcon, new InetSocketAddress(InetAddress.getByName("192.0.2.2"), PORT), PEER_ID, true);
+	}
+
+	/* Returns IPv4 address with first byte network and the other three of host. */
+	private static InetAddress address(int network, int host) throws UnknownHostException {
+		return InetAddress.getByAddress(new byte[] {(byte) network, (byte) (host >>> 16), (byte) (host >>> 8), (byte) host});
+	}
+
+	@Benchmark
+	public int createNew(TemporaryRepository repository) throws SQLException, UnknownHostException {
+		return Addresses.createNew(repository.dbcon, new InetSocketAddress(address(10, created++), PORT), true);
+	}
+
+	@Benchmark
+	public int updateLastContacts(TemporaryRepository repository, Contacts contacts) throws SQLException {
+		return Addresses.updateLastContacts(repository.dbcon, contacts.addresses);
+	}
+
+	@Benchmark
+	public Optional<InetSocketAddress> getActiveOf(TemporaryRepository repository) throws SQLException, IOException {
+		return Addresses.getActiveOf(repository.dbcon, PEER_ID);
+	}
+
+}
@@ -0,0 +1,27 @@
+package repository;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/* Runs benchmarks of package repository, whose names match the first argument (all, if there is
+ * none), each against a temporary database and keystore. Throughput and percentiles of sample time
+ * (p0.99 among them) are written to the file of the second argument (jmh-repository.json, if there
+ * is none) as JSON, so that runs of different commits can be compared. */
+public class Benchmarks {
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+			.include(Benchmarks.class.getPackageName() + "\\..*Benchmark\\..*" + (args.length > 0 ? args[0] : ""))
+			.resultFormat(ResultFormatType.JSON)
+			.result(args.length > 1 ? args[1] : "jmh-repository.json")
+			.forks(1)
+			.warmupIterations(5)
+			.measurementIterations(5)
+			.build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,90 @@
+package repository;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/* Storage of keys with Keys: public keys in the database, private keys in the keystore, both of a
+ * temporary repository. */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeysBenchmark {
+
+	private static final int OWNER_ID = 1;
+
+	private byte[] guid; // of the stored key pair
+
+	/* Public key, which savePublicKey saves. Guid and key are unique in public_key, so it is deleted
+	 * after each invocation; an invocation takes a commit to the file, long enough for that. */
+	@State(Scope.Thread)
+	public static class NewPublicKey {
+
+		byte[] guid;
+		PublicKey key;
+		LocalDate validTo;
+
+		@Setup(Level.Trial)
+		public void generate() throws NoSuchAlgorithmException {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+			generator.initialize(256);
+			guid = Keys.generateGUID();
+			key = generator.generateKeyPair().getPublic();
+			validTo = LocalDate.now().plusMonths(15);
+		}
+
+		@TearDown(Level.Invocation)
+		public void delete(TemporaryRepository repository) throws SQLException {
+			try (PreparedStatement stmt = repository.dbcon.prepareStatement("DELETE FROM public_key WHERE guid = ?;")) {
+				stmt.setBytes(1, guid);
+				stmt.executeUpdate();
+			}
+		}
+
+	}
+
+	@Setup(Level.Trial)
+	public void store(TemporaryRepository repository) throws NoSuchAlgorithmException, SQLException, IOException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(256);
+		KeyPair keyPair = generator.generateKeyPair();
+		guid = Keys.generateGUID();
+		Keys.savePublicKey(repository.dbcon, guid, keyPair.getPublic(), OWNER_ID, LocalDate.now().plusMonths(15));
+		Keys.savePrivateKey(repository.keystore, guid, keyPair.getPrivate());
+	}
+
+	@Benchmark
+	public int savePublicKey(TemporaryRepository repository, NewPublicKey newKey) throws SQLException {
+		return Keys.savePublicKey(repository.dbcon, newKey.guid, newKey.key, OWNER_ID, newKey.validTo);
+	}
+
+	@Benchmark
+	public Optional<PublicKey> getPublicKey(TemporaryRepository repository)
+	throws SQLException, ClassNotFoundException, IOException {
+		return Keys.getPublicKey(repository.dbcon, guid);
+	}
+
+	@Benchmark
+	public PrivateKey getPrivateKey(TemporaryRepository repository) throws IOException, ClassNotFoundException {
+		return Keys.getPrivateKey(repository.keystore, guid);
+	}
+
+}
@@ -0,0 +1,60 @@
+package repository;
+
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* Signing, verification and hashing of posts with Posts, for a short message, a page of text and
+ * a picture, with a key pair as generated by Keys. */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PostsBenchmark {
+
+	@Param({"64", "4096", "1048576"})
+	public int size;
+
+	private byte[] post;
+	private KeyPair keyPair;
+	private byte[] signature;
+
+	@Setup(Level.Trial)
+	public void generate() throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		post = new byte[size];
+		new Random(size).nextBytes(post);
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(256);
+		keyPair = generator.generateKeyPair();
+		signature = Posts.sign(post, keyPair.getPrivate());
+	}
+
+	@Benchmark
+	public byte[] sign() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+		return Posts.sign(post, keyPair.getPrivate());
+	}
+
+	@Benchmark
+	public boolean verifySignatureDirect() throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+		return Posts.verifySignatureDirect(post, signature, keyPair.getPublic());
+	}
+
+	@Benchmark
+	public byte[] calculateHashOf() throws NoSuchAlgorithmException {
+		return Posts.calculateHashOf(post);
+	}
+
+}
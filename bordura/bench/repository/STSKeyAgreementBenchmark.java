@@ -0,0 +1,87 @@
+package repository;
+
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.interfaces.DHPublicKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/* Whole station-to-station key agreement of two parties in one process, with the steps of
+ * STSKeyAgreement in the order of its stages; messages are passed in encoded form, as they would
+ * go over the wire. Signature keys of both parties are known in advance. */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class STSKeyAgreementBenchmark {
+
+	private byte[] initiatorID;
+	private KeyPair initiatorSignatureKeys;
+	private byte[] responderID;
+	private KeyPair responderSignatureKeys;
+
+	@Setup(Level.Trial)
+	public void generate() throws NoSuchAlgorithmException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+		initiatorID = Keys.generateGUID();
+		initiatorSignatureKeys = generator.generateKeyPair();
+		responderID = Keys.generateGUID();
+		responderSignatureKeys = generator.generateKeyPair();
+	}
+
+	@Benchmark
+	public byte[] keyAgreement() throws NoSuchAlgorithmException, InvalidKeySpecException,
+	InvalidAlgorithmParameterException, InvalidKeyException, SignatureException {
+
+		/******** STAGE 1 (initiator) ********/
+		KeyPair initiatorDHKeyPair = STSKeyAgreement.generateDHKeyPair();
+		byte[] initiatorDHPublicKeyEncoded = initiatorDHKeyPair.getPublic().getEncoded();
+
+		/******** STAGE 2 (responder) ********/
+		PublicKey initiatorDHPublicKey = STSKeyAgreement.decodeDHPublicKey(initiatorDHPublicKeyEncoded);
+		KeyPair responderDHKeyPair = STSKeyAgreement.generateDHKeyPair(((DHPublicKey) initiatorDHPublicKey).getParams());
+		byte[] responderDHPublicKeyEncoded = responderDHKeyPair.getPublic().getEncoded();
+		byte[] responderSignature = STSKeyAgreement.sign(responderSignatureKeys.getPrivate(), initiatorID,
+			responderDHPublicKeyEncoded, initiatorDHPublicKeyEncoded);
+		byte[] responderSecret = STSKeyAgreement.generateSharedSecret(responderDHKeyPair.getPrivate(),
+			initiatorDHPublicKey);
+
+		/******** STAGE 3 (initiator) ********/
+		PublicKey responderDHPublicKey = STSKeyAgreement.decodeDHPublicKey(responderDHPublicKeyEncoded);
+		if (!STSKeyAgreement.verify(responderSignatureKeys.getPublic(), initiatorID, responderDHPublicKeyEncoded,
+				initiatorDHPublicKeyEncoded, responderSignature)) {
+			throw new IllegalStateException("Signature of responder is not valid.");
+		}
+		byte[] initiatorSignature = STSKeyAgreement.sign(initiatorSignatureKeys.getPrivate(), responderID,
+			initiatorDHPublicKeyEncoded, responderDHPublicKeyEncoded);
+		byte[] initiatorSecret = STSKeyAgreement.generateSharedSecret(initiatorDHKeyPair.getPrivate(),
+			responderDHPublicKey);
+
+		/******** STAGE 4 (responder) ********/
+		if (!STSKeyAgreement.verify(initiatorSignatureKeys.getPublic(), responderID, initiatorDHPublicKeyEncoded,
+				responderDHPublicKeyEncoded, initiatorSignature)) {
+			throw new IllegalStateException("Signature of initiator is not valid.");
+		}
+
+		if (!Arrays.equals(initiatorSecret, responderSecret)) {
+			throw new IllegalStateException("Shared secrets differ.");
+		}
+		return initiatorSecret;
+	}
+
+}
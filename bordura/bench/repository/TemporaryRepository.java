@@ -0,0 +1,55 @@
+package repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/* Database and keystore in a temporary directory instead of the paths of Configurations, created
+ * anew for each trial, so that runs do not depend on (nor change) a real repository. */
+@State(Scope.Thread)
+public class TemporaryRepository {
+
+	Path directory;
+	Path keystore;
+	Connection dbcon;
+
+	@Setup(Level.Trial)
+	public void create() throws IOException, SQLException {
+		directory = Files.createTempDirectory("bordura-bench");
+		keystore = Files.createDirectory(directory.resolve("keystore"));
+		String dbUrl = "jdbc:sqlite:" + directory.resolve("bordura.db");
+		Initialization.createNewDatabase(dbUrl);
+		dbcon = DriverManager.getConnection(dbUrl);
+		Initialization.createTables(dbcon);
+		/* Addresses keeps peer, activity and last contact on address itself, while the tables of
+		 * Initialization keep them in address_usage. */
+		try (Statement stmt = dbcon.createStatement()) {
+			stmt.execute("ALTER TABLE address ADD COLUMN peer_id INTEGER REFERENCES peer(id);");
+			stmt.execute("ALTER TABLE address ADD COLUMN active INTEGER;");
+			stmt.execute("ALTER TABLE address ADD COLUMN last_contact TEXT;");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException, SQLException {
+		dbcon.close();
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,226 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/* Client of the load generator on a single keep-alive connection, in a closed loop: it sends a
+ * request of the mix, reads the whole response, and only then sends the next one. With a rate, the
+ * requests are scheduled at fixed intervals, and latency is measured from the time, at which a
+ * request should have been sent, so that a response, which delays the following requests, counts
+ * against them too (coordinated omission). Service time is measured from the actual sending.
+ * A connection, which fails or is closed by the server, is opened again. */
+final class LoadConnection implements Runnable {
+
+	private final InetSocketAddress address;
+	private final LoadGenerator.Mix mix;
+	private final long interval; // nanoseconds between scheduled requests, 0 without rate
+	private final long measureFrom; // System.nanoTime(), before which results are warmup
+	private final long until; // System.nanoTime(), when to stop sending
+	private final SplittableRandom random;
+	private final byte[] buffer;
+
+	final PercentileHistogram latency; // from scheduled sending, with rate; from sending otherwise
+	final PercentileHistogram serviceTime; // from sending
+	final long[] requests; // by kind
+	final long[] failures; // by kind; error status, or failed connection
+	long receivedBytes;
+	long sentBytes;
+	long connects;
+	private PercentileHistogram intervalLatency; // guarded by this; taken by the reporter of intervals
+
+	private Socket socket;
+	private InputStream in;
+	private OutputStream out;
+
+	LoadConnection(InetSocketAddress address, LoadGenerator.Mix mix, long interval, long measureFrom, long until,
+				   long seed) {
+		this.address = address;
+		this.mix = mix;
+		this.interval = interval;
+		this.measureFrom = measureFrom;
+		this.until = until;
+		this.random = new SplittableRandom(seed);
+		this.buffer = new byte[65536];
+		this.latency = new PercentileHistogram();
+		this.serviceTime = new PercentileHistogram();
+		this.requests = new long[LoadGenerator.Kind.values().length];
+		this.failures = new long[LoadGenerator.Kind.values().length];
+		this.receivedBytes = 0;
+		this.sentBytes = 0;
+		this.connects = 0;
+		this.intervalLatency = new PercentileHistogram();
+	}
+
+	@Override
+	public void run() {
+		long scheduled = System.nanoTime() + (interval > 0 ? random.nextLong(interval) : 0); // spread connections
+		try {
+			while (true) {
+				if (interval > 0) {
+					long wait;
+					while ((wait = scheduled - System.nanoTime()) > 0) {
+						LockSupport.parkNanos(wait);
+					}
+				}
+				long start = System.nanoTime();
+				if (start >= until) {
+					break;
+				}
+				LoadGenerator.Kind kind = mix.next(random);
+				boolean success = exchange(kind, start >= measureFrom);
+				long end = System.nanoTime();
+				long intended = (interval > 0) ? scheduled : start;
+				if (start >= measureFrom) {
+					requests[kind.ordinal()]++;
+					if (!success) {
+						failures[kind.ordinal()]++;
+					}
+					latency.record(end - intended);
+					serviceTime.record(end - start);
+					synchronized (this) {
+						intervalLatency.record(end - intended);
+					}
+				}
+				scheduled += interval;
+			}
+		} finally {
+			disconnect();
+		}
+	}
+
+	/* Returns latencies since the previous call and starts recording anew. */
+	synchronized PercentileHistogram takeIntervalLatency() {
+		PercentileHistogram taken = intervalLatency;
+		intervalLatency = new PercentileHistogram();
+		return taken;
+	}
+
+	/* Sends a request and reads its response; returns false on an error status or a failed
+	 * connection, which is closed then. */
+	private boolean exchange(LoadGenerator.Kind kind, boolean counted) {
+		try {
+			if (socket == null) {
+				connect();
+			}
+			byte[] request = mix.request(kind, random);
+			out.write(request);
+			byte[] body = mix.uploadBody(kind);
+			if (body != null) {
+				out.write(body);
+			}
+			out.flush();
+			long received = readResponse();
+			if (counted) {
+				sentBytes += request.length + (body != null ? body.length : 0);
+				receivedBytes += Math.abs(received);
+			}
+			return received >= 0;
+		} catch (IOException e) {
+			disconnect();
+			return false;
+		}
+	}
+
+	private void connect() throws IOException {
+		socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(address);
+		in = new BufferedInputStream(socket.getInputStream(), 16384);
+		out = socket.getOutputStream();
+		connects++;
+	}
+
+	private void disconnect() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closed anyway
+			}
+			socket = null;
+		}
+	}
+
+	/* Reads a response and skips its body. Returns the number of bytes of its head and decoded
+	 * body, negated for an error status. */
+	private long readResponse() throws IOException {
+		int status;
+		String line;
+		long length = -1;
+		boolean chunked = false;
+		boolean close = false;
+		long received = 0;
+		do { // skips interim responses
+			line = readLine();
+			received += line.length() + 2;
+			if (!line.startsWith("HTTP/1.1 ") || line.length() < 12) {
+				throw new IOException("Invalid status line: " + line);
+			}
+			status = Integer.parseInt(line, 9, 12, 10);
+			while (!(line = readLine()).isEmpty()) {
+				received += line.length() + 2;
+				int colon = line.indexOf(':');
+				if (colon < 0) {
+					throw new IOException("Invalid header field: " + line);
+				}
+				String name = line.substring(0, colon).strip();
+				String value = line.substring(colon + 1).strip().toLowerCase();
+				if (name.equalsIgnoreCase("Content-Length")) {
+					length = Long.parseLong(value);
+				} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+					chunked = value.endsWith("chunked");
+				} else if (name.equalsIgnoreCase("Connection")) {
+					close = value.contains("close");
+				}
+			}
+			received += 2;
+		} while (status >= 100 && status < 200);
+		if (status != 204 && status != 304) {
+			InputStream body;
+			if (chunked) {
+				body = new ChunkedInputStream(in);
+			} else if (length >= 0) {
+				body = new FixedLengthInputStream(in, length);
+			} else {
+				body = in;
+				close = true;
+			}
+			int n;
+			while ((n = body.read(buffer, 0, buffer.length)) >= 0) {
+				received += n;
+			}
+		}
+		if (close) {
+			disconnect();
+		}
+		return (status >= 400) ? -received : received;
+	}
+
+	private String readLine() throws IOException {
+		int length = 0;
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				throw new EOFException("Connection closed by server");
+			}
+			if (length == buffer.length) {
+				throw new IOException("Line too long");
+			}
+			buffer[length++] = (byte) b;
+		}
+		if (length > 0 && buffer[length - 1] == '\r') {
+			length--;
+		}
+		return new String(buffer, 0, length, ISO_8859_1);
+	}
+
+}
@@ -0,0 +1,357 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/* Closed-loop load generator and soak test of a server of package http over loopback. It starts a
+ * server with a handler of its own (or targets a running one with the same routes), opens a number
+ * of keep-alive connections, each in a thread of its own (LoadConnection), and replays a mix of
+ * requests on them: GET of posts (small bodies with Content-Length), downloads of a content file
+ * (plain from the file with Content-Length, chunked from a stream, and with gzip transfer coding),
+ * and uploads. After warmup, it reports throughput and percentiles of latency, corrected for
+ * coordinated omission, and of service time; with --report, it prints a line per interval too,
+ * so that a soak test shows drift of latency, failures and heap over hours. Options:
+ *
+ *   --server nio|blocking     engine of the embedded server (nio)
+ *   --address host:port       running server to load instead of an embedded one
+ *   --connections n           keep-alive connections (64)
+ *   --rate n                  requests per second of all connections together; 0 sends each
+ *                             request as soon as the previous response is read (0)
+ *   --warmup s, --duration s  seconds of warmup and of measurement (10, 30)
+ *   --report s                seconds between interval lines; 0 prints none (0)
+ *   --mix kind=weight,...     weights of kinds post, plain, chunked, gzip, upload
+ *                             (post=70,plain=10,chunked=10,gzip=5,upload=5)
+ *   --content-size bytes      size of the content file (65536)
+ *   --upload-size bytes       size of an upload (16384)
+ *
+ * Exit status is 1, if any request failed (with an error status or a broken connection). */
+public class LoadGenerator {
+
+	/* Kinds of requests of the mix. */
+	enum Kind {POST, PLAIN, CHUNKED, GZIP, UPLOAD}
+
+	private static final int POSTS = 256; // distinct posts, requested at random
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		Map<String, String> options = parseOptions(args);
+		String engine = options.getOrDefault("server", "nio");
+		int connections = intOption(options, "connections", 64);
+		double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+		long warmup = intOption(options, "warmup", 10) * 1_000_000_000L;
+		long duration = intOption(options, "duration", 30) * 1_000_000_000L;
+		long report = intOption(options, "report", 0) * 1_000_000_000L;
+		int contentSize = intOption(options, "content-size", 65536);
+		int uploadSize = intOption(options, "upload-size", 16384);
+		Mix mix = new Mix(options.getOrDefault("mix", "post=70,plain=10,chunked=10,gzip=5,upload=5"), uploadSize);
+		if (connections < 1 || rate < 0 || duration <= 0 || warmup < 0 || report < 0 || contentSize < 0) {
+			throw new IllegalArgumentException("Invalid options.");
+		}
+
+		HttpServer server = null;
+		Path content = null;
+		InetSocketAddress address;
+		if (options.containsKey("address")) {
+			String target = options.get("address");
+			int colon = target.lastIndexOf(':');
+			address = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+		} else {
+			content = Files.createTempFile("bordura-load", ".txt");
+			Files.write(content, contentOf(contentSize));
+			Metrics metrics = new Metrics();
+			server = startServer(engine, handler(content, metrics), metrics);
+			address = server.localAddress();
+		}
+
+		PrintStream out = System.out;
+		out.printf(Locale.ROOT, "%s, %d connections, %s, mix %s, warmup %d s, duration %d s%n",
+			(server != null) ? engine + " server " + address : "server " + address, connections,
+			(rate > 0) ? rate + " requests/s" : "closed loop without rate", mix, warmup / 1_000_000_000L,
+			duration / 1_000_000_000L);
+		long interval = (rate > 0) ? Math.round(connections * 1e9 / rate) : 0;
+		long begin = System.nanoTime();
+		long measureFrom = begin + warmup;
+		long until = measureFrom + duration;
+		List<LoadConnection> clients = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < connections; i++) {
+			LoadConnection client = new LoadConnection(address, mix, interval, measureFrom, until, i);
+			Thread thread = new Thread(client, "load-" + i);
+			thread.setDaemon(true);
+			clients.add(client);
+			threads.add(thread);
+			thread.start();
+		}
+		try {
+			if (report > 0) {
+				reportIntervals(out, clients, measureFrom, until, report);
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} finally {
+			if (server != null) {
+				server.close();
+				Files.deleteIfExists(content);
+			}
+		}
+
+		long failures = report(out, clients, interval, (System.nanoTime() > until) ? duration : System.nanoTime() - measureFrom);
+		System.exit((failures > 0) ? 1 : 0);
+	}
+
+	private static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i < args.length; i += 2) {
+			if (!args[i].startsWith("--") || i + 1 == args.length) {
+				throw new IllegalArgumentException("Expected --option value: " + args[i]);
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		return options;
+	}
+
+	private static int intOption(Map<String, String> options, String name, int defaultValue) {
+		String value = options.get(name);
+		return (value != null) ? Integer.parseInt(value) : defaultValue;
+	}
+
+	/* Returns content, half text and half random bytes, so that it compresses about as well as a
+	 * typical page. */
+	private static byte[] contentOf(int size) {
+		byte[] content = new byte[size];
+		new Random(1).nextBytes(content);
+		for (int i = 0; i < size / 2; i++) {
+			content[i] = (byte) ('a' + i % 26);
+		}
+		return content;
+	}
+
+	/* Returns handler of the routes, which the mix requests; the server's metrics are routed at
+	 * GET /metrics, to be scraped during a soak test. */
+	private static HttpHandler handler(Path content, Metrics metrics) throws IOException {
+		byte[] bytes = Files.readAllBytes(content);
+		return Router.newBuilder()
+			.route(HttpRequest.Method.GET, "/metrics", metrics)
+			.route(HttpRequest.Method.GET, "/posts/{id}", (request, parameters) -> HttpResponse.newBuilder().status(200)
+				.addHeader("Content-Type", "text/plain; charset=utf-8")
+				.body(HttpResponse.BodyPublisher.ofString(post(parameters.get("id")))).build())
+			.route(HttpRequest.Method.GET, "/content/plain", request -> HttpResponse.newBuilder().status(200)
+				.addHeader("Content-Type", "text/plain")
+				.body(HttpResponse.BodyPublisher.ofFile(content)).build())
+			.route(HttpRequest.Method.GET, "/content/chunked", request -> HttpResponse.newBuilder().status(200)
+				.addHeader("Content-Type", "text/plain")
+				.body(HttpResponse.BodyPublisher.ofInputStream(() -> new ByteArrayInputStream(bytes))).build())
+			.route(HttpRequest.Method.GET, "/content/gzip", request -> HttpResponse.newBuilder().status(200)
+				.addHeader("Content-Type", "text/plain")
+				.body(HttpResponse.BodyPublisher.ofFile(content)).useGzipTransferEncoding(true).build())
+			.route(HttpRequest.Method.POST, "/uploads", request -> {
+				long length = 0;
+				if (request.body().isPresent()) {
+					try (InputStream body = request.body().get()) {
+						byte[] buffer = new byte[16384];
+						int n;
+						while ((n = body.read(buffer)) >= 0) {
+							length += n;
+						}
+					}
+				}
+				return HttpResponse.newBuilder().status(201)
+					.body(HttpResponse.BodyPublisher.ofString(Long.toString(length))).build();
+			})
+			.build();
+	}
+
+	private static String post(String id) {
+		StringBuilder post = new StringBuilder(1024);
+		post.append("Post ").append(id).append('\n');
+		while (post.length() < 1000) {
+			post.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ");
+		}
+		return post.toString();
+	}
+
+	private static HttpServer startServer(String engine, HttpHandler handler, Metrics metrics) throws IOException {
+		InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		HttpServer server = switch (engine) {
+			case "nio" -> NioHttpServer.newBuilder().address(loopback).handler(handler).metrics(metrics).build();
+			case "blocking" -> BlockingHttpServer.newBuilder().address(loopback).handler(handler).metrics(metrics).build();
+			default -> throw new IllegalArgumentException("Unknown server: " + engine);
+		};
+		server.start();
+		return server;
+	}
+
+	/* Prints a line per interval of measurement, until its end. */
+	private static void reportIntervals(PrintStream out, List<LoadConnection> clients, long measureFrom, long until,
+										long interval) throws InterruptedException {
+		sleepUntil(measureFrom);
+		for (LoadConnection client : clients) { // discards the warmup
+			client.takeIntervalLatency();
+		}
+		long last = measureFrom;
+		for (long next = measureFrom + interval; last < until; next += interval) {
+			sleepUntil(Math.min(next, until));
+			long now = System.nanoTime();
+			PercentileHistogram latency = new PercentileHistogram();
+			for (LoadConnection client : clients) {
+				latency.add(client.takeIntervalLatency());
+			}
+			Runtime runtime = Runtime.getRuntime();
+			out.printf(Locale.ROOT, "%6d s %10.0f requests/s   p50 %s   p99 %s   max %s   heap %d MB%n",
+				(now - measureFrom) / 1_000_000_000L, latency.count() * 1e9 / (now - last),
+				millis(latency.percentile(50)), millis(latency.percentile(99)), millis(latency.max()),
+				(runtime.totalMemory() - runtime.freeMemory()) >> 20);
+			last = now;
+		}
+	}
+
+	private static void sleepUntil(long deadline) throws InterruptedException {
+		long wait;
+		while ((wait = deadline - System.nanoTime()) > 0) {
+			Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+		}
+	}
+
+	/* Prints the results of all connections; returns the number of failed requests. */
+	private static long report(PrintStream out, List<LoadConnection> clients, long interval, long duration) {
+		PercentileHistogram latency = new PercentileHistogram();
+		PercentileHistogram serviceTime = new PercentileHistogram();
+		long[] requests = new long[Kind.values().length];
+		long[] failures = new long[Kind.values().length];
+		long received = 0;
+		long sent = 0;
+		long connects = 0;
+		for (LoadConnection client : clients) {
+			latency.add(client.latency);
+			serviceTime.add(client.serviceTime);
+			for (int i = 0; i < requests.length; i++) {
+				requests[i] += client.requests[i];
+				failures[i] += client.failures[i];
+			}
+			received += client.receivedBytes;
+			sent += client.sentBytes;
+			connects += client.connects;
+		}
+		if (interval == 0) { // requests were sent at the pace of responses, one per mean service time
+			latency = serviceTime.corrected(serviceTime.mean());
+		}
+		long total = Arrays.stream(requests).sum();
+		long failed = Arrays.stream(failures).sum();
+		double seconds = duration / 1e9;
+		out.println();
+		for (Kind kind : Kind.values()) {
+			out.printf(Locale.ROOT, "%-8s %12d requests %8d failed%n", kind.name().toLowerCase(),
+				requests[kind.ordinal()], failures[kind.ordinal()]);
+		}
+		out.printf(Locale.ROOT, "%-8s %12d requests %8d failed   %d connects%n", "total", total, failed, connects);
+		out.printf(Locale.ROOT, "throughput %.0f requests/s, received %.1f MB/s, sent %.1f MB/s%n",
+			total / seconds, received / seconds / 1e6, sent / seconds / 1e6);
+		out.println();
+		out.printf(Locale.ROOT, "%-26s", "latency in ms");
+		for (double percentile : PERCENTILES) {
+			out.printf(Locale.ROOT, "%10s", "p" + (percentile == (long) percentile ? Long.toString((long) percentile) : percentile));
+		}
+		out.printf(Locale.ROOT, "%10s%10s%n", "max", "mean");
+		printLatencies(out, "corrected response time", latency);
+		printLatencies(out, "service time", serviceTime);
+		return failed;
+	}
+
+	private static void printLatencies(PrintStream out, String name, PercentileHistogram histogram) {
+		out.printf(Locale.ROOT, "%-26s", name);
+		for (double percentile : PERCENTILES) {
+			out.printf(Locale.ROOT, "%10s", millis(histogram.percentile(percentile)));
+		}
+		out.printf(Locale.ROOT, "%10s%10s%n", millis(histogram.max()), millis(histogram.mean()));
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	/* Mix of requests by weights of their kinds, with the bytes of each request prepared up front,
+	 * so that the client spends as little as possible of the CPU, which it shares with the server. */
+	static final class Mix {
+
+		private final Kind[] kinds; // by weight: a kind of weight w is in w elements
+		private final String description;
+		private final byte[][] posts;
+		private final byte[][] requests; // by kind, except POST
+		private final byte[] upload;
+
+		Mix(String weights, int uploadSize) {
+			List<Kind> kinds = new ArrayList<>();
+			for (String weight : weights.split(",")) {
+				int equals = weight.indexOf('=');
+				if (equals < 0) {
+					throw new IllegalArgumentException("Expected kind=weight: " + weight);
+				}
+				Kind kind = Kind.valueOf(weight.substring(0, equals).strip().toUpperCase());
+				int times = Integer.parseInt(weight.substring(equals + 1).strip());
+				if (times < 0) {
+					throw new IllegalArgumentException("Weight must not be negative: " + weight);
+				}
+				for (int i = 0; i < times; i++) {
+					kinds.add(kind);
+				}
+			}
+			if (kinds.isEmpty()) {
+				throw new IllegalArgumentException("Mix must have a kind of positive weight.");
+			}
+			this.kinds = kinds.toArray(new Kind[0]);
+			this.description = weights;
+			this.posts = new byte[POSTS][];
+			for (int i = 0; i < POSTS; i++) {
+				posts[i] = requestOf("GET /posts/" + i, "");
+			}
+			this.requests = new byte[Kind.values().length][];
+			requests[Kind.PLAIN.ordinal()] = requestOf("GET /content/plain", "");
+			requests[Kind.CHUNKED.ordinal()] = requestOf("GET /content/chunked", "");
+			requests[Kind.GZIP.ordinal()] = requestOf("GET /content/gzip", "TE: gzip\r\nConnection: keep-alive, TE\r\n");
+			requests[Kind.UPLOAD.ordinal()] = requestOf("POST /uploads",
+				"Content-Type: application/octet-stream\r\nContent-Length: " + uploadSize + "\r\n");
+			this.upload = contentOf(uploadSize);
+		}
+
+		private static byte[] requestOf(String requestLine, String fields) {
+			return (requestLine + " HTTP/1.1\r\nHost: localhost\r\n" + fields + "\r\n").getBytes(ISO_8859_1);
+		}
+
+		Kind next(SplittableRandom random) {
+			return kinds[random.nextInt(kinds.length)];
+		}
+
+		byte[] request(Kind kind, SplittableRandom random) {
+			return (kind == Kind.POST) ? posts[random.nextInt(POSTS)] : requests[kind.ordinal()];
+		}
+
+		/* Returns the body, which follows the request of kind, or null. */
+		byte[] uploadBody(Kind kind) {
+			return (kind == Kind.UPLOAD) ? upload : null;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+
+	}
+
+}
@@ -0,0 +1,119 @@
+package http;
+
+/* Histogram of latencies in nanoseconds for percentiles, with 64 linear sub-buckets per power of 2,
+ * so that a recorded value is off by less than 1.6 %, from 0 to Long.MAX_VALUE in about 3700
+ * buckets. Unlike LatencyHistogram of the server, it is written by a single thread (one per
+ * connection of the load generator), and histograms of threads are merged with add(). */
+final class PercentileHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR = 2 * SUB_BUCKETS; // values below are counted exactly
+
+	private final long[] counts;
+	private long count;
+	private long sum;
+	private long max;
+
+	PercentileHistogram() {
+		this.counts = new long[index(Long.MAX_VALUE) + 1];
+		this.count = 0;
+		this.sum = 0;
+		this.max = 0;
+	}
+
+	void record(long nanos) {
+		record(nanos, 1);
+	}
+
+	private void record(long nanos, long times) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts[index(nanos)] += times;
+		count += times;
+		sum += nanos * times;
+		max = Math.max(max, nanos);
+	}
+
+	static int index(long value) {
+		if (value < LINEAR) {
+			return (int) value;
+		}
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return LINEAR + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/* Returns the highest value, which is counted in the bucket of index. */
+	static long highestValue(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+		long lowest = (long) ((index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	void add(PercentileHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	/* Returns a copy, corrected for coordinated omission: a closed-loop client does not send,
+	 * while it waits for a slow response, so the requests, which it would have sent meanwhile at
+	 * its usual pace of one per expectedInterval, are missing from the histogram, and so is their
+	 * waiting. For each latency longer than expectedInterval, the copy has the missing ones too,
+	 * of latency - expectedInterval, latency - 2 * expectedInterval, and so on down to
+	 * expectedInterval. */
+	PercentileHistogram corrected(long expectedInterval) {
+		PercentileHistogram corrected = new PercentileHistogram();
+		corrected.add(this);
+		if (expectedInterval <= 0) {
+			return corrected;
+		}
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			long value = Math.min(highestValue(i), max);
+			for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+				corrected.record(missing, counts[i]);
+			}
+		}
+		return corrected;
+	}
+
+	long count() {
+		return count;
+	}
+
+	long mean() {
+		return (count > 0) ? sum / count : 0;
+	}
+
+	long max() {
+		return max;
+	}
+
+	/* Returns the value, which percentile (0 to 100) of recorded values do not exceed, as the
+	 * highest value of its bucket, but no more than the maximum. */
+	long percentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max);
+			}
+		}
+		return max;
+	}
+
+}
@@ -0,0 +1,192 @@
+package http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Decides, whether a request is handled, so that a server under overload keeps its latency
+ * instead of queueing without bound. Up to maxInFlightRequests requests are handled at once;
+ * up to maxQueuedRequests further ones wait for their turn, and any more are answered with
+ * 503 at once. If maxRequestsPerPeer is set, requests of a single peer (remote IP address)
+ * beyond it are answered with 429, so that one peer cannot take all capacity. Both are sent with
+ * Retry-After. Peers are counted exactly, each by its address, in a map, which holds only peers
+ * with requests in flight or queued. Admission takes no lock: the counter of a peer is added
+ * to the map at its first request and then changed by compare-and-set; the last request of a
+ * peer retires its counter at 0, and the counter is removed from the map, so that a later request
+ * does not count in it, but adds a new one. */
+public final class AdmissionControl {
+
+	private final int maxInFlight;
+	private final Semaphore inFlight;
+	private final AtomicInteger queued;
+	private final int maxQueued;
+	private final ConcurrentMap<InetAddress, AtomicInteger> peers; // requests of each peer, in flight or queued; -1 if retired
+	private final int maxPerPeer;
+	private final String retryAfter; // in seconds
+
+	private AdmissionControl(int maxInFlight, int maxQueued, int maxPerPeer, Duration retryAfter) {
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+		this.queued = new AtomicInteger();
+		this.maxQueued = maxQueued;
+		this.peers = new ConcurrentHashMap<>();
+		this.maxPerPeer = maxPerPeer;
+		this.retryAfter = Long.toString(Math.max(1, retryAfter.toSeconds()));
+	}
+
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	/* Handles request of peer with handler, if it is admitted, or returns 503 or 429. Peer may
+	 * be null, if it is unknown; then only the limit of all requests applies. */
+	HttpResponse handle(InetAddress peer, HttpRequest request, HttpHandler handler) throws IOException, HttpException {
+		AtomicInteger counter = null; // of peer, if requests of peers are limited
+		if (peer != null && maxPerPeer < Integer.MAX_VALUE) {
+			counter = enter(peer);
+			if (counter == null) {
+				return rejection(429);
+			}
+		}
+		try {
+			if (!inFlight.tryAcquire()) {
+				if (queued.incrementAndGet() > maxQueued) {
+					queued.decrementAndGet();
+					return rejection(503);
+				}
+				try {
+					inFlight.acquire();
+				} catch (InterruptedException e) { // server is being closed
+					Thread.currentThread().interrupt();
+					return HttpResponse.ofStatus(503, true);
+				} finally {
+					queued.decrementAndGet();
+				}
+			}
+			try {
+				return handler.handle(request);
+			} finally {
+				inFlight.release();
+			}
+		} finally {
+			if (counter != null) {
+				leave(peer, counter);
+			}
+		}
+	}
+
+	/* Returns number of requests, which are being handled. */
+	int inFlightRequests() {
+		return maxInFlight - inFlight.availablePermits();
+	}
+
+	/* Returns number of requests, which wait for one in flight to finish. */
+	int queuedRequests() {
+		return queued.get();
+	}
+
+	/* Returns number of peers with requests in flight or queued. */
+	int peers() {
+		return peers.size();
+	}
+
+	/* Counts a request of peer and returns its counter, or returns null, if peer has
+	 * maxRequestsPerPeer already. */
+	private AtomicInteger enter(InetAddress peer) {
+		while (true) {
+			AtomicInteger counter = peers.get(peer);
+			if (counter == null) { // first request of peer
+				counter = peers.computeIfAbsent(peer, address -> new AtomicInteger());
+			}
+			int count;
+			while ((count = counter.get()) >= 0) {
+				if (count >= maxPerPeer) {
+					return null;
+				}
+				if (counter.compareAndSet(count, count + 1)) {
+					return counter;
+				}
+			}
+			peers.remove(peer, counter); // retired, but not removed yet by the request, which retired it
+		}
+	}
+
+	/* Counts a request of peer as finished; the counter is retired and removed, once peer has
+	 * none left. */
+	private void leave(InetAddress peer, AtomicInteger counter) {
+		if (counter.decrementAndGet() == 0 && counter.compareAndSet(0, -1)) {
+			peers.remove(peer, counter);
+		}
+	}
+
+	private HttpResponse rejection(int status) {
+		try {
+			return HttpResponse.newBuilder().status(status).addHeader("Retry-After", retryAfter)
+				.body(HttpResponse.BodyPublisher.ofString("")).build(); // Content-Length: 0, so the connection is kept
+		} catch (IOException e) { // cannot happen, there is no file to be read
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static class Builder {
+
+		private int maxInFlightRequests;
+		private int maxQueuedRequests;
+		private int maxRequestsPerPeer;
+		private Duration retryAfter;
+
+		private Builder() {
+			this.maxInFlightRequests = 1000;
+			this.maxQueuedRequests = 1000;
+			this.maxRequestsPerPeer = Integer.MAX_VALUE; // no limit
+			this.retryAfter = Duration.ofSeconds(1);
+		}
+
+		public Builder maxInFlightRequests(int maxInFlightRequests) {
+			if (maxInFlightRequests < 1) {
+				throw new IllegalArgumentException("Maximum number of in-flight requests must be positive.");
+			}
+			this.maxInFlightRequests = maxInFlightRequests;
+			return this;
+		}
+
+		/* Requests, which wait for one of maxInFlightRequests to finish; 0 rejects at once. */
+		public Builder maxQueuedRequests(int maxQueuedRequests) {
+			if (maxQueuedRequests < 0) {
+				throw new IllegalArgumentException("Maximum number of queued requests must not be negative.");
+			}
+			this.maxQueuedRequests = maxQueuedRequests;
+			return this;
+		}
+
+		/* Requests of a single remote address, in flight or queued. There is no limit by default:
+		 * many clients may share an address, e.g. behind a proxy, and a load generator opens many
+		 * connections from a single one. */
+		public Builder maxRequestsPerPeer(int maxRequestsPerPeer) {
+			if (maxRequestsPerPeer < 1) {
+				throw new IllegalArgumentException("Maximum number of requests per peer must be positive.");
+			}
+			this.maxRequestsPerPeer = maxRequestsPerPeer;
+			return this;
+		}
+
+		/* Sent in Retry-After of rejected requests, in whole seconds. */
+		public Builder retryAfter(Duration retryAfter) {
+			if (retryAfter == null || retryAfter.isNegative()) {
+				throw new IllegalArgumentException("Retry-After must not be negative.");
+			}
+			this.retryAfter = retryAfter;
+			return this;
+		}
+
+		public AdmissionControl build() {
+			return new AdmissionControl(maxInFlightRequests, maxQueuedRequests, maxRequestsPerPeer, retryAfter);
+		}
+
+	}
+
+}
@@ -9,7 +9,7 @@ class AsciiChars {
 	static final int COL = 0x3A; // colon, ':'
 	
 	static boolean isTchar(int c) {
-		return     (c >= 0x5E && c < 0x7A) // '^', '_', '`' or lower-case letter
+		return     (c >= 0x5E && c <= 0x7A) // '^', '_', '`' or lower-case letter
 				|| (c >= 0x41 && c <= 0x5A) // upper-case letter
 				|| (c >= 0x30 && c <= 0x39) // digit
 				|| (c >= 0x23 && c <= 0x27) // '#', '$', '%', '&' or '\''
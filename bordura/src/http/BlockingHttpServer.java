@@ -0,0 +1,558 @@
+package http;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/* HTTP/1.1 server, serving each connection on its own thread with plain blocking I/O.
+ * Where the runtime supports them (Java 21 and later), virtual threads are used, so that
+ * handlers can be simple blocking code (e.g. JDBC calls) and still scale to a large number
+ * of connections. On older runtimes, platform threads from a cached pool are used instead.
+ * Unless disabled, HTTP/2 over cleartext is served as well, to clients with prior knowledge
+ * and to those upgrading from HTTP/1.1; streams of such connections are handled as separate
+ * tasks of the same executor. Waiting for a slow or idle client is bounded by deadlines in a
+ * timer wheel, shared by all connections and advanced by a single timer thread: when one
+ * passes, input of the connection is shut down, so that its blocked read returns. Requests are
+ * handled, as far as an AdmissionControl admits them; the rest is answered with 503 or 429.
+ * Parsing, handling and writing, bytes and connections are recorded into Metrics. */
+public class BlockingHttpServer implements HttpServer {
+
+	private final InetSocketAddress address;
+	private final int backlog;
+	private final ExecutorService executor;
+	private final boolean ownsExecutor; // if true, executor is shut down at close()
+	private final Semaphore connectionPermits; // limits number of concurrently open connections
+	private final AdmissionControl admission; // limits number of concurrently handled requests
+	private final Metrics metrics;
+	private final HttpHandler handler;
+	private final boolean http2;
+	private final long headerTimeout; // nanoseconds
+	private final long bodyTimeout;
+	private final long idleTimeout;
+	private final long maxRequestBodyLength;
+	private final TimerWheel timers;
+	private final Set<SocketChannel> openChannels;
+	private ServerSocketChannel serverChannel;
+	private Thread acceptor;
+	private Thread timer; // advances timers
+	private volatile boolean running;
+
+	private BlockingHttpServer(InetSocketAddress address, int backlog, ExecutorService executor,
+							   boolean ownsExecutor, int maxConnections, AdmissionControl admission,
+							   Metrics metrics, HttpHandler handler, boolean http2, Duration headerTimeout, Duration bodyTimeout,
+							   Duration idleTimeout, long maxRequestBodyLength) {
+		this.address = address;
+		this.backlog = backlog;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.connectionPermits = new Semaphore(maxConnections);
+		this.admission = admission;
+		this.metrics = metrics;
+		metrics.observe(admission);
+		this.handler = metrics.timed(handler);
+		this.http2 = http2;
+		this.headerTimeout = headerTimeout.toNanos();
+		this.bodyTimeout = bodyTimeout.toNanos();
+		this.idleTimeout = idleTimeout.toNanos();
+		this.maxRequestBodyLength = maxRequestBodyLength;
+		this.timers = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(100), 1024);
+		this.openChannels = ConcurrentHashMap.newKeySet();
+		this.running = false;
+	}
+
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	@Override
+	public void start() throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(address, backlog);
+		running = true;
+		acceptor = new Thread(this::acceptConnections, "bordura-acceptor");
+		acceptor.start();
+		timer = new Thread(this::advanceTimers, "bordura-timer");
+		timer.setDaemon(true);
+		timer.start();
+	}
+
+	@Override
+	public InetSocketAddress localAddress() throws IOException {
+		return (InetSocketAddress) serverChannel.getLocalAddress();
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		try {
+			if (serverChannel != null) {
+				serverChannel.close(); // this also stops acceptor, blocked in accept()
+			}
+		} catch (IOException e) {
+			// ignore, server is being stopped
+		}
+		if (acceptor != null) {
+			acceptor.interrupt(); // acceptor might be waiting for a connection permit
+		}
+		if (timer != null) {
+			timer.interrupt();
+		}
+		for (SocketChannel channel : openChannels) {
+			closeQuietly(channel);
+		}
+		if (ownsExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	private void acceptConnections() {
+		while (running) {
+			try {
+				connectionPermits.acquire(); // when at limit, further connections wait in backlog
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				SocketChannel channel = serverChannel.accept();
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				openChannels.add(channel);
+				executor.execute(() -> serve(channel));
+			} catch (IOException | RuntimeException e) { // server channel closed or executor shut down
+				connectionPermits.release();
+				if (!serverChannel.isOpen()) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void advanceTimers() {
+		while (running) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(timers.nanosToNextTick());
+			} catch (InterruptedException e) {
+				return;
+			}
+			timers.advance();
+		}
+	}
+
+	/* Reads requests and writes responses in a loop, as long as the connection is kept alive.
+	 * Requests, which are pipelined behind a bodiless GET or HEAD, are read ahead, while it is
+	 * handled on another task of the executor; responses are written in the order of requests. */
+	private void serve(SocketChannel channel) {
+		InetAddress peer = channel.socket().getInetAddress(); // remote address, for admission control and events
+		TimedInput in = new TimedInput(channel);
+		HttpRequestReader reader = new HttpRequestReader(in, peer);
+		ChannelOutputStream out = new ChannelOutputStream(channel, metrics); // sends file bodies with transferTo
+		ResponseQueue responses = new ResponseQueue((response, close) -> write(channel, peer, out, response, close));
+		metrics.connectionOpened();
+		try {
+			HttpHandler admitted = request -> handle(peer, request);
+			in.expect(Phase.IDLE);
+			if (http2 && reader.readPreface(Http2Connection.PREFACE)) { // HTTP/2 with prior knowledge
+				in.expect(Phase.NONE);
+				new Http2Connection(reader.remainder(), out, channel, peer, executor, admitted, metrics).serve(null, null);
+				return;
+			}
+			while (running && !responses.isClosed()) {
+				HttpRequest request;
+				in.expect(reader.hasBuffered() ? Phase.HEAD : Phase.IDLE);
+				try {
+					request = reader.read().withExpectation(maxRequestBodyLength, () -> sendContinue(responses, out));
+					metrics.parsed(reader.parseNanos());
+				} catch (EOFException e) { // peer closed connection between requests, or it was idle for too long
+					break;
+				} catch (HttpException e) { // also refuses body of request by its head, before it is sent
+					// if request head was not complete in time, stream ended in its middle
+					int status = in.timedOut() ? 408 : e.returnStatusCode();
+					responses.complete(responses.add(), HttpResponse.ofStatus(status, true), true);
+					break;
+				}
+				in.expect(request.bodyStream() == null ? Phase.NONE : Phase.BODY);
+				byte[] settings = http2 ? Http2Connection.upgradeSettings(request) : null;
+				if (settings != null) { // upgrade to HTTP/2, request is answered on stream 1
+					responses.awaitBelow(1);
+					if (responses.isClosed()) {
+						break;
+					}
+					HttpResponse.newBuilder().status(101).addHeader("Connection", "Upgrade")
+						.addHeader("Upgrade", "h2c").build().writeTo(out);
+					out.flush();
+					in.expect(Phase.NONE);
+					new Http2Connection(reader.remainder(), out, channel, peer, executor, admitted, metrics)
+						.serve(request, settings);
+					return;
+				}
+				responses.awaitBelow(ResponseQueue.DEPTH);
+				ResponseQueue.Slot slot = responses.add();
+				if (reader.hasBuffered() && isPipelinable(request)) { // next request has arrived already
+					try {
+						executor.execute(() -> complete(responses, slot, peer, request));
+						continue;
+					} catch (RejectedExecutionException e) {
+						// server is being closed, request is handled on this thread
+					}
+				}
+				HttpResponse response;
+				try {
+					response = headOnlyIfHead(request, handle(peer, request));
+				} catch (IOException e) {
+					HttpException cause = HttpException.causeOf(e);
+					if (cause != null) { // body was refused, while it was read
+						response = HttpResponse.ofStatus(cause.returnStatusCode(), true);
+					} else if (!in.timedOut()) {
+						throw e; // connection failed
+					} else {
+						response = null;
+					}
+				}
+				if (in.timedOut()) { // handler got end of stream instead of the rest of body
+					response = HttpResponse.ofStatus(408, true);
+				}
+				responses.complete(slot, response, in.timedOut() || !request.keepAlive()
+								   || !request.skipBody(BodyInputStream.DRAIN_LIMIT));
+			}
+			responses.awaitBelow(1); // responses to pipelined requests are written before closing
+		} catch (IOException e) {
+			// connection failed; nothing to be done but to close it
+		} finally {
+			in.expect(Phase.NONE);
+			openChannels.remove(channel);
+			closeQuietly(channel);
+			responses.close();
+			responses.awaitBelow(1); // response, which is being written, fails on closed channel
+			reader.release(); // buffers are returned to the pool, once the connection is closed
+			out.release();
+			metrics.connectionClosed();
+			connectionPermits.release();
+		}
+	}
+
+	/* Returns true, if request may be handled concurrently with the following ones: it is safe,
+	 * has no body to be read from the connection and does not close it. */
+	private static boolean isPipelinable(HttpRequest request) {
+		return (request.method() == HttpRequest.Method.GET || request.method() == HttpRequest.Method.HEAD)
+			&& request.bodyStream() == null && request.keepAlive();
+	}
+
+	private void complete(ResponseQueue responses, ResponseQueue.Slot slot, InetAddress peer, HttpRequest request) {
+		HttpResponse response;
+		try {
+			response = headOnlyIfHead(request, handle(peer, request));
+		} catch (IOException e) {
+			response = HttpResponse.ofStatus(500, true);
+		}
+		responses.complete(slot, response, false);
+	}
+
+	/* Sends interim response 100 (Continue), once responses to previous requests are written. */
+	private static void sendContinue(ResponseQueue responses, ChannelOutputStream out) throws IOException {
+		responses.awaitBelow(2); // only the slot of the request itself remains
+		out.write(ContinueInputStream.CONTINUE);
+		out.flush();
+	}
+
+	/* Writes response, as the ResponseQueue.Writer of a connection. */
+	private boolean write(SocketChannel channel, InetAddress peer, ChannelOutputStream out, HttpResponse response,
+						  boolean close) {
+		long start = System.nanoTime();
+		try {
+			response.writeTo(out, peer);
+			out.flush();
+			if (close || response.closesConnection()) {
+				closeQuietly(channel); // also stops reading of further requests
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			closeQuietly(channel);
+			return false;
+		} finally {
+			metrics.responded(response.status(), System.nanoTime() - start);
+		}
+	}
+
+	/* Returns response without body, if it answers a HEAD request; HTTP/2 leaves out the body by itself. */
+	private static HttpResponse headOnlyIfHead(HttpRequest request, HttpResponse response) {
+		return (request.method() == HttpRequest.Method.HEAD) ? response.headOnly() : response;
+	}
+
+	/* Handles request of peer, if admission control admits it. */
+	private HttpResponse handle(InetAddress peer, HttpRequest request) throws IOException {
+		try {
+			return admission.handle(peer, request, handler);
+		} catch (HttpException e) {
+			return HttpResponse.ofStatus(e.returnStatusCode(), false);
+		} catch (RuntimeException e) {
+			return HttpResponse.ofStatus(500, true);
+		}
+	}
+
+	/* What the deadline of a connection is waiting for. */
+	private enum Phase {NONE, IDLE, HEAD, BODY}
+
+	/* Input stream of a connection, whose reads are bounded by the deadline of the current phase.
+	 * The deadline of IDLE starts, when the next request is expected, and the one of HEAD with the
+	 * first byte of the request; the one of BODY restarts with every read, so that it only bounds
+	 * waiting for the client, not the handler's own work. */
+	private final class TimedInput extends FilterInputStream {
+
+		private final SocketChannel channel;
+		private final TimerWheel.Timeout timeout;
+		private volatile Phase phase;
+		private volatile boolean timedOut; // true, if a request did not arrive in time
+
+		private TimedInput(SocketChannel channel) {
+			super(Channels.newInputStream(channel));
+			this.channel = channel;
+			this.timeout = new TimerWheel.Timeout(this::expire);
+			this.phase = Phase.NONE;
+			this.timedOut = false;
+		}
+
+		/* Called by the thread, which serves the connection, when it starts waiting for phase. */
+		private void expect(Phase phase) {
+			this.phase = phase;
+			switch (phase) {
+				case IDLE -> timers.schedule(timeout, idleTimeout);
+				case HEAD -> timers.schedule(timeout, headerTimeout);
+				default -> timers.cancel(timeout); // BODY is scheduled by each read
+			}
+		}
+
+		private boolean timedOut() {
+			return timedOut;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return (read(single, 0, 1) < 0) ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (phase == Phase.BODY) {
+				timers.schedule(timeout, bodyTimeout);
+				try {
+					int n = in.read(b, off, len);
+					if (n > 0) {
+						metrics.received(n);
+					}
+					return n;
+				} finally {
+					timers.cancel(timeout);
+				}
+			}
+			int n = in.read(b, off, len);
+			if (n > 0) {
+				metrics.received(n);
+				if (phase == Phase.IDLE) { // first bytes of request
+					expect(Phase.HEAD);
+				}
+			}
+			return n;
+		}
+
+		/* Runs on the timer thread. The blocked read returns end of stream, after which the
+		 * connection is closed; if a request was being received, it is answered with 408. */
+		private void expire() {
+			Phase expired = phase;
+			if (expired == Phase.NONE) {
+				return;
+			}
+			timedOut = expired != Phase.IDLE;
+			try {
+				channel.shutdownInput();
+			} catch (IOException e) {
+				closeQuietly(channel);
+			}
+		}
+
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// ignore, connection is being discarded anyway
+		}
+	}
+
+	/* Returns an executor, which starts a new virtual thread for each task, if the runtime
+	 * supports virtual threads, or a cached pool of platform threads otherwise. */
+	private static ExecutorService newThreadPerConnectionExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "bordura-connection");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	public static class Builder {
+
+		private InetSocketAddress address;
+		private int backlog;
+		private int maxConnections;
+		private int maxInFlightRequests;
+		private AdmissionControl admission;
+		private Metrics metrics;
+		private ExecutorService executor;
+		private HttpHandler handler;
+		private boolean http2;
+		private Duration headerTimeout;
+		private Duration bodyTimeout;
+		private Duration idleTimeout;
+		private long maxRequestBodyLength;
+
+		private Builder() {
+			this.address = new InetSocketAddress(8080);
+			this.backlog = 1024;
+			this.maxConnections = 10000;
+			this.maxInFlightRequests = 1000;
+			this.admission = null; // created from maxInFlightRequests at build() time, if not set
+			this.metrics = new Metrics();
+			this.executor = null; // thread-per-connection executor is created at build() time, if not set
+			this.handler = request -> HttpResponse.ofStatus(404, false);
+			this.http2 = true;
+			this.headerTimeout = Duration.ofSeconds(20);
+			this.bodyTimeout = Duration.ofSeconds(30);
+			this.idleTimeout = Duration.ofSeconds(60);
+			this.maxRequestBodyLength = Long.MAX_VALUE;
+		}
+
+		public Builder address(InetSocketAddress address) {
+			this.address = address;
+			return this;
+		}
+
+		public Builder backlog(int backlog) {
+			if (backlog < 1) {
+				throw new IllegalArgumentException("Backlog must be positive.");
+			}
+			this.backlog = backlog;
+			return this;
+		}
+
+		public Builder maxConnections(int maxConnections) {
+			if (maxConnections < 1) {
+				throw new IllegalArgumentException("Maximum number of connections must be positive.");
+			}
+			this.maxConnections = maxConnections;
+			return this;
+		}
+
+		public Builder maxInFlightRequests(int maxInFlightRequests) {
+			if (maxInFlightRequests < 1) {
+				throw new IllegalArgumentException("Maximum number of in-flight requests must be positive.");
+			}
+			this.maxInFlightRequests = maxInFlightRequests;
+			return this;
+		}
+
+		/* Admission control of requests; if set, it replaces maxInFlightRequests. */
+		public Builder admissionControl(AdmissionControl admission) {
+			this.admission = admission;
+			return this;
+		}
+
+		/* Metrics to record into, e.g. one, which is also routed at GET /metrics. */
+		public Builder metrics(Metrics metrics) {
+			if (metrics == null) {
+				throw new IllegalArgumentException("Metrics must not be null.");
+			}
+			this.metrics = metrics;
+			return this;
+		}
+
+		/* Executor, on which each connection is served as a separate task, for its whole lifetime. */
+		public Builder executor(ExecutorService executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		public Builder handler(HttpHandler handler) {
+			this.handler = handler;
+			return this;
+		}
+
+		/* Enables HTTP/2 over cleartext ("h2c"), with prior knowledge or by upgrade from HTTP/1.1. */
+		public Builder http2(boolean enable) {
+			this.http2 = enable;
+			return this;
+		}
+
+		/* Time from the first byte of a request head to its end; a request, which exceeds it,
+		 * is answered with 408 and the connection is closed. */
+		public Builder headerTimeout(Duration headerTimeout) {
+			this.headerTimeout = positive(headerTimeout);
+			return this;
+		}
+
+		/* Time, for which a single read of a request body may wait for the client, before the
+		 * request is answered with 408 and the connection is closed. */
+		public Builder bodyTimeout(Duration bodyTimeout) {
+			this.bodyTimeout = positive(bodyTimeout);
+			return this;
+		}
+
+		/* Time, for which a connection is kept open without any request. */
+		public Builder idleTimeout(Duration idleTimeout) {
+			this.idleTimeout = positive(idleTimeout);
+			return this;
+		}
+
+		/* Requests with a longer "Content-Length" are answered with 413, before the body is read.
+		 * A chunked body is read up to this length; beyond it, reading fails, the request is
+		 * answered with 413, and the connection is closed. */
+		public Builder maxRequestBodyLength(long maxRequestBodyLength) {
+			if (maxRequestBodyLength < 0) {
+				throw new IllegalArgumentException("Maximum length of request body must not be negative.");
+			}
+			this.maxRequestBodyLength = maxRequestBodyLength;
+			return this;
+		}
+
+		private static Duration positive(Duration timeout) {
+			if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+				throw new IllegalArgumentException("Timeout must be positive.");
+			}
+			return timeout;
+		}
+
+		public BlockingHttpServer build() {
+			AdmissionControl admission = (this.admission != null) ? this.admission
+				: AdmissionControl.newBuilder().maxInFlightRequests(maxInFlightRequests).build();
+			if (executor == null) {
+				return new BlockingHttpServer(address, backlog, newThreadPerConnectionExecutor(), true,
+											  maxConnections, admission, metrics, handler, http2,
+											  headerTimeout, bodyTimeout, idleTimeout, maxRequestBodyLength);
+			} else {
+				return new BlockingHttpServer(address, backlog, executor, false,
+											  maxConnections, admission, metrics, handler, http2,
+											  headerTimeout, bodyTimeout, idleTimeout, maxRequestBodyLength);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,65 @@
+package http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/* Stream of a request body, decoded from the stream of a connection. It never reads beyond
+ * the end of its body, so the following request can be read from the same connection.
+ * Closing the stream does not close the connection. */
+abstract class BodyInputStream extends InputStream {
+
+	static final long DRAIN_LIMIT = 65536; // max. unread body bytes, skipped by server to keep connection alive
+
+	protected final InputStream source; // stream of the connection
+	protected boolean closed;
+	private final byte[] single; // for read() of a single byte
+
+	BodyInputStream(InputStream source) {
+		this.source = source;
+		this.closed = false;
+		this.single = new byte[1];
+	}
+
+	/* Returns true, if all bytes of the body were consumed from the connection. */
+	abstract boolean atEnd();
+
+	/* Skips the rest of body, if it is not longer than limit. Returns true, if whole body
+	 * was consumed, and the connection can be used for the next request. */
+	boolean drain(long limit) throws IOException {
+		byte[] skipped = new byte[(int) Math.min(Math.max(limit, 1), 8192)];
+		while (!atEnd() && limit > 0) {
+			int n = readBody(skipped, 0, (int) Math.min(skipped.length, limit));
+			if (n < 0) {
+				break;
+			}
+			limit = limit - n;
+		}
+		return atEnd();
+	}
+
+	@Override
+	public int read() throws IOException {
+		int n = read(single, 0, 1);
+		return (n < 0) ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (len == 0) {
+			return 0;
+		}
+		return readBody(b, off, len);
+	}
+
+	/* Reads up to len bytes of body, returns -1 at the end of body. */
+	protected abstract int readBody(byte[] b, int off, int len) throws IOException;
+
+	@Override
+	public void close() {
+		closed = true; // the rest of body is skipped by the server, if needed
+	}
+
+}
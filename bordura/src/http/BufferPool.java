@@ -0,0 +1,80 @@
+package http;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/* Bounded pool of byte arrays of a single size, shared by all threads. Arrays are kept in slots,
+ * which are divided into stripes; each thread starts at the stripe chosen by its id, so that
+ * threads rarely compete for the same slots. Neither acquire() nor release() ever blocks: when
+ * the pool is empty, a new array is allocated, and when it is full, a released array is left to
+ * the garbage collector. An array must not be used after it was released. */
+final class BufferPool {
+
+	private static final int SLOTS_PER_STRIPE = 8;
+
+	static final BufferPool BLOCKS = new BufferPool(8192); // blocks of connection I/O and of body copying
+
+	private final int bufferSize;
+	private final int stripeMask;
+	private final AtomicReferenceArray<byte[]> slots;
+
+	BufferPool(int bufferSize) {
+		this(bufferSize, Runtime.getRuntime().availableProcessors());
+	}
+
+	BufferPool(int bufferSize, int stripes) {
+		if (bufferSize < 1 || stripes < 1) {
+			throw new IllegalArgumentException("Buffer size and number of stripes must be positive");
+		}
+		int powerOfTwo = Integer.highestOneBit(stripes);
+		if (powerOfTwo < stripes) {
+			powerOfTwo = powerOfTwo << 1;
+		}
+		this.bufferSize = bufferSize;
+		this.stripeMask = powerOfTwo - 1;
+		this.slots = new AtomicReferenceArray<>(powerOfTwo * SLOTS_PER_STRIPE);
+	}
+
+	int bufferSize() {
+		return bufferSize;
+	}
+
+	/* Returns a pooled array, or a new one, if there is none in the stripe of current thread
+	 * or in the next one. Content of the array is undefined. */
+	byte[] acquire() {
+		int stripe = stripe();
+		for (int s = 0; s < 2; s++) {
+			int from = ((stripe + s) & stripeMask) * SLOTS_PER_STRIPE;
+			for (int i = from; i < from + SLOTS_PER_STRIPE; i++) {
+				if (slots.get(i) != null) {
+					byte[] b = slots.getAndSet(i, null);
+					if (b != null) {
+						return b;
+					}
+				}
+			}
+		}
+		return new byte[bufferSize];
+	}
+
+	/* Returns the array to the pool. Arrays of other sizes are ignored. */
+	void release(byte[] b) {
+		if (b == null || b.length != bufferSize) {
+			return;
+		}
+		int stripe = stripe();
+		for (int s = 0; s < 2; s++) {
+			int from = ((stripe + s) & stripeMask) * SLOTS_PER_STRIPE;
+			for (int i = from; i < from + SLOTS_PER_STRIPE; i++) {
+				if (slots.get(i) == null && slots.compareAndSet(i, null, b)) {
+					return;
+				}
+			}
+		}
+	}
+
+	private int stripe() {
+		long id = Thread.currentThread().getId();
+		return (int) (id ^ (id >>> 16)) & stripeMask;
+	}
+
+}
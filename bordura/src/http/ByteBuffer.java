@@ -93,8 +93,9 @@ public class ByteBuffer {
 	public void reset() {
 		Node node = firstNode;
 		while (true) {
+			boolean hasNext = node.hasNext; // cleared by reset of node
 			node.reset();
-			if (node.hasNext) {
+			if (hasNext) {
 				node = node.nextNode;
 			} else {
 				break;
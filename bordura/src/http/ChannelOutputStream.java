@@ -0,0 +1,113 @@
+package http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+
+/* Buffered output stream over a blocking channel. Buffers are passed to the channel with
+ * gathering writes and file regions with FileChannel.transferTo. Its own buffer is taken from
+ * the pool, to which it is returned with release(). Bytes written to the channel are counted in
+ * Metrics. */
+class ChannelOutputStream extends OutputStream implements ChannelSink {
+
+	private final GatheringByteChannel channel;
+	private final Metrics metrics;
+	private final java.nio.ByteBuffer buffer;
+	private boolean released;
+
+	ChannelOutputStream(GatheringByteChannel channel, Metrics metrics) {
+		this.channel = channel;
+		this.metrics = metrics;
+		this.buffer = java.nio.ByteBuffer.wrap(BufferPool.BLOCKS.acquire());
+		this.released = false;
+	}
+
+	/* Returns the buffer to the pool; stream may not be used afterwards. Unflushed bytes are lost. */
+	void release() {
+		if (!released) {
+			released = true;
+			BufferPool.BLOCKS.release(buffer.array());
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len > buffer.remaining()) {
+			flush();
+			if (len >= buffer.capacity()) { // large writes bypass the buffer
+				writeFully(java.nio.ByteBuffer.wrap(b, off, len));
+				return;
+			}
+		}
+		buffer.put(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (buffer.position() > 0) {
+			buffer.flip();
+			writeFully(buffer);
+			buffer.clear();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	public void write(java.nio.ByteBuffer[] buffers) throws IOException {
+		long length = 0;
+		for (java.nio.ByteBuffer b : buffers) {
+			length = length + b.remaining();
+		}
+		if (buffer.position() > 0 && length <= buffer.remaining()) { // sent with buffered bytes at next flush
+			for (java.nio.ByteBuffer b : buffers) {
+				buffer.put(b);
+			}
+			return;
+		}
+		flush();
+		while (length > 0) {
+			long n = channel.write(buffers);
+			length = length - n;
+			metrics.sent(n);
+		}
+	}
+
+	@Override
+	public void transferFrom(FileChannel file, long position, long count) throws IOException {
+		flush();
+		while (count > 0) {
+			long n = file.transferTo(position, count, channel);
+			if (n <= 0 && position >= file.size()) {
+				throw new EOFException("File is shorter than expected");
+			}
+			position = position + n;
+			count = count - n;
+			metrics.sent(n);
+		}
+	}
+
+	private void writeFully(java.nio.ByteBuffer source) throws IOException {
+		while (source.hasRemaining()) {
+			metrics.sent(channel.write(source));
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+package http;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/* Implemented by connection output streams, which write to the socket channel directly. Any
+ * bytes, buffered by the stream, are sent before those passed to these methods. */
+interface ChannelSink {
+
+	/* Writes remaining bytes of all buffers, with a single gathering write where possible.
+	 * Buffers are not retained after the method returns. */
+	void write(java.nio.ByteBuffer[] buffers) throws IOException;
+
+	/* Sends a region of a file directly from its channel to the socket (sendfile on Linux),
+	 * without copying its bytes through the Java heap. */
+	void transferFrom(FileChannel file, long position, long count) throws IOException;
+
+}
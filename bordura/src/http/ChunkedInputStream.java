@@ -0,0 +1,146 @@
+package http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/* Body of a request with "Transfer-Encoding: chunked"; decoding counterpart of ChunkedOutputStream.
+ * Chunk extensions and trailer fields are read and discarded. As the length of the body is not
+ * known in advance, it is checked against a limit, while it is read: once the sizes of chunks add
+ * up beyond it, every read throws an IOException, caused by HttpException with 413, before the data
+ * of that chunk is read. */
+class ChunkedInputStream extends BodyInputStream {
+
+	private static final int LINE_LIMIT = 4096; // max. length of chunk-size line or trailer field line
+	private static final int TRAILER_LIMIT = 8192; // max. total length of trailer fields
+
+	private long remaining; // number of bytes left in current chunk
+	private boolean firstChunk;
+	private boolean finished; // true after last-chunk and trailer section were read
+	private long length; // sum of the sizes of chunks so far, never beyond limit
+	private long limit; // max. length of body
+	private boolean tooLong; // true, once a chunk would exceed limit
+
+	ChunkedInputStream(InputStream source) {
+		super(source);
+		this.remaining = 0;
+		this.firstChunk = true;
+		this.finished = false;
+		this.length = 0;
+		this.limit = Long.MAX_VALUE;
+		this.tooLong = false;
+	}
+
+	void limit(long maxLength) {
+		this.limit = maxLength;
+	}
+
+	@Override
+	boolean atEnd() {
+		return finished;
+	}
+
+	@Override
+	protected int readBody(byte[] b, int off, int len) throws IOException {
+		if (tooLong) { // the rest of body is not read, so the connection cannot be reused
+			throw tooLong();
+		}
+		if (remaining == 0) {
+			if (finished || !nextChunk()) {
+				return -1;
+			}
+		}
+		int n = source.read(b, off, (int) Math.min(len, remaining));
+		if (n < 0) {
+			throw new EOFException("Connection closed before end of body");
+		}
+		remaining = remaining - n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(source.available(), remaining);
+	}
+
+	/* Reads chunk-size line of the next chunk (and CRLF, ending the previous one). Returns false,
+	 * if it was the last-chunk; the trailer section is consumed as well in that case. */
+	private boolean nextChunk() throws IOException {
+		if (!firstChunk) {
+			if (readByte() != AsciiChars.CR || readByte() != AsciiChars.LF) { // CRLF after chunk-data
+				throw malformed();
+			}
+		}
+		firstChunk = false;
+		// chunk-size [ chunk-ext ] CRLF
+		long size = 0;
+		int digits = 0;
+		int c = readByte();
+		while (AsciiChars.isHexDigit(c)) {
+			if (digits == 15) { // size would not fit into long
+				throw malformed();
+			}
+			size = size * 16 + Character.digit(c, 16);
+			digits++;
+			c = readByte();
+		}
+		if (digits == 0) {
+			throw malformed();
+		}
+		int lineLength = digits;
+		while (c != AsciiChars.CR) { // skip chunk extensions
+			if (++lineLength > LINE_LIMIT) {
+				throw malformed();
+			}
+			c = readByte();
+		}
+		if (readByte() != AsciiChars.LF) {
+			throw malformed();
+		}
+		if (size > 0) {
+			if (size > limit - length) {
+				tooLong = true;
+				throw tooLong();
+			}
+			length = length + size;
+			remaining = size;
+			return true;
+		}
+		// last-chunk; skip trailer fields until the empty line
+		int trailerLength = 0;
+		while (true) {
+			c = readByte();
+			if (c == AsciiChars.CR) {
+				if (readByte() != AsciiChars.LF) {
+					throw malformed();
+				}
+				break;
+			}
+			while (c != AsciiChars.LF) {
+				if (++trailerLength > TRAILER_LIMIT) {
+					throw malformed();
+				}
+				c = readByte();
+			}
+		}
+		finished = true;
+		return false;
+	}
+
+	private int readByte() throws IOException {
+		int c = source.read();
+		if (c < 0) {
+			throw new EOFException("Connection closed before end of body");
+		}
+		return c;
+	}
+
+	private IOException tooLong() {
+		return new IOException("Request body is longer than " + limit + " bytes", new HttpException(413));
+	}
+
+	private static IOException malformed() {
+		return new IOException("Malformed chunked transfer coding");
+	}
+
+}
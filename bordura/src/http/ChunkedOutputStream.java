@@ -5,32 +5,66 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
+/* Output stream in chunked transfer coding (RFC 7230 4.1.). Small writes are collected into
+ * chunks, whose size starts at MIN_CHUNK, so that first bytes of a streamed body are sent early,
+ * and doubles with every full chunk up to the size of buffer. The buffer keeps room before and
+ * after the data of chunk for its size line and CRLF, so a chunk is written with a single write
+ * and no copying. Writes, at least as large as the current chunk size, are passed through as
+ * chunks of their own, with a gathering write if the underlying stream is a ChannelSink. */
 class ChunkedOutputStream extends FilterOutputStream {
-
-	private byte[] buf; // buffer for a chunk
-	private int count; // number of valid bytes in the buffer
-		
+	
+	private static final int MIN_CHUNK = 1024;
+	private static final int HEAD_ROOM = 10; // up to 8 hex digits of chunk size and CRLF
+	private static final int TAIL_ROOM = 2; // CRLF after chunk data
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CRLF = {AsciiChars.CR, AsciiChars.LF};
+	private static final byte[] LAST_CHUNK = {'0', AsciiChars.CR, AsciiChars.LF, AsciiChars.CR, AsciiChars.LF};
+	
+	private byte[] buf; // HEAD_ROOM, data of chunk, TAIL_ROOM
+	private int count; // number of valid bytes in the buffer, following HEAD_ROOM
+	private int limit; // current chunk size; a chunk is written, when count reaches it
+	private final int capacity; // max. size of a buffered chunk
+	private final byte[] head; // size line of a passed through chunk
+	private final boolean pooled; // if true, buf is returned to BufferPool.BLOCKS at finish() or abort()
+	private boolean finished; // after finish(), nothing is written anymore
+	
+	/* Chunks are up to size bytes long, apart from passed through writes. */
 	ChunkedOutputStream(OutputStream out, int size) {
 		super(out);
 		if (size < 1) {
 			throw new IllegalArgumentException("Size of ChunkedOutputStream buffer must be positive");
 		}
-		buf = new byte[size];
+		buf = new byte[HEAD_ROOM + size + TAIL_ROOM];
 		count = 0;
+		capacity = size;
+		limit = Math.min(MIN_CHUNK, capacity);
+		head = new byte[HEAD_ROOM];
+		pooled = false;
+		finished = false;
 	}
 	
+	/* Uses a pooled buffer, so chunks are up to BufferPool.BLOCKS.bufferSize() bytes long,
+	 * less the room for framing. */
 	ChunkedOutputStream(OutputStream out) {
 		super(out);
-		buf = new byte[1024];
+		buf = BufferPool.BLOCKS.acquire();
 		count = 0;
+		capacity = buf.length - HEAD_ROOM - TAIL_ROOM;
+		limit = Math.min(MIN_CHUNK, capacity);
+		head = new byte[HEAD_ROOM];
+		pooled = true;
+		finished = false;
 	}
 	
 	@Override
 	public void write(int b) throws IOException {
-		if (count == buf.length) {
+		if (finished) {
+			throw new IOException("Write after finish");
+		}
+		if (count == limit) {
 			writeAsChunk(); // this also sets count to 0
 		}
-		buf[count] = (byte) b;
+		buf[HEAD_ROOM + count] = (byte) b;
 		count++;
 	}
 	
@@ -41,35 +75,69 @@ class ChunkedOutputStream extends FilterOutputStream {
 	
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
-		int available = buf.length - count;
-		while (len > available) {
-			System.arraycopy(b, off, buf, count, available);
-			count = buf.length; // writeAsChunk() will use this value
-			writeAsChunk(); // this also puts count to 0
+		if (finished) {
+			throw new IOException("Write after finish");
+		}
+		if (len >= limit) { // large enough to be a chunk of its own, without copying
+			writeAsChunk();
+			writeThrough(b, off, len);
+			return;
+		}
+		int available = limit - count;
+		if (len > available) {
+			System.arraycopy(b, off, buf, HEAD_ROOM + count, available);
+			count = limit;
+			writeAsChunk(); // this also puts count to 0 and might raise limit
 			off = off + available;
 			len = len - available;
-			available = buf.length;
 		}
-		System.arraycopy(b, off, buf, count, len);
+		System.arraycopy(b, off, buf, HEAD_ROOM + count, len);
 		count = count + len;
 	}
 	
 	/* Writes any present bytes in buffer as a chunk to the underlying output stream
-	 * and resets the buffer.
+	 * and resets the buffer. A full chunk doubles the size of the following ones.
 	*/
 	private void writeAsChunk() throws IOException {
 		if (count == 0) {
 			return;
 		}
-		out.write(Integer.toString(count, 16).getBytes(StandardCharsets.US_ASCII));
-		out.write((byte) AsciiChars.CR);
-		out.write((byte) AsciiChars.LF);
-		out.write(buf, 0, count);
-		out.write((byte) AsciiChars.CR);
-		out.write((byte) AsciiChars.LF);
+		int start = putSizeLine(count, buf, HEAD_ROOM);
+		int end = HEAD_ROOM + count;
+		buf[end] = AsciiChars.CR;
+		buf[end + 1] = AsciiChars.LF;
+		out.write(buf, start, end + TAIL_ROOM - start);
+		if (count == limit) {
+			limit = Math.min(limit * 2, capacity);
+		}
 		count = 0;
 	}
 	
+	private void writeThrough(byte[] b, int off, int len) throws IOException {
+		int start = putSizeLine(len, head, HEAD_ROOM);
+		if (out instanceof ChannelSink sink) {
+			sink.write(new java.nio.ByteBuffer[] {java.nio.ByteBuffer.wrap(head, start, HEAD_ROOM - start),
+				java.nio.ByteBuffer.wrap(b, off, len), java.nio.ByteBuffer.wrap(CRLF)});
+		} else {
+			out.write(head, start, HEAD_ROOM - start);
+			out.write(b, off, len);
+			out.write(CRLF);
+		}
+	}
+	
+	/* Puts chunk size in hex and CRLF into b, so that they end at index end; returns the index,
+	 * at which they start. */
+	private static int putSizeLine(int size, byte[] b, int end) {
+		int i = end - 2;
+		b[i] = AsciiChars.CR;
+		b[i + 1] = AsciiChars.LF;
+		do {
+			b[--i] = HEX_DIGITS[size & 0xF];
+			size = size >>> 4;
+		} while (size != 0);
+		return i;
+	}
+	
 	/* Writes any present bytes in buffer as a chunk to the underlying output stream,
 	 * resets the buffer and flushes the underlying output stream.
 	*/
@@ -81,22 +149,47 @@ class ChunkedOutputStream extends FilterOutputStream {
 	
 	@Override
 	public void close() throws IOException {
-		finish();
-		out.close();
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
 	}
 	
 	/* Writes any remaining bytes in buffer as a chunk to the underlying output stream,
 	 * followed by last-chunk and the last CRLF. Finally, it flushes the underlying stream.
-	 * Does NOT close the underlying output stream.
+	 * Does NOT close the underlying output stream. Only the first call writes anything, so that
+	 * last-chunk is not repeated into the following response, when both a handler and the server
+	 * finish the stream; the buffer is released, even if writing fails.
 	*/
 	void finish() throws IOException {
-		writeAsChunk(); // this also puts count to 0
-		out.write((byte) 0x30); // ASCII zero, '0'
-		out.write((byte) AsciiChars.CR);
-		out.write((byte) AsciiChars.LF);
-		out.write((byte) AsciiChars.CR);
-		out.write((byte) AsciiChars.LF);
-		out.flush();
+		if (finished) {
+			return;
+		}
+		finished = true;
+		try {
+			writeAsChunk(); // this also puts count to 0
+			out.write(LAST_CHUNK);
+			out.flush();
+		} finally {
+			release();
+		}
+	}
+	
+	/* Releases the buffer without writing anything more, when the body cannot be written to its
+	 * end. Does nothing after finish(). */
+	void abort() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		release();
+	}
+	
+	private void release() {
+		if (pooled) {
+			BufferPool.BLOCKS.release(buf);
+		}
 		buf = null;
 		count = 0;
 	}
@@ -0,0 +1,56 @@
+package http;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/* Body of a request with "Expect: 100-continue" (RFC 7231 5.1.1.). The client waits for the
+ * interim response 100 (Continue), before it sends the body, so a request, which is refused on
+ * its head alone (e.g. as unauthorized), does not cost the transfer of its body. The interim
+ * response is sent at the first read of body; a handler refuses the body by not reading it. */
+class ContinueInputStream extends BodyInputStream {
+
+	/* Sends the interim response to the client. */
+	@FunctionalInterface
+	interface Interim {
+		void send() throws IOException;
+	}
+
+	static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final BodyInputStream body;
+	private Interim interim; // null, once the interim response is sent
+
+	ContinueInputStream(BodyInputStream body, Interim interim) {
+		super(body);
+		this.body = body;
+		this.interim = interim;
+	}
+
+	@Override
+	boolean atEnd() {
+		return body.atEnd();
+	}
+
+	/* If the interim response was not sent, the client might still send the body or not,
+	 * so the connection cannot be used for another request. */
+	@Override
+	boolean drain(long limit) throws IOException {
+		return interim == null && body.drain(limit);
+	}
+
+	@Override
+	protected int readBody(byte[] b, int off, int len) throws IOException {
+		if (interim != null) {
+			Interim pending = interim;
+			interim = null;
+			pending.send();
+		}
+		return body.readBody(b, off, len);
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (interim == null) ? body.available() : 0;
+	}
+
+}
@@ -0,0 +1,123 @@
+package http;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/* A single thread, which waits for readiness of registered channels on its own selector.
+ * Channels registered with an event loop are only ever touched by its thread; other threads
+ * hand over their work through execute(Runnable). Deadlines of its connections are kept in
+ * a timer wheel, which the loop advances after each select(). */
+class EventLoop implements Runnable {
+
+	/* Attachment of every selection key, registered with an event loop. */
+	interface Handler {
+
+		void ready(SelectionKey key) throws IOException; // called when key has some ready operations
+
+		void close(); // called on failure of ready() and at shutdown of the loop
+
+	}
+
+	private static final long TICK_MILLIS = 100; // resolution of deadlines
+
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks;
+	private final TimerWheel timers; // scheduled by the loop thread only, so select() need not be woken up
+	private volatile boolean running;
+
+	EventLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this, name);
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.timers = new TimerWheel(TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS), 1024);
+		this.running = false;
+	}
+
+	void start() {
+		running = true;
+		thread.start();
+	}
+
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	Selector selector() {
+		return selector;
+	}
+
+	TimerWheel timers() {
+		return timers;
+	}
+
+	boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	/* Runs the task on the event loop thread, at the latest after the current select() wakes up. */
+	void execute(Runnable task) {
+		tasks.add(task);
+		if (!inEventLoop()) {
+			selector.wakeup();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				if (timers.isEmpty()) {
+					selector.select();
+				} else {
+					selector.select(TimeUnit.NANOSECONDS.toMillis(timers.nanosToNextTick()) + 1);
+				}
+				runTasks();
+				var iter = selector.selectedKeys().iterator();
+				while (iter.hasNext()) {
+					SelectionKey key = iter.next();
+					iter.remove();
+					Handler handler = (Handler) key.attachment();
+					try {
+						if (key.isValid()) {
+							handler.ready(key);
+						}
+					} catch (IOException | RuntimeException e) {
+						handler.close();
+					}
+				}
+				runTasks();
+				timers.advance(); // expired deadlines close connections or answer them with 408
+			}
+		} catch (IOException e) {
+			// selector failed; nothing can be served by this loop anymore
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				((Handler) key.attachment()).close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// ignore, loop is finished anyway
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task = tasks.poll();
+		while (task != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// task failed, e.g. because its channel was closed meanwhile; keep the loop alive
+			}
+			task = tasks.poll();
+		}
+	}
+
+}
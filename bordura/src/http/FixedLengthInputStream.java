@@ -0,0 +1,40 @@
+package http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/* Body of a request with "Content-Length" header field. */
+class FixedLengthInputStream extends BodyInputStream {
+
+	private long remaining; // number of body bytes not yet read
+
+	FixedLengthInputStream(InputStream source, long length) {
+		super(source);
+		this.remaining = length;
+	}
+
+	@Override
+	boolean atEnd() {
+		return remaining == 0;
+	}
+
+	@Override
+	protected int readBody(byte[] b, int off, int len) throws IOException {
+		if (remaining == 0) {
+			return -1;
+		}
+		int n = source.read(b, off, (int) Math.min(len, remaining));
+		if (n < 0) {
+			throw new EOFException("Connection closed before end of body");
+		}
+		remaining = remaining - n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(source.available(), remaining);
+	}
+
+}
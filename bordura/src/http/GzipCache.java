@@ -0,0 +1,474 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/* Cache of gzip variants of response bodies, so that a body, which is sent with gzip transfer
+ * coding again and again, is compressed only once. A variant is identified by a key, which
+ * must change with the content, e.g. the hash of a post or the path and modification time of a
+ * file. Variants are kept in memory, in least recently used order, up to a byte limit; those
+ * evicted, and those too large for memory, are spilled as files into a directory, if one is
+ * set, from which they are sent later. Spilled files are named by the SHA-256 of their key,
+ * so they are found again after a restart; they are kept up to a byte limit of their own, beyond
+ * which the least recently used ones are deleted. When a file, whose variant is cached, changes,
+ * the variant of its former content is removed at once. */
+public final class GzipCache {
+
+	private final long memoryLimit;
+	private final long entryLimit; // larger variants are not kept in memory
+	private final Path spillDirectory; // null, if variants are not spilled
+	private final long spillLimit;
+	private final ReentrantLock lock;
+	private final Condition compressed;
+	private final LinkedHashMap<String, byte[]> variants; // in access order
+	private final Set<String> compressing; // keys, whose variants are being made by some thread
+	private final LinkedHashMap<Path, Long> spilledFiles; // sizes of files in spill directory, in access order
+	private final Map<String, String> fileKeys; // current key of each file, by its path
+	private long memoryUsed;
+	private long spillUsed;
+
+	private GzipCache(long memoryLimit, Path spillDirectory, long spillLimit) {
+		this.memoryLimit = memoryLimit;
+		this.entryLimit = memoryLimit / 8;
+		this.spillDirectory = spillDirectory;
+		this.spillLimit = spillLimit;
+		this.lock = new ReentrantLock();
+		this.compressed = lock.newCondition();
+		this.variants = new LinkedHashMap<>(16, 0.75f, true);
+		this.compressing = new HashSet<>();
+		this.spilledFiles = new LinkedHashMap<>(16, 0.75f, true);
+		this.fileKeys = new HashMap<>();
+		this.memoryUsed = 0;
+		this.spillUsed = 0;
+	}
+
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	/* Returns a publisher of body, whose gzip variant, when sent with gzip transfer coding,
+	 * is taken from this cache under key, and made from body only if it is not there yet. */
+	public HttpResponse.BodyPublisher variantOf(String key, HttpResponse.BodyPublisher body) {
+		if (key == null || body == null) {
+			throw new IllegalArgumentException("Key and body must not be null.");
+		}
+		return HttpResponse.withGzipVariant(body, this, key);
+	}
+
+	/* Returns a publisher of the file, keyed by its path, size and modification time. A variant
+	 * of the file with another size or modification time is removed from the cache. */
+	public HttpResponse.BodyPublisher variantOf(Path path) throws IOException {
+		HttpResponse.BodyPublisher body = HttpResponse.BodyPublisher.ofFile(path);
+		String file = path.toAbsolutePath().normalize().toString();
+		String key = file + "|" + Files.size(path) + "|" + Files.getLastModifiedTime(path).toMillis();
+		String previous;
+		lock.lock();
+		try {
+			previous = fileKeys.put(file, key);
+		} finally {
+			lock.unlock();
+		}
+		if (previous != null && !previous.equals(key)) {
+			remove(previous);
+		}
+		return variantOf(key, body);
+	}
+
+	/* Returns number of bytes of variants, which are kept in memory. */
+	public long memoryUsed() {
+		lock.lock();
+		try {
+			return memoryUsed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Returns number of bytes of variants, which are spilled into files. */
+	public long spillUsed() {
+		lock.lock();
+		try {
+			return spillUsed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Writes the gzip variant of body to out: from memory, from its spilled file, or, if it
+	 * is in neither, compressed now and then added to the cache. Threads, which ask for a
+	 * variant, while another thread is making it, wait for it instead of compressing too. Level
+	 * is the compression level of the response, which makes the variant. */
+	void writeGzipped(String key, HttpResponse.BodyPublisher body, int level, OutputStream out) throws IOException {
+		byte[] variant;
+		lock.lock();
+		try {
+			while (compressing.contains(key)) {
+				compressed.awaitUninterruptibly();
+			}
+			variant = variants.get(key);
+			if (variant == null) {
+				compressing.add(key);
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (variant != null) {
+			out.write(variant);
+			return;
+		}
+		Path spilled = spillFile(key);
+		List<Map.Entry<String, byte[]>> evicted = List.of();
+		try {
+			if (spilled != null && isSpilled(spilled)) {
+				variant = load(spilled);
+			} else {
+				variant = compress(key, body, level, spilled, out);
+			}
+			if (variant != null) {
+				evicted = put(key, variant);
+			}
+		} finally {
+			release(key);
+		}
+		if (variant != null) {
+			out.write(variant);
+			spill(evicted);
+		} else if (spilled != null) {
+			writeFile(spilled, out);
+		} // else it was too large for memory and has been compressed directly into out
+	}
+
+	/* Lets the threads, which wait for variant of key, go on. */
+	private void release(String key) {
+		lock.lock();
+		try {
+			compressing.remove(key);
+			compressed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Adds variant to memory and returns the least recently used variants, which were
+	 * removed to stay within memory limit. */
+	private List<Map.Entry<String, byte[]>> put(String key, byte[] variant) {
+		List<Map.Entry<String, byte[]>> evicted = new ArrayList<>();
+		lock.lock();
+		try {
+			variants.put(key, variant);
+			memoryUsed = memoryUsed + variant.length;
+			Iterator<Map.Entry<String, byte[]>> iter = variants.entrySet().iterator();
+			while (memoryUsed > memoryLimit && iter.hasNext()) {
+				Map.Entry<String, byte[]> eldest = iter.next();
+				iter.remove();
+				memoryUsed = memoryUsed - eldest.getValue().length;
+				evicted.add(Map.entry(eldest.getKey(), eldest.getValue()));
+			}
+		} finally {
+			lock.unlock();
+		}
+		return evicted;
+	}
+
+	/* Removes the variant of key from memory and from spill directory. */
+	private void remove(String key) {
+		Path spilled = spillFile(key);
+		Long size = null;
+		lock.lock();
+		try {
+			byte[] variant = variants.remove(key);
+			if (variant != null) {
+				memoryUsed = memoryUsed - variant.length;
+			}
+			if (spilled != null) {
+				size = spilledFiles.remove(spilled);
+			}
+			if (size != null) {
+				spillUsed = spillUsed - size;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (size != null) {
+			deleteQuietly(List.of(spilled));
+		}
+	}
+
+	/* Returns true, if spilled file is in spill directory, and marks it as recently used. */
+	private boolean isSpilled(Path spilled) {
+		lock.lock();
+		try {
+			return spilledFiles.get(spilled) != null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Counts spilled file, which has just been written, and deletes the least recently used
+	 * files, as long as spill limit is exceeded; the new file itself is kept in any case. */
+	private void addSpilled(Path spilled, long size) {
+		List<Path> evicted = new ArrayList<>();
+		lock.lock();
+		try {
+			Long previous = spilledFiles.put(spilled, size);
+			spillUsed = spillUsed + size - ((previous != null) ? previous : 0);
+			Iterator<Map.Entry<Path, Long>> iter = spilledFiles.entrySet().iterator();
+			while (spillUsed > spillLimit && iter.hasNext()) {
+				Map.Entry<Path, Long> eldest = iter.next();
+				if (eldest.getKey().equals(spilled)) {
+					break;
+				}
+				iter.remove();
+				spillUsed = spillUsed - eldest.getValue();
+				evicted.add(eldest.getKey());
+			}
+		} finally {
+			lock.unlock();
+		}
+		deleteQuietly(evicted);
+	}
+
+	/* Counts the files, which were spilled before a restart, oldest first, as if they had been
+	 * spilled now in that order. */
+	private void countSpilled() throws IOException {
+		List<Path> files;
+		try (Stream<Path> list = Files.list(spillDirectory)) {
+			files = list.filter(file -> file.getFileName().toString().endsWith(".gz")).toList();
+		}
+		Map<Path, FileTime> modified = new HashMap<>();
+		for (Path file : files) {
+			modified.put(file, Files.getLastModifiedTime(file));
+		}
+		for (Path file : files.stream().sorted(Comparator.comparing(modified::get)).toList()) {
+			addSpilled(file, Files.size(file));
+		}
+	}
+
+	private static void deleteQuietly(List<Path> files) {
+		for (Path file : files) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// ignore, it is not counted anymore
+			}
+		}
+	}
+
+	/* Compresses body into memory and returns the variant; or, if it grows beyond entryLimit,
+	 * into spilled file, if there is one, or else directly into out, and returns null. */
+	private byte[] compress(String key, HttpResponse.BodyPublisher body, int level, Path spilled, OutputStream out)
+		throws IOException {
+		SpillingOutputStream sink = new SpillingOutputStream(key, spilled, out);
+		try {
+			GzipOutputStream gzipOut = new GzipOutputStream(sink, level);
+			try {
+				body.writeTo(gzipOut);
+				gzipOut.finish();
+			} finally {
+				gzipOut.abort();
+			}
+			return sink.finish();
+		} finally {
+			sink.discard();
+		}
+	}
+
+	/* Writes evicted variants into spill directory, unless they are there already. */
+	private void spill(List<Map.Entry<String, byte[]>> evicted) {
+		for (Map.Entry<String, byte[]> entry : evicted) {
+			Path spilled = spillFile(entry.getKey());
+			if (spilled == null || isSpilled(spilled)) {
+				continue;
+			}
+			try {
+				Path temp = Files.createTempFile(spillDirectory, "gzip", ".tmp");
+				Files.write(temp, entry.getValue());
+				publish(temp, spilled);
+				addSpilled(spilled, entry.getValue().length);
+			} catch (IOException e) {
+				// ignore, variant is compressed again, when asked for
+			}
+		}
+	}
+
+	/* Returns content of spilled file, or null, if it is too large for memory. */
+	private byte[] load(Path spilled) throws IOException {
+		if (Files.size(spilled) > entryLimit) {
+			return null;
+		}
+		return Files.readAllBytes(spilled);
+	}
+
+	private static void writeFile(Path spilled, OutputStream out) throws IOException {
+		try (var file = FileChannel.open(spilled, StandardOpenOption.READ)) {
+			HttpResponse.writeRegion(file, 0, file.size(), out);
+		}
+	}
+
+	/* Moves temp onto target atomically, so that readers never see a partly written file. */
+	private static void publish(Path temp, Path target) throws IOException {
+		try {
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private Path spillFile(String key) {
+		if (spillDirectory == null) {
+			return null;
+		}
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(UTF_8));
+			return spillDirectory.resolve(HexFormat.of().formatHex(hash) + ".gz");
+		} catch (NoSuchAlgorithmException e) { // cannot happen, every JVM has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/* Collects compressed bytes in memory, until there are more than entryLimit of them; then
+	 * moves them into a temporary file in spill directory, if there is one, or else writes them
+	 * to the response, in which case the waiting threads go on compressing by themselves. */
+	private final class SpillingOutputStream extends OutputStream {
+
+		private final String key;
+		private final Path spilled;
+		private final OutputStream out;
+		private ByteArrayOutputStream memory; // null, once entryLimit is exceeded
+		private Path temp;
+		private OutputStream overflow; // temporary file or out
+
+		private SpillingOutputStream(String key, Path spilled, OutputStream out) {
+			this.key = key;
+			this.spilled = spilled;
+			this.out = out;
+			this.memory = new ByteArrayOutputStream();
+			this.temp = null;
+			this.overflow = null;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (memory != null && memory.size() + len > entryLimit) {
+				if (spilled != null) {
+					temp = Files.createTempFile(spillDirectory, "gzip", ".tmp");
+					overflow = Files.newOutputStream(temp);
+				} else {
+					overflow = out;
+					release(key); // nothing is cached, so waiting would be in vain
+				}
+				memory.writeTo(overflow);
+				memory = null;
+			}
+			if (memory != null) {
+				memory.write(b, off, len);
+			} else {
+				overflow.write(b, off, len);
+			}
+		}
+
+		/* Returns the bytes, if they are all in memory, or null otherwise. */
+		private byte[] finish() throws IOException {
+			if (memory != null) {
+				return memory.toByteArray();
+			}
+			if (temp != null) {
+				overflow.close();
+				long size = Files.size(temp);
+				publish(temp, spilled);
+				temp = null;
+				addSpilled(spilled, size);
+			}
+			return null;
+		}
+
+		private void discard() throws IOException {
+			if (temp != null) {
+				overflow.close();
+				Files.deleteIfExists(temp);
+			}
+		}
+
+	}
+
+	public static class Builder {
+
+		private long memoryLimit;
+		private Path spillDirectory;
+		private long spillLimit;
+
+		private Builder() {
+			this.memoryLimit = 64L << 20;
+			this.spillDirectory = null;
+			this.spillLimit = 1L << 30;
+		}
+
+		/* Max. number of bytes of variants, which are kept in memory. */
+		public Builder memoryLimit(long bytes) {
+			if (bytes < 0) {
+				throw new IllegalArgumentException("Memory limit must not be negative.");
+			}
+			this.memoryLimit = bytes;
+			return this;
+		}
+
+		/* Directory, into which variants are spilled, e.g. one next to the content store. */
+		public Builder spillDirectory(Path directory) {
+			this.spillDirectory = directory;
+			return this;
+		}
+
+		/* Max. number of bytes of files in spill directory; least recently used ones are deleted
+		 * beyond it. Files, which are there already, count too, when the cache is built. */
+		public Builder spillLimit(long bytes) {
+			if (bytes < 0) {
+				throw new IllegalArgumentException("Spill limit must not be negative.");
+			}
+			this.spillLimit = bytes;
+			return this;
+		}
+
+		public GzipCache build() throws IOException { // throws if spill directory cannot be created or listed
+			GzipCache cache = new GzipCache(memoryLimit, spillDirectory, spillLimit);
+			if (spillDirectory != null) {
+				Files.createDirectories(spillDirectory);
+				cache.countSpilled();
+			}
+			return cache;
+		}
+
+	}
+
+}
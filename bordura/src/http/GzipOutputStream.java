@@ -0,0 +1,130 @@
+package http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/* Output stream in gzip format (RFC 1952), like GZIPOutputStream, but its Deflater is taken from
+ * a pool and reset and returned to it at finish(), together with the pooled output buffer, so
+ * that a response does not allocate native zlib state of its own. If writing of the body fails,
+ * abort() returns them instead. The stream must not be written after finish() or abort(). */
+final class GzipOutputStream extends DeflaterOutputStream {
+
+	private static final ArrayBlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(64);
+
+	private static final byte[] HEADER = { // magic, deflate, no flags, no time, no extra flags, unknown OS
+		(byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+	};
+
+	private final CRC32 crc;
+	private boolean finished;
+
+	/* Level is from 0 (no compression) to 9 (best), or Deflater.DEFAULT_COMPRESSION. */
+	GzipOutputStream(OutputStream out, int level) throws IOException {
+		super(out, acquire(level), 1);
+		this.buf = BufferPool.BLOCKS.acquire(); // replaces the array of size 1, allocated by super
+		this.crc = new CRC32();
+		this.finished = false;
+		try {
+			out.write(HEADER);
+		} catch (IOException | RuntimeException e) {
+			abort();
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (finished) {
+			throw new IOException("Write after finish");
+		}
+		super.write(b, off, len);
+		crc.update(b, off, len);
+	}
+
+	/* Writes the rest of compressed data and the trailer. The Deflater and the buffer are released
+	 * in any case, also if writing fails, e.g. because the client has gone away mid-response, so
+	 * that an aborted response does not leak them; a Deflater in an unknown state is ended, not
+	 * pooled. Only the first call does anything. */
+	@Override
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		boolean deflated = false;
+		try {
+			super.finish();
+			deflated = true;
+			byte[] trailer = new byte[8]; // CRC-32 and size modulo 2^32, little endian
+			putInt(trailer, 0, (int) crc.getValue());
+			putInt(trailer, 4, (int) def.getBytesRead());
+			out.write(trailer);
+		} finally {
+			if (deflated) {
+				release(def);
+			} else {
+				def.end();
+			}
+			BufferPool.BLOCKS.release(buf);
+			buf = null;
+		}
+	}
+
+	/* Returns the Deflater and the buffer without writing anything more, when the body cannot be
+	 * written to its end. Does nothing after finish(). */
+	void abort() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		release(def);
+		BufferPool.BLOCKS.release(buf);
+		buf = null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void putInt(byte[] b, int i, int value) {
+		b[i] = (byte) value;
+		b[i + 1] = (byte) (value >> 8);
+		b[i + 2] = (byte) (value >> 16);
+		b[i + 3] = (byte) (value >> 24);
+	}
+
+	private static Deflater acquire(int level) {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		Deflater deflater = DEFLATERS.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level, true); // raw deflate, as header and trailer are written here
+		} else {
+			deflater.setLevel(level); // applies from the first input on
+		}
+		return deflater;
+	}
+
+	/* Returns number of Deflaters in the pool. */
+	static int pooledDeflaters() {
+		return DEFLATERS.size();
+	}
+
+	private static void release(Deflater deflater) {
+		deflater.reset();
+		if (!DEFLATERS.offer(deflater)) {
+			deflater.end(); // pool is full
+		}
+	}
+
+}
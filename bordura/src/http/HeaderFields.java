@@ -0,0 +1,308 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/* Header fields of a request, as an unmodifiable map from lower-case name to the list of values.
+ * Bytes of all names and values are kept in a single array, with their positions in a parallel
+ * int array. Well-known names are recognized directly from bytes and are never decoded; other
+ * names and all values are decoded into strings only when they are asked for. */
+final class HeaderFields extends AbstractMap<String, List<String>> {
+
+	/* Well-known names, as they are looked up by this package and by typical handlers. */
+	private static final String[] KNOWN_NAMES = {
+		"host", "connection", "content-length", "transfer-encoding", "content-type", "content-encoding",
+		"accept", "accept-encoding", "accept-language", "user-agent", "authorization", "cookie",
+		"range", "if-range", "if-match", "if-none-match", "if-modified-since", "if-unmodified-since",
+		"expect", "te", "upgrade", "http2-settings", "cache-control", "pragma", "origin", "referer",
+		"keep-alive", "trailer", "date", "forwarded", "x-forwarded-for", "x-request-id"
+	};
+	private static final byte[][] KNOWN_BYTES = new byte[KNOWN_NAMES.length][];
+	private static final int[] KNOWN_TABLE = new int[128]; // open-addressed, by hash of name; id + 1, 0 if empty
+	static {
+		for (int id = 0; id < KNOWN_NAMES.length; id++) {
+			KNOWN_BYTES[id] = KNOWN_NAMES[id].getBytes(ISO_8859_1);
+			int slot = KNOWN_NAMES[id].hashCode() & (KNOWN_TABLE.length - 1);
+			while (KNOWN_TABLE[slot] != 0) {
+				slot = (slot + 1) & (KNOWN_TABLE.length - 1);
+			}
+			KNOWN_TABLE[slot] = id + 1;
+		}
+	}
+
+	private static final int UNKNOWN = -1;
+	private static final int STRIDE = 5; // ints per field: known name id, name from, name to, value from, value to
+
+	static final HeaderFields EMPTY = new HeaderFields(new byte[0], new int[0], 0);
+
+	private final byte[] data;
+	private final int[] fields;
+	private final int count;
+	private final String[] values; // decoded values, filled in lazily
+	private Set<Entry<String, List<String>>> entrySet;
+
+	private HeaderFields(byte[] data, int[] fields, int count) {
+		this.data = data;
+		this.fields = fields;
+		this.count = count;
+		this.values = new String[count];
+		this.entrySet = null;
+	}
+
+	/* Returns values of the field with given name, or null, if there is no such field. As all
+	 * keys of this map, name should be in lower case. */
+	@Override
+	public List<String> get(Object key) {
+		if (!(key instanceof String name)) {
+			return null;
+		}
+		int id = knownId(name);
+		int first = -1;
+		int second = -1;
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (hasName(i, id, name)) {
+				if (n == 0) {
+					first = i;
+				} else if (n == 1) {
+					second = i;
+				}
+				n++;
+			}
+		}
+		if (n == 0) {
+			return null;
+		} else if (n == 1) {
+			return List.of(value(first));
+		} else if (n == 2) {
+			return List.of(value(first), value(second));
+		}
+		String[] all = new String[n];
+		for (int i = 0, j = 0; i < count; i++) {
+			if (hasName(i, id, name)) {
+				all[j++] = value(i);
+			}
+		}
+		return List.of(all);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (!(key instanceof String name)) {
+			return false;
+		}
+		int id = knownId(name);
+		for (int i = 0; i < count; i++) {
+			if (hasName(i, id, name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	@Override
+	public Set<Entry<String, List<String>>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new Entries();
+		}
+		return entrySet;
+	}
+
+	private boolean hasName(int i, int id, String name) {
+		int f = i * STRIDE;
+		if (id != UNKNOWN || fields[f] != UNKNOWN) {
+			return fields[f] == id;
+		}
+		int from = fields[f + 1];
+		int length = fields[f + 2] - from;
+		if (length != name.length()) {
+			return false;
+		}
+		for (int j = 0; j < length; j++) {
+			if (toLowerCase(data[from + j]) != name.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String name(int i) {
+		int f = i * STRIDE;
+		if (fields[f] != UNKNOWN) {
+			return KNOWN_NAMES[fields[f]];
+		}
+		return new String(data, fields[f + 1], fields[f + 2] - fields[f + 1], ISO_8859_1).toLowerCase(Locale.ROOT);
+	}
+
+	private String value(int i) {
+		String value = values[i];
+		if (value == null) {
+			int f = i * STRIDE;
+			value = new String(data, fields[f + 3], fields[f + 4] - fields[f + 3], ISO_8859_1);
+			values[i] = value;
+		}
+		return value;
+	}
+
+	/* Entries in order of first appearance of each name. */
+	private final class Entries extends AbstractSet<Entry<String, List<String>>> {
+
+		private final String[] names;
+
+		private Entries() {
+			String[] distinct = new String[count];
+			int n = 0;
+			for (int i = 0; i < count; i++) {
+				String name = name(i);
+				boolean seen = false;
+				for (int j = 0; j < n && !seen; j++) {
+					seen = distinct[j].equals(name);
+				}
+				if (!seen) {
+					distinct[n++] = name;
+				}
+			}
+			this.names = Arrays.copyOf(distinct, n);
+		}
+
+		@Override
+		public Iterator<Entry<String, List<String>>> iterator() {
+			return new Iterator<>() {
+				private int next = 0;
+
+				@Override
+				public boolean hasNext() {
+					return next < names.length;
+				}
+
+				@Override
+				public Entry<String, List<String>> next() {
+					if (next >= names.length) {
+						throw new NoSuchElementException();
+					}
+					String name = names[next++];
+					return new SimpleImmutableEntry<>(name, get(name));
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return names.length;
+		}
+
+	}
+
+	/* Returns id of a well-known name, given in lower case, or UNKNOWN. */
+	private static int knownId(String name) {
+		int slot = name.hashCode() & (KNOWN_TABLE.length - 1);
+		while (KNOWN_TABLE[slot] != 0) {
+			int id = KNOWN_TABLE[slot] - 1;
+			if (KNOWN_NAMES[id].equals(name)) {
+				return id;
+			}
+			slot = (slot + 1) & (KNOWN_TABLE.length - 1);
+		}
+		return UNKNOWN;
+	}
+
+	/* Returns id of a well-known name, matched case-insensitively from bytes, or UNKNOWN. */
+	private static int knownId(byte[] b, int from, int to) {
+		int hash = 0;
+		for (int i = from; i < to; i++) {
+			hash = 31 * hash + toLowerCase(b[i]); // equal to hashCode() of lower-case name
+		}
+		int slot = hash & (KNOWN_TABLE.length - 1);
+		while (KNOWN_TABLE[slot] != 0) {
+			int id = KNOWN_TABLE[slot] - 1;
+			byte[] known = KNOWN_BYTES[id];
+			if (known.length == to - from && equalsIgnoreCase(known, b, from)) {
+				return id;
+			}
+			slot = (slot + 1) & (KNOWN_TABLE.length - 1);
+		}
+		return UNKNOWN;
+	}
+
+	private static boolean equalsIgnoreCase(byte[] lowerCase, byte[] b, int from) {
+		for (int i = 0; i < lowerCase.length; i++) {
+			if (lowerCase[i] != toLowerCase(b[from + i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int toLowerCase(byte c) {
+		return (c >= 0x41 && c <= 0x5A) ? c + 0x20 : c; // A-Z to a-z
+	}
+
+	/* Collects fields of a single request, in arrays which are reused from request to request. */
+	static final class Collector {
+
+		private byte[] data = new byte[1024];
+		private int[] fields = new int[16 * STRIDE];
+		private int length = 0; // number of used bytes in data
+		private int count = 0;
+
+		/* Adds a field, whose name and value are given by their positions in b. */
+		void add(byte[] b, int nameFrom, int nameTo, int valueFrom, int valueTo) {
+			int nameLength = nameTo - nameFrom;
+			int valueLength = valueTo - valueFrom;
+			if (length + nameLength + valueLength > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + nameLength + valueLength));
+			}
+			if ((count + 1) * STRIDE > fields.length) {
+				fields = Arrays.copyOf(fields, fields.length * 2);
+			}
+			int f = count * STRIDE;
+			fields[f] = knownId(b, nameFrom, nameTo);
+			fields[f + 1] = length;
+			System.arraycopy(b, nameFrom, data, length, nameLength);
+			length = length + nameLength;
+			fields[f + 2] = length;
+			fields[f + 3] = length;
+			System.arraycopy(b, valueFrom, data, length, valueLength);
+			length = length + valueLength;
+			fields[f + 4] = length;
+			count++;
+		}
+
+		/* Adds a field, given as strings; characters are stored as ISO-8859-1 bytes. */
+		void add(String name, String value) {
+			byte[] b = (name + value).getBytes(ISO_8859_1);
+			add(b, 0, name.length(), name.length(), b.length);
+		}
+
+		/* Returns collected fields and starts collecting anew. */
+		HeaderFields build() {
+			HeaderFields headers = (count == 0) ? EMPTY
+				: new HeaderFields(Arrays.copyOf(data, length), Arrays.copyOf(fields, count * STRIDE), count);
+			reset();
+			return headers;
+		}
+
+		void reset() {
+			if (data.length > 16384) { // do not keep arrays, grown by an exceptionally large head
+				data = new byte[1024];
+				fields = new int[16 * STRIDE];
+			}
+			length = 0;
+			count = 0;
+		}
+
+	}
+
+}
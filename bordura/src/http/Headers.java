@@ -1,7 +1,15 @@
 package http;
 
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 
 public class Headers {
 
@@ -26,4 +34,145 @@ public class Headers {
 		return list;
 	}
 	
+	static final int RANGES_LIMIT = 16; // max. number of ranges served in one response
+	
+	/* Reads value of "Range" header field (RFC 7233 3.1.) for a representation of given size.
+	 * Returns a list of satisfiable ranges, each as {first, last} byte position. Returns null, if
+	 * the value is invalid, is not in bytes unit or has too many ranges, so that it should be
+	 * ignored. An empty list means that none of the ranges can be satisfied. Overlapping ranges
+	 * are coalesced. */
+	static List<long[]> readByteRanges(String s, long size) {
+		if (!s.regionMatches(true, 0, "bytes=", 0, 6)) {
+			return null;
+		}
+		List<String> specs = readCommaDelimitedList(s.substring(6));
+		if (specs.isEmpty() || specs.size() > RANGES_LIMIT) {
+			return null;
+		}
+		List<long[]> ranges = new ArrayList<>(specs.size());
+		boolean overlapping = false;
+		for (String spec : specs) {
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			long first;
+			long last;
+			try {
+				if (dash == 0) { // suffix-byte-range-spec, "-" suffix-length
+					long suffix = parsePosition(spec, 1, spec.length());
+					if (suffix == 0) {
+						continue; // not satisfiable
+					}
+					first = Math.max(size - suffix, 0);
+					last = size - 1;
+				} else {
+					first = parsePosition(spec, 0, dash);
+					if (dash == spec.length() - 1) { // "first-", to the end
+						last = size - 1;
+					} else {
+						last = parsePosition(spec, dash + 1, spec.length());
+						if (last < first) { // invalid, unlike a first position beyond the end
+							return null;
+						}
+						last = Math.min(last, size - 1);
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (first < size) { // otherwise range is not satisfiable
+				for (long[] range : ranges) {
+					overlapping = overlapping || (first <= range[1] + 1 && range[0] <= last + 1);
+				}
+				ranges.add(new long[] {first, last});
+			}
+		}
+		if (overlapping) { // coalesce ranges, which overlap or are adjacent
+			ranges.sort(Comparator.comparingLong(range -> range[0]));
+			List<long[]> coalesced = new ArrayList<>(ranges.size());
+			long[] current = ranges.get(0);
+			for (long[] range : ranges) {
+				if (range[0] <= current[1] + 1) {
+					current[1] = Math.max(current[1], range[1]);
+				} else {
+					coalesced.add(current);
+					current = range;
+				}
+			}
+			coalesced.add(current);
+			ranges = coalesced;
+		}
+		return ranges;
+	}
+	
+	/* Returns strong entity tag (RFC 7232 2.3.) of a representation, identified by its hash,
+	 * e.g. of a post, as computed by Posts.calculateHashOf. */
+	public static String entityTag(byte[] hash) {
+		return "\"" + HexFormat.of().formatHex(hash) + "\"";
+	}
+	
+	/* Returns true, if value of "If-Match" or "If-None-Match" header field is "*" or lists
+	 * entityTag, which may be null. Weak comparison ignores "W/" prefix of both tags; strong
+	 * comparison never matches a weak tag. */
+	static boolean matchesEntityTag(String s, String entityTag, boolean weak) {
+		if (s.strip().equals("*")) {
+			return true;
+		} else if (entityTag == null) { // representation has none
+			return false;
+		}
+		if (entityTag.startsWith("W/")) {
+			if (!weak) {
+				return false;
+			}
+			entityTag = entityTag.substring(2);
+		}
+		for (String tag : readCommaDelimitedList(s)) {
+			if (tag.startsWith("W/")) {
+				if (!weak) {
+					continue;
+				}
+				tag = tag.substring(2);
+			}
+			if (tag.equals(entityTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/* Returns value of a date header field (RFC 7231 7.1.1.1.), e.g. "Last-Modified". */
+	public static String formatHttpDate(Instant instant) {
+		return IMF_FIXDATE.format(instant.atOffset(ZoneOffset.UTC));
+	}
+	
+	private static final DateTimeFormatter IMF_FIXDATE = // unlike RFC_1123_DATE_TIME, with 2-digit day
+		DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+	
+	/* Reads a date header field, e.g. "If-Modified-Since". Returns null, if the value is
+	 * invalid, so that the field should be ignored. */
+	static Instant readHttpDate(String s) {
+		try {
+			return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(s.strip()));
+		} catch (DateTimeException e) {
+			return null;
+		}
+	}
+	
+	/* Parses 1*DIGIT between from and to. */
+	private static long parsePosition(String s, int from, int to) {
+		if (from == to || to - from > 18) { // up to 18 digits, so that value cannot overflow
+			throw new NumberFormatException();
+		}
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new NumberFormatException();
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+	
 }
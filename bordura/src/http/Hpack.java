@@ -0,0 +1,392 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* HPACK header compression for HTTP/2 (RFC 7541). Decoder supports the whole format, including
+ * the dynamic table and Huffman coded strings. Encoder uses only the static table and literal
+ * strings without Huffman coding; it never adds entries to the dynamic table, so it keeps no
+ * state, which the peer would have to mirror. */
+final class Hpack {
+
+	/* Static table (RFC 7541 Appendix A.), entry at index i + 1. */
+	private static final String[][] STATIC_TABLE = {
+		{":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+		{":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+		{":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+		{":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+		{"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""},
+		{"accept", ""}, {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""},
+		{"authorization", ""}, {"cache-control", ""}, {"content-disposition", ""},
+		{"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+		{"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+		{"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+		{"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+		{"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""},
+		{"max-forwards", ""}, {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""},
+		{"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""}, {"set-cookie", ""},
+		{"strict-transport-security", ""}, {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""},
+		{"via", ""}, {"www-authenticate", ""}
+	};
+
+	/* Huffman code (RFC 7541 Appendix B.) and its length in bits, for each symbol; 256 is EOS. */
+	private static final int[] HUFFMAN_CODES = {
+		0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5,
+		0xfffffe6, 0xfffffe7, 0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9,
+		0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec, 0xfffffed, 0xfffffee,
+		0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+		0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9,
+		0xffffffa, 0xffffffb, 0x14, 0x3f8, 0x3f9, 0xffa,
+		0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa, 0x3fb,
+		0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+		0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b,
+		0x1c, 0x1d, 0x1e, 0x1f, 0x5c, 0xfb,
+		0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21,
+		0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+		0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+		0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0x6e,
+		0x6f, 0x70, 0x71, 0x72, 0xfc, 0x73,
+		0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+		0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5,
+		0x25, 0x26, 0x27, 0x6, 0x74, 0x75,
+		0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76,
+		0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+		0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd,
+		0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8,
+		0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda,
+		0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+		0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1,
+		0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5,
+		0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd,
+		0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+		0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf,
+		0x7fffeb, 0x7fffec, 0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2,
+		0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea, 0x3fffe2,
+		0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+		0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2,
+		0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde,
+		0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3,
+		0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+		0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3,
+		0x7ffffe4, 0x7ffffe5, 0xfffec, 0xfffff3, 0xfffed, 0x1fffe6,
+		0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3, 0x3fffea, 0x3fffeb,
+		0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+		0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8,
+		0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed,
+		0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee, 0x3fffffff
+	};
+	private static final byte[] HUFFMAN_LENGTHS = {
+		13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+		28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+		6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+		5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+		13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+		7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+		15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+		6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+		20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+		24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+		22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+		21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+		26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+		19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+		20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+		26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+		30
+	};
+
+	/* Binary tree of Huffman codes: children of node n are at 2n (bit 0) and 2n + 1 (bit 1);
+	 * a leaf holds -(symbol + 1), and 0 means there is no such node. */
+	private static final int[] HUFFMAN_TREE;
+	static {
+		int[] tree = new int[1024];
+		int nodes = 1; // node 0 is the root
+		for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+			int node = 0;
+			for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+				int child = 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+				if (bit == 0) {
+					tree[child] = -(symbol + 1);
+				} else {
+					if (tree[child] == 0) {
+						tree[child] = nodes++;
+					}
+					node = tree[child];
+				}
+			}
+		}
+		HUFFMAN_TREE = tree;
+	}
+
+	private static final Map<String, Integer> STATIC_NAMES = new HashMap<>(); // name to its first index
+	private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>(); // name and value to index
+	static {
+		for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+			STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+			if (!STATIC_TABLE[i][1].isEmpty()) {
+				STATIC_FIELDS.put(STATIC_TABLE[i][0] + ":" + STATIC_TABLE[i][1], i + 1);
+			}
+		}
+	}
+
+	private static final int ENTRY_OVERHEAD = 32; // added to size of each entry in the dynamic table
+
+	private Hpack() {}
+
+	/* Decodes header blocks of a single connection, in the order they were received. */
+	static final class Decoder {
+
+		private final int maxTableSize; // as advertised in SETTINGS_HEADER_TABLE_SIZE
+		private int tableCapacity; // current maximum size, as set by the encoder
+		private int tableSize;
+		private String[] names; // dynamic table, as a ring of entries
+		private String[] values;
+		private int head; // slot of the newest entry
+		private int entries;
+
+		Decoder(int maxTableSize) {
+			this.maxTableSize = maxTableSize;
+			this.tableCapacity = maxTableSize;
+			this.tableSize = 0;
+			this.names = new String[16];
+			this.values = new String[16];
+			this.head = 0;
+			this.entries = 0;
+		}
+
+		/* Decodes block between from and to into fields, as consecutive names and values.
+		 * Returns size of the decoded list, as defined for SETTINGS_MAX_HEADER_LIST_SIZE. */
+		long decode(byte[] b, int from, int to, List<String> fields) throws Http2Exception {
+			Input in = new Input(b, from, to);
+			long listSize = 0;
+			boolean fieldSeen = false;
+			while (in.position < to) {
+				int first = b[in.position] & 0xFF;
+				String name;
+				String value;
+				if ((first & 0x80) != 0) { // indexed header field
+					int index = in.integer(7);
+					name = name(index);
+					value = value(index);
+				} else if ((first & 0xE0) == 0x20) { // dynamic table size update
+					if (fieldSeen) { // allowed only at the beginning of a block
+						throw compressionError();
+					}
+					int capacity = in.integer(5);
+					if (capacity > maxTableSize) {
+						throw compressionError();
+					}
+					tableCapacity = capacity;
+					evict(0);
+					continue;
+				} else { // literal, with incremental indexing (6-bit prefix), without or never indexed (4-bit)
+					boolean indexing = (first & 0xC0) == 0x40;
+					int index = in.integer(indexing ? 6 : 4);
+					name = (index == 0) ? in.string() : name(index);
+					value = in.string();
+					if (indexing) {
+						add(name, value);
+					}
+				}
+				fieldSeen = true;
+				fields.add(name);
+				fields.add(value);
+				listSize = listSize + name.length() + value.length() + ENTRY_OVERHEAD;
+			}
+			return listSize;
+		}
+
+		private String name(int index) throws Http2Exception {
+			if (index >= 1 && index <= STATIC_TABLE.length) {
+				return STATIC_TABLE[index - 1][0];
+			}
+			return names[dynamicSlot(index)];
+		}
+
+		private String value(int index) throws Http2Exception {
+			if (index >= 1 && index <= STATIC_TABLE.length) {
+				return STATIC_TABLE[index - 1][1];
+			}
+			return values[dynamicSlot(index)];
+		}
+
+		private int dynamicSlot(int index) throws Http2Exception {
+			int i = index - STATIC_TABLE.length - 1; // 0 is the newest entry
+			if (i < 0 || i >= entries) {
+				throw compressionError();
+			}
+			return (head - i + names.length) % names.length;
+		}
+
+		private void add(String name, String value) {
+			int size = name.length() + value.length() + ENTRY_OVERHEAD;
+			evict(size);
+			if (size > tableCapacity) { // entry larger than the table empties it, and is not added
+				return;
+			}
+			if (entries == names.length) {
+				String[] newNames = new String[names.length * 2];
+				String[] newValues = new String[names.length * 2];
+				for (int i = 0; i < entries; i++) { // oldest entry first
+					int slot = (head - entries + 1 + i + names.length) % names.length;
+					newNames[i] = names[slot];
+					newValues[i] = values[slot];
+				}
+				names = newNames;
+				values = newValues;
+				head = entries - 1;
+			}
+			head = (head + 1) % names.length;
+			names[head] = name;
+			values[head] = value;
+			entries++;
+			tableSize = tableSize + size;
+		}
+
+		/* Evicts the oldest entries, until there is room for an entry of given size. */
+		private void evict(int size) {
+			while (entries > 0 && tableSize + size > tableCapacity) {
+				int oldest = (head - entries + 1 + names.length) % names.length;
+				tableSize = tableSize - (names[oldest].length() + values[oldest].length() + ENTRY_OVERHEAD);
+				names[oldest] = null;
+				values[oldest] = null;
+				entries--;
+			}
+		}
+
+	}
+
+	/* Position in a header block, being decoded. */
+	private static final class Input {
+
+		private final byte[] b;
+		private int position;
+		private final int to;
+
+		private Input(byte[] b, int from, int to) {
+			this.b = b;
+			this.position = from;
+			this.to = to;
+		}
+
+		/* Decodes an integer with prefix of n bits (RFC 7541 5.1.). */
+		private int integer(int n) throws Http2Exception {
+			int mask = (1 << n) - 1;
+			int value = b[position++] & mask;
+			if (value < mask) {
+				return value;
+			}
+			for (int shift = 0; shift <= 21; shift = shift + 7) { // values up to about 2^28 are accepted
+				if (position >= to) {
+					throw compressionError();
+				}
+				int octet = b[position++] & 0xFF;
+				value = value + ((octet & 0x7F) << shift);
+				if ((octet & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw compressionError();
+		}
+
+		/* Decodes a string literal (RFC 7541 5.2.). */
+		private String string() throws Http2Exception {
+			if (position >= to) {
+				throw compressionError();
+			}
+			boolean huffman = (b[position] & 0x80) != 0;
+			int length = integer(7);
+			if (length > to - position) {
+				throw compressionError();
+			}
+			int from = position;
+			position = position + length;
+			return huffman ? huffmanDecode(b, from, position) : new String(b, from, length, ISO_8859_1);
+		}
+
+	}
+
+	private static String huffmanDecode(byte[] b, int from, int to) throws Http2Exception {
+		StringBuilder s = new StringBuilder((to - from) * 8 / 5);
+		int node = 0;
+		int bits = 0; // bits read since the last complete symbol
+		boolean ones = true; // true, if all those bits were 1
+		for (int i = from; i < to; i++) {
+			for (int bit = 7; bit >= 0; bit--) {
+				int value = (b[i] >>> bit) & 1;
+				int next = HUFFMAN_TREE[2 * node + value];
+				bits++;
+				ones = ones && value == 1;
+				if (next < 0) {
+					int symbol = -next - 1;
+					if (symbol == 256) { // EOS must not appear in a string
+						throw compressionError();
+					}
+					s.append((char) symbol);
+					node = 0;
+					bits = 0;
+					ones = true;
+				} else {
+					node = next;
+				}
+			}
+		}
+		if (bits > 7 || !ones) { // padding must be shorter than 8 bits, and all of them 1
+			throw compressionError();
+		}
+		return s.toString();
+	}
+
+	private static Http2Exception compressionError() {
+		return new Http2Exception(Http2Exception.COMPRESSION_ERROR, 0, "Invalid header block");
+	}
+
+	/* Encodes the ":status" pseudo-header field. */
+	static void encodeStatus(int status, ByteArrayOutputStream out) {
+		encodeField(":status", Integer.toString(status), out);
+	}
+
+	/* Encodes a header field, whose name is in lower case, as indexed field, if it is in the
+	 * static table, or as literal without indexing otherwise. */
+	static void encodeField(String name, String value, ByteArrayOutputStream out) {
+		Integer index = STATIC_FIELDS.get(name + ":" + value);
+		if (index != null) {
+			encodeInteger(index, 7, 0x80, out);
+			return;
+		}
+		index = STATIC_NAMES.get(name);
+		if (index != null) {
+			encodeInteger(index, 4, 0x00, out);
+		} else {
+			out.write(0x00);
+			encodeString(name, out);
+		}
+		encodeString(value, out);
+	}
+
+	private static void encodeString(String s, ByteArrayOutputStream out) {
+		encodeInteger(s.length(), 7, 0x00, out); // not Huffman coded
+		for (int i = 0; i < s.length(); i++) {
+			out.write(s.charAt(i));
+		}
+	}
+
+	private static void encodeInteger(int value, int n, int pattern, ByteArrayOutputStream out) {
+		int mask = (1 << n) - 1;
+		if (value < mask) {
+			out.write(pattern | value);
+			return;
+		}
+		out.write(pattern | mask);
+		value = value - mask;
+		while (value >= 0x80) {
+			out.write((value & 0x7F) | 0x80);
+			value = value >>> 7;
+		}
+		out.write(value);
+	}
+
+}
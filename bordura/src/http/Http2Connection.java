@@ -0,0 +1,1017 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* A connection of BlockingHttpServer, speaking HTTP/2 (RFC 7540). Frames are read on the
+ * connection's own thread, while each stream is handled as a separate task of the server's
+ * executor, so that a slow handler does not hold up other streams of the connection. Frames
+ * are written by whichever thread has something to send, one whole frame at a time. Request
+ * bodies are buffered up to the stream's flow-control window, and writers of response bodies
+ * wait for the peer's window to open. Server push and priorities are not used. */
+final class Http2Connection {
+
+	static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(US_ASCII);
+
+	// frame types
+	private static final int DATA = 0x0;
+	private static final int HEADERS = 0x1;
+	private static final int PRIORITY = 0x2;
+	private static final int RST_STREAM = 0x3;
+	private static final int SETTINGS = 0x4;
+	private static final int PUSH_PROMISE = 0x5;
+	private static final int PING = 0x6;
+	private static final int GOAWAY = 0x7;
+	private static final int WINDOW_UPDATE = 0x8;
+	private static final int CONTINUATION = 0x9;
+
+	// frame flags
+	private static final int END_STREAM = 0x1;
+	private static final int ACK = 0x1;
+	private static final int END_HEADERS = 0x4;
+	private static final int PADDED = 0x8;
+	private static final int PRIORITY_FLAG = 0x20;
+
+	// settings
+	private static final int SETTINGS_ENABLE_PUSH = 0x2;
+	private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	private static final int FRAME_HEADER_LENGTH = 9;
+	private static final int FRAME_SIZE = 16384; // max. size of received frames; the default, which is never changed
+	private static final int DEFAULT_WINDOW = 65535; // initial flow-control window of connection and streams
+	private static final int MAX_CONCURRENT_STREAMS = 100;
+	private static final int STREAM_WINDOW = 262144; // receive window of each stream, bounds its buffered body bytes
+	private static final int CONNECTION_WINDOW = 16777216; // receive window of connection
+	private static final int HEADER_TABLE_SIZE = 4096; // size of decoder's dynamic table, the default
+	private static final int HEADER_BLOCK_LIMIT = HttpRequestParser.HEADERS_LIMIT; // max. size of encoded header block
+
+	/* Header fields, which are meaningful only to HTTP/1.1 connections (RFC 7540 8.1.2.2.). */
+	private static final Set<String> CONNECTION_SPECIFIC = Set.of("connection", "keep-alive", "proxy-connection",
+		"transfer-encoding", "upgrade");
+
+	/* Arrays of DATA frames, written from response bodies. */
+	private static final BufferPool FRAMES = new BufferPool(FRAME_SIZE);
+
+	private final InputStream in;
+	private final ChannelOutputStream out;
+	private final Closeable channel;
+	private final InetAddress peer; // remote address, recorded in events
+	private final Executor executor;
+	private final HttpHandler handler;
+	private final Metrics metrics; // records status and write time of responses
+	private final Hpack.Decoder decoder;
+	private final byte[] frameHeader;
+	private final byte[] payload;
+	private final ReentrantLock lock; // guards streams, flow-control windows and closed
+	private final Condition changed; // signalled when a window opens, body bytes arrive or a stream ends
+	private final ReentrantLock writeLock; // held while a frame is written
+	private final Map<Integer, Stream> streams;
+	private long sendWindow; // connection window for DATA frames sent to peer
+	private int initialSendWindow; // initial window of streams, as set by peer
+	private volatile int peerFrameSize; // max. size of frames sent to peer
+	private int receiveWindow; // connection window for DATA frames received from peer
+	private int receivedUnacknowledged; // bytes of DATA frames, not yet given back with WINDOW_UPDATE
+	private int lastStreamId; // highest id of stream, opened by peer
+	private byte[] headerBlock; // header block, continued in CONTINUATION frames
+	private int headerBlockLength;
+	private int headerBlockStreamId; // stream of the header block being continued, 0 if none
+	private int headerBlockFlags;
+	private boolean closed;
+
+	Http2Connection(InputStream in, ChannelOutputStream out, Closeable channel, InetAddress peer, Executor executor,
+					HttpHandler handler, Metrics metrics) {
+		this.in = in;
+		this.out = out;
+		this.channel = channel;
+		this.peer = peer;
+		this.executor = executor;
+		this.handler = handler;
+		this.metrics = metrics;
+		this.decoder = new Hpack.Decoder(HEADER_TABLE_SIZE);
+		this.frameHeader = new byte[FRAME_HEADER_LENGTH];
+		this.payload = new byte[FRAME_SIZE];
+		this.lock = new ReentrantLock();
+		this.changed = lock.newCondition();
+		this.writeLock = new ReentrantLock();
+		this.streams = new HashMap<>();
+		this.sendWindow = DEFAULT_WINDOW;
+		this.initialSendWindow = DEFAULT_WINDOW;
+		this.peerFrameSize = FRAME_SIZE;
+		this.receiveWindow = CONNECTION_WINDOW;
+		this.receivedUnacknowledged = 0;
+		this.lastStreamId = 0;
+		this.headerBlock = null;
+		this.headerBlockLength = 0;
+		this.headerBlockStreamId = 0;
+		this.headerBlockFlags = 0;
+		this.closed = false;
+	}
+
+	/* Returns settings of peer, if request asks for an upgrade to HTTP/2 over cleartext ("h2c",
+	 * RFC 7540 3.2.), which can be accepted, or null otherwise. Only requests without a body
+	 * are upgraded. */
+	static byte[] upgradeSettings(HttpRequest request) {
+		Map<String, List<String>> headers = request.headers();
+		List<String> upgrade = headers.get("upgrade");
+		List<String> settings = headers.get("http2-settings");
+		List<String> connection = headers.get("connection");
+		if (request.version() != HttpVersion.HTTP_1_1 || request.bodyStream() != null || upgrade == null
+			|| settings == null || settings.size() != 1 || connection == null
+			|| !containsToken(upgrade, "h2c") || !containsToken(connection, "upgrade")
+			|| !containsToken(connection, "http2-settings")) {
+			return null;
+		}
+		try {
+			byte[] b = Base64.getUrlDecoder().decode(settings.get(0).trim());
+			return (b.length % 6 == 0) ? b : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static boolean containsToken(List<String> values, String token) {
+		for (String value : values) {
+			for (String item : Headers.readCommaDelimitedList(value)) {
+				if (item.equalsIgnoreCase(token)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/* Serves the connection, until it is closed by either side. If upgrade is not null, it is the
+	 * request, which was upgraded with settings, and it becomes stream 1; otherwise, the preface
+	 * was already consumed from the stream. Returns once all streams are done. */
+	void serve(HttpRequest upgrade, byte[] settings) {
+		try {
+			writeSettings();
+			if (upgrade != null) {
+				applySettings(settings, 0, settings.length);
+				lastStreamId = 1;
+				start(new Stream(1, true), upgrade, 0);
+				byte[] preface = new byte[PREFACE.length];
+				readFully(preface, preface.length);
+				if (!Arrays.equals(preface, PREFACE)) {
+					throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Invalid preface");
+				}
+			}
+			if (readFrame() != SETTINGS) { // preface of peer ends with its SETTINGS frame
+				throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Preface without SETTINGS");
+			}
+			while (true) {
+				readFrame();
+			}
+		} catch (Http2Exception e) {
+			try {
+				writeGoAway(e.errorCode());
+			} catch (IOException e1) {
+				// connection is being closed anyway
+			}
+		} catch (IOException e) {
+			// connection failed or was closed by peer
+		} finally {
+			lock.lock();
+			try {
+				closed = true;
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			try {
+				channel.close(); // stops handlers, which are writing
+			} catch (IOException e) {
+				// ignore, connection is being discarded anyway
+			}
+			awaitStreams(); // until then, handlers might still use buffers of the connection
+		}
+	}
+
+	private void awaitStreams() {
+		lock.lock();
+		try {
+			while (!streams.isEmpty()) {
+				changed.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Reads and processes a single frame. Returns its type. */
+	private int readFrame() throws IOException {
+		readFully(frameHeader, FRAME_HEADER_LENGTH);
+		int length = ((frameHeader[0] & 0xFF) << 16) | ((frameHeader[1] & 0xFF) << 8) | (frameHeader[2] & 0xFF);
+		int type = frameHeader[3] & 0xFF;
+		int flags = frameHeader[4] & 0xFF;
+		int streamId = readInt(frameHeader, 5) & 0x7FFFFFFF;
+		if (length > FRAME_SIZE) {
+			throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, 0, "Frame too large");
+		}
+		readFully(payload, length);
+		if (headerBlockStreamId != 0 && type != CONTINUATION) { // header block must not be interrupted
+			throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Header block interrupted");
+		}
+		switch (type) {
+		case DATA:
+			onData(streamId, flags, length);
+			break;
+		case HEADERS:
+			onHeaders(streamId, flags, length);
+			break;
+		case PRIORITY:
+			if (streamId == 0) {
+				throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "PRIORITY on connection");
+			}
+			break; // priorities are ignored
+		case RST_STREAM:
+			onResetStream(streamId, length);
+			break;
+		case SETTINGS:
+			onSettings(streamId, flags, length);
+			break;
+		case PING:
+			if (streamId != 0 || length != 8) {
+				throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Invalid PING");
+			}
+			if ((flags & ACK) == 0) {
+				writeFrame(PING, ACK, 0, payload, 0, 8);
+			}
+			break;
+		case GOAWAY:
+			if (streamId != 0) {
+				throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "GOAWAY on stream");
+			}
+			break; // peer opens no more streams, but the open ones are still served
+		case WINDOW_UPDATE:
+			onWindowUpdate(streamId, length);
+			break;
+		case CONTINUATION:
+			onContinuation(streamId, flags, length);
+			break;
+		case PUSH_PROMISE: // clients must not push
+			throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "PUSH_PROMISE from client");
+		default:
+			break; // unknown frame types are ignored
+		}
+		return type;
+	}
+
+	private void onData(int streamId, int flags, int length) throws IOException {
+		if (streamId == 0) {
+			throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "DATA on connection");
+		}
+		int from = 0;
+		int to = length;
+		if ((flags & PADDED) != 0) {
+			from = 1;
+			to = (length == 0) ? -1 : length - (payload[0] & 0xFF);
+			if (to < from) {
+				throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Invalid padding");
+			}
+		}
+		// flow control of connection; its window is given back as soon as bytes are received,
+		// as windows of streams alone bound bytes, which are buffered
+		if (length > receiveWindow) {
+			throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, 0, "Connection window exceeded");
+		}
+		receiveWindow = receiveWindow - length;
+		receivedUnacknowledged = receivedUnacknowledged + length;
+		if (receivedUnacknowledged >= CONNECTION_WINDOW / 2) {
+			writeWindowUpdate(0, receivedUnacknowledged);
+			receiveWindow = receiveWindow + receivedUnacknowledged;
+			receivedUnacknowledged = 0;
+		}
+		int error = 0;
+		lock.lock();
+		try {
+			Stream stream = streams.get(streamId);
+			if (stream == null) {
+				if (streamId > lastStreamId) {
+					throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "DATA on idle stream");
+				}
+				return; // stream is closed already, frames in flight are ignored
+			}
+			if (stream.endReceived || stream.reset) {
+				error = Http2Exception.STREAM_CLOSED;
+			} else if (length > stream.receiveWindow) {
+				error = Http2Exception.FLOW_CONTROL_ERROR;
+			} else {
+				stream.receiveWindow = stream.receiveWindow - length;
+				stream.consumed = stream.consumed + length - (to - from); // padding is never read
+				stream.receivedLength = stream.receivedLength + (to - from);
+				if (to > from) {
+					stream.received.add(Arrays.copyOfRange(payload, from, to));
+				}
+				if ((flags & END_STREAM) != 0) {
+					stream.endReceived = true;
+				}
+				if (stream.expectedLength >= 0 && (stream.receivedLength > stream.expectedLength
+					|| (stream.endReceived && stream.receivedLength != stream.expectedLength))) {
+					error = Http2Exception.PROTOCOL_ERROR; // body does not match "content-length"
+				}
+				changed.signalAll();
+			}
+			if (error != 0) {
+				stream.reset = true;
+				changed.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (error != 0) {
+			writeResetStream(streamId, error);
+		}
+	}
+
+	private void onHeaders(int streamId, int flags, int length) throws IOException {
+		if (streamId == 0) {
+			throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "HEADERS on connection");
+		}
+		int from = 0;
+		int to = length;
+		if ((flags & PADDED) != 0) {
+			from = 1;
+			to = (length == 0) ? -1 : length - (payload[0] & 0xFF);
+		}
+		if ((flags & PRIORITY_FLAG) != 0) {
+			from = from + 5; // stream dependency and weight are ignored
+		}
+		if (to < from) {
+			throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Invalid padding");
+		}
+		if ((flags & END_HEADERS) != 0) {
+			onHeaderBlock(streamId, flags, payload, from, to);
+		} else {
+			headerBlock = (headerBlock == null) ? new byte[Math.max(to - from, 1024)] : headerBlock;
+			headerBlockLength = 0;
+			headerBlockStreamId = streamId;
+			headerBlockFlags = flags;
+			appendToHeaderBlock(from, to);
+		}
+	}
+
+	private void onContinuation(int streamId, int flags, int length) throws IOException {
+		if (streamId == 0 || streamId != headerBlockStreamId) {
+			throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Unexpected CONTINUATION");
+		}
+		appendToHeaderBlock(0, length);
+		if ((flags & END_HEADERS) != 0) {
+			headerBlockStreamId = 0;
+			onHeaderBlock(streamId, headerBlockFlags, headerBlock, 0, headerBlockLength);
+		}
+	}
+
+	private void appendToHeaderBlock(int from, int to) throws Http2Exception {
+		int length = to - from;
+		if (headerBlockLength + length > HEADER_BLOCK_LIMIT) {
+			throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, 0, "Header block too large");
+		}
+		if (headerBlockLength + length > headerBlock.length) {
+			headerBlock = Arrays.copyOf(headerBlock, Math.max(headerBlock.length * 2, headerBlockLength + length));
+		}
+		System.arraycopy(payload, from, headerBlock, headerBlockLength, length);
+		headerBlockLength = headerBlockLength + length;
+	}
+
+	/* Processes a complete header block, which opens a new stream or ends an open one with trailer
+	 * fields. */
+	private void onHeaderBlock(int streamId, int flags, byte[] b, int from, int to) throws IOException {
+		List<String> fields = new ArrayList<>();
+		long listSize = decoder.decode(b, from, to, fields); // decoded always, to keep the dynamic table in sync
+		boolean endStream = (flags & END_STREAM) != 0;
+		Stream stream;
+		lock.lock();
+		try {
+			if (streamId <= lastStreamId) {
+				stream = streams.get(streamId);
+				if (stream != null && !stream.endReceived && endStream) { // trailer fields are ignored
+					stream.endReceived = true;
+					changed.signalAll();
+				} else if (stream != null && !stream.reset) {
+					throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Unexpected HEADERS");
+				}
+				return;
+			}
+			if ((streamId & 1) == 0) {
+				throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Stream id of server");
+			}
+			lastStreamId = streamId;
+			if (streams.size() >= MAX_CONCURRENT_STREAMS || closed) {
+				stream = null;
+			} else {
+				stream = new Stream(streamId, endStream);
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (stream == null) {
+			writeResetStream(streamId, Http2Exception.REFUSED_STREAM);
+			return;
+		}
+		if (listSize > HttpRequestParser.HEADERS_LIMIT) {
+			start(stream, null, 431);
+			return;
+		}
+		HttpRequest request;
+		try {
+			request = request(stream, fields);
+			stream.expectedLength = request.headers().containsKey("content-length") ? request.bodyLength() : -1;
+		} catch (Http2Exception e) { // malformed request (RFC 7540 8.1.2.6.)
+			lock.lock();
+			try {
+				stream.reset = true;
+			} finally {
+				lock.unlock();
+			}
+			writeResetStream(streamId, e.errorCode());
+			return;
+		} catch (HttpException e) {
+			start(stream, null, e.returnStatusCode());
+			return;
+		}
+		start(stream, request, 0);
+	}
+
+	/* Creates request of stream from decoded header fields. */
+	private static HttpRequest request(Stream stream, List<String> fields) throws Http2Exception, HttpException {
+		String method = null;
+		String scheme = null;
+		String path = null;
+		String authority = null;
+		HeaderFields.Collector headers = new HeaderFields.Collector();
+		boolean regularSeen = false;
+		boolean hostSeen = false;
+		for (int i = 0; i < fields.size(); i = i + 2) {
+			String name = fields.get(i);
+			String value = fields.get(i + 1);
+			if (name.startsWith(":")) { // pseudo-header fields precede all others, each at most once
+				if (regularSeen) {
+					throw malformed(stream);
+				}
+				if (name.equals(":method") && method == null) {
+					method = value;
+				} else if (name.equals(":scheme") && scheme == null) {
+					scheme = value;
+				} else if (name.equals(":path") && path == null) {
+					path = value;
+				} else if (name.equals(":authority") && authority == null) {
+					authority = value;
+				} else {
+					throw malformed(stream);
+				}
+			} else {
+				regularSeen = true;
+				if (!isValidName(name) || !isValidValue(value) || CONNECTION_SPECIFIC.contains(name)
+					|| (name.equals("te") && !value.equals("trailers"))) {
+					throw malformed(stream);
+				}
+				hostSeen = hostSeen || name.equals("host");
+				headers.add(name, value);
+			}
+		}
+		if (method == null || scheme == null || path == null || path.isEmpty()) {
+			throw malformed(stream);
+		}
+		if (authority != null && !hostSeen) {
+			headers.add("host", authority);
+		}
+		byte[] m = method.getBytes(ISO_8859_1);
+		byte[] target = path.getBytes(ISO_8859_1);
+		return new HttpRequest(HttpRequestParser.parseMethod(m, 0, m.length),
+			HttpRequestParser.parseTarget(target, 0, target.length), HttpVersion.HTTP_2, headers.build(),
+			stream.endReceived ? null : stream.new RequestBody());
+	}
+
+	private static boolean isValidName(String name) {
+		if (name.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!AsciiChars.isTchar(c) || (c >= 0x41 && c <= 0x5A)) { // names must be in lower case
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isValidValue(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c < 0x20 || c > 0x7E) && c != AsciiChars.HTAB) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Http2Exception malformed(Stream stream) {
+		return new Http2Exception(Http2Exception.PROTOCOL_ERROR, stream.id, "Malformed request");
+	}
+
+	private void onResetStream(int streamId, int length) throws Http2Exception {
+		if (length != 4) {
+			throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, 0, "Invalid RST_STREAM");
+		}
+		if (streamId == 0 || streamId > lastStreamId) {
+			throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "RST_STREAM on idle stream");
+		}
+		lock.lock();
+		try {
+			Stream stream = streams.get(streamId);
+			if (stream != null) {
+				stream.reset = true;
+				changed.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void onSettings(int streamId, int flags, int length) throws IOException {
+		if (streamId != 0) {
+			throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "SETTINGS on stream");
+		}
+		if ((flags & ACK) != 0) {
+			if (length != 0) {
+				throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, 0, "Invalid SETTINGS");
+			}
+			return;
+		}
+		if (length % 6 != 0) {
+			throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, 0, "Invalid SETTINGS");
+		}
+		applySettings(payload, 0, length);
+		writeFrame(SETTINGS, ACK, 0, payload, 0, 0);
+	}
+
+	private void applySettings(byte[] b, int from, int to) throws Http2Exception {
+		for (int i = from; i + 6 <= to; i = i + 6) {
+			int id = ((b[i] & 0xFF) << 8) | (b[i + 1] & 0xFF);
+			int value = readInt(b, i + 2);
+			if (id == SETTINGS_ENABLE_PUSH && value != 0 && value != 1) {
+				throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Invalid SETTINGS_ENABLE_PUSH");
+			} else if (id == SETTINGS_INITIAL_WINDOW_SIZE) {
+				if (value < 0) { // above 2^31 - 1
+					throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, 0, "Invalid SETTINGS_INITIAL_WINDOW_SIZE");
+				}
+				lock.lock();
+				try {
+					for (Stream stream : streams.values()) { // windows of open streams change by the difference
+						stream.sendWindow = stream.sendWindow + value - initialSendWindow;
+					}
+					initialSendWindow = value;
+					changed.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			} else if (id == SETTINGS_MAX_FRAME_SIZE) {
+				if (value < FRAME_SIZE || value > 16777215) {
+					throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Invalid SETTINGS_MAX_FRAME_SIZE");
+				}
+				peerFrameSize = value;
+			} // others do not concern a server, which does not push nor use the dynamic table
+		}
+	}
+
+	private void onWindowUpdate(int streamId, int length) throws IOException {
+		if (length != 4) {
+			throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, 0, "Invalid WINDOW_UPDATE");
+		}
+		int increment = readInt(payload, 0) & 0x7FFFFFFF;
+		int error = 0;
+		lock.lock();
+		try {
+			if (streamId == 0) {
+				if (increment == 0) {
+					throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, 0, "Zero WINDOW_UPDATE");
+				}
+				sendWindow = sendWindow + increment;
+				if (sendWindow > Integer.MAX_VALUE) {
+					throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, 0, "Connection window overflow");
+				}
+			} else {
+				Stream stream = streams.get(streamId);
+				if (stream == null || stream.reset) {
+					return;
+				}
+				stream.sendWindow = stream.sendWindow + increment;
+				if (increment == 0) {
+					error = Http2Exception.PROTOCOL_ERROR;
+				} else if (stream.sendWindow > Integer.MAX_VALUE) {
+					error = Http2Exception.FLOW_CONTROL_ERROR;
+				}
+				if (error != 0) {
+					stream.reset = true;
+				}
+			}
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if (error != 0) {
+			writeResetStream(streamId, error);
+		}
+	}
+
+	/* Starts handling of stream on executor. If request is null, response has given status. */
+	private void start(Stream stream, HttpRequest request, int status) throws IOException {
+		lock.lock();
+		try {
+			stream.sendWindow = initialSendWindow;
+			streams.put(stream.id, stream);
+		} finally {
+			lock.unlock();
+		}
+		try {
+			executor.execute(() -> respond(stream, request, status));
+		} catch (RejectedExecutionException e) { // server is being closed
+			end(stream);
+			writeResetStream(stream.id, Http2Exception.REFUSED_STREAM);
+		}
+	}
+
+	private void respond(Stream stream, HttpRequest request, int status) {
+		try {
+			HttpResponse response;
+			try {
+				response = (request != null) ? handler.handle(request) : HttpResponse.ofStatus(status, false);
+			} catch (HttpException e) {
+				response = HttpResponse.ofStatus(e.returnStatusCode(), false);
+			}
+			long start = System.nanoTime();
+			ResponseEvent event = new ResponseEvent();
+			event.begin();
+			try {
+				writeResponse(stream, response, request == null || request.method() != HttpRequest.Method.HEAD);
+			} finally {
+				metrics.responded(response.status(), System.nanoTime() - start);
+				event.complete(response, peer);
+			}
+			boolean bodyUnread;
+			lock.lock();
+			try {
+				bodyUnread = !stream.endReceived && !stream.reset;
+			} finally {
+				lock.unlock();
+			}
+			if (bodyUnread) { // response is complete, the rest of request body is not needed
+				writeResetStream(stream.id, Http2Exception.NO_ERROR);
+			}
+		} catch (Http2Exception e) { // stream was reset
+		} catch (IOException | RuntimeException e) {
+			try {
+				writeResetStream(stream.id, Http2Exception.INTERNAL_ERROR);
+			} catch (IOException e1) {
+				// connection failed
+			}
+		} finally {
+			end(stream);
+		}
+	}
+
+	private void end(Stream stream) {
+		lock.lock();
+		try {
+			streams.remove(stream.id);
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeResponse(Stream stream, HttpResponse response, boolean withBody) throws IOException {
+		ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+		Hpack.encodeStatus(response.status(), block);
+		for (var header : response.headers()) {
+			String name = header.getKey().toLowerCase(Locale.ROOT);
+			if (!CONNECTION_SPECIFIC.contains(name)) {
+				Hpack.encodeField(name, header.getValue(), block);
+			}
+		}
+		boolean hasBody = withBody && response.hasBody();
+		writeHeaders(stream, block.toByteArray(), !hasBody);
+		if (hasBody) {
+			BodyOutputStream data = new BodyOutputStream(stream);
+			try {
+				response.writeBodyTo(data);
+				data.finish();
+			} finally {
+				data.release();
+			}
+		}
+	}
+
+	/* Writes a header block in HEADERS frame, followed by CONTINUATION frames, if it is larger
+	 * than a frame. Frames of a block are written without any other frames in between. */
+	private void writeHeaders(Stream stream, byte[] block, boolean endStream) throws IOException {
+		int frameSize = peerFrameSize;
+		writeLock.lock();
+		try {
+			checkReset(stream);
+			int type = HEADERS;
+			int off = 0;
+			do {
+				int n = Math.min(block.length - off, frameSize);
+				int flags = (off + n == block.length) ? END_HEADERS : 0;
+				if (type == HEADERS && endStream) {
+					flags = flags | END_STREAM;
+				}
+				writeFrame(type, flags, stream.id, block, off, n);
+				off = off + n;
+				type = CONTINUATION;
+			} while (off < block.length);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/* Writes DATA frames of stream, as flow-control windows allow. */
+	private void writeData(Stream stream, byte[] b, int off, int len, boolean endStream) throws IOException {
+		do {
+			int n = (len == 0) ? 0 : reserveWindow(stream, len);
+			len = len - n;
+			writeFrame(DATA, (endStream && len == 0) ? END_STREAM : 0, stream.id, b, off, n);
+			off = off + n;
+		} while (len > 0);
+	}
+
+	/* Waits, until both windows are open, and takes up to len bytes from them. */
+	private int reserveWindow(Stream stream, int len) throws IOException {
+		lock.lock();
+		try {
+			checkReset(stream);
+			while (stream.sendWindow <= 0 || sendWindow <= 0) {
+				changed.awaitUninterruptibly();
+				checkReset(stream);
+			}
+			int n = (int) Math.min(Math.min(len, peerFrameSize), Math.min(stream.sendWindow, sendWindow));
+			stream.sendWindow = stream.sendWindow - n;
+			sendWindow = sendWindow - n;
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkReset(Stream stream) throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				throw new EOFException("Connection closed");
+			}
+			if (stream.reset) {
+				throw new Http2Exception(Http2Exception.CANCEL, stream.id, "Stream reset");
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeSettings() throws IOException {
+		byte[] b = new byte[18];
+		putSetting(b, 0, SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS);
+		putSetting(b, 6, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW);
+		putSetting(b, 12, SETTINGS_MAX_HEADER_LIST_SIZE, HttpRequestParser.HEADERS_LIMIT);
+		writeFrame(SETTINGS, 0, 0, b, 0, b.length);
+		writeWindowUpdate(0, CONNECTION_WINDOW - DEFAULT_WINDOW);
+	}
+
+	private static void putSetting(byte[] b, int i, int id, int value) {
+		b[i] = (byte) (id >>> 8);
+		b[i + 1] = (byte) id;
+		putInt(b, i + 2, value);
+	}
+
+	private void writeWindowUpdate(int streamId, int increment) throws IOException {
+		byte[] b = new byte[4];
+		putInt(b, 0, increment);
+		writeFrame(WINDOW_UPDATE, 0, streamId, b, 0, 4);
+	}
+
+	private void writeResetStream(int streamId, int errorCode) throws IOException {
+		byte[] b = new byte[4];
+		putInt(b, 0, errorCode);
+		writeFrame(RST_STREAM, 0, streamId, b, 0, 4);
+	}
+
+	private void writeGoAway(int errorCode) throws IOException {
+		byte[] b = new byte[8];
+		putInt(b, 0, lastStreamId);
+		putInt(b, 4, errorCode);
+		writeFrame(GOAWAY, 0, 0, b, 0, 8);
+	}
+
+	/* Writes a whole frame, header and payload with a single gathering write. */
+	private void writeFrame(int type, int flags, int streamId, byte[] b, int off, int len) throws IOException {
+		byte[] header = new byte[FRAME_HEADER_LENGTH];
+		header[0] = (byte) (len >>> 16);
+		header[1] = (byte) (len >>> 8);
+		header[2] = (byte) len;
+		header[3] = (byte) type;
+		header[4] = (byte) flags;
+		putInt(header, 5, streamId);
+		writeLock.lock();
+		try {
+			out.write(new java.nio.ByteBuffer[] {java.nio.ByteBuffer.wrap(header), java.nio.ByteBuffer.wrap(b, off, len)});
+			out.flush();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	private void readFully(byte[] b, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int count = in.read(b, n, len - n);
+			if (count < 0) {
+				throw new EOFException();
+			}
+			n = n + count;
+		}
+	}
+
+	private static int readInt(byte[] b, int i) {
+		return ((b[i] & 0xFF) << 24) | ((b[i + 1] & 0xFF) << 16) | ((b[i + 2] & 0xFF) << 8) | (b[i + 3] & 0xFF);
+	}
+
+	private static void putInt(byte[] b, int i, int value) {
+		b[i] = (byte) (value >>> 24);
+		b[i + 1] = (byte) (value >>> 16);
+		b[i + 2] = (byte) (value >>> 8);
+		b[i + 3] = (byte) value;
+	}
+
+	/* State of a stream, guarded by lock of the connection. */
+	private final class Stream {
+
+		private final int id;
+		private final ArrayDeque<byte[]> received; // received, but not yet read bytes of request body
+		private int receivedOffset; // bytes of the first array, which were read already
+		private long receivedLength;
+		private long expectedLength; // value of "content-length", or -1
+		private boolean endReceived;
+		private int receiveWindow;
+		private int consumed; // bytes read from body, not yet given back to peer with WINDOW_UPDATE
+		private long sendWindow;
+		private boolean reset; // reset by either side
+
+		private Stream(int id, boolean endReceived) {
+			this.id = id;
+			this.received = new ArrayDeque<>();
+			this.receivedOffset = 0;
+			this.receivedLength = 0;
+			this.expectedLength = -1;
+			this.endReceived = endReceived;
+			this.receiveWindow = STREAM_WINDOW;
+			this.consumed = 0;
+			this.sendWindow = 0;
+			this.reset = false;
+		}
+
+		/* Request body, as received in DATA frames of the stream. */
+		private final class RequestBody extends BodyInputStream {
+
+			private RequestBody() {
+				super(null); // bytes are fed by the connection's reader
+			}
+
+			@Override
+			boolean atEnd() {
+				lock.lock();
+				try {
+					return endReceived && received.isEmpty();
+				} finally {
+					lock.unlock();
+				}
+			}
+
+			@Override
+			protected int readBody(byte[] b, int off, int len) throws IOException {
+				int n;
+				int update = 0;
+				lock.lock();
+				try {
+					while (received.isEmpty()) {
+						if (endReceived) {
+							return -1;
+						} else if (reset || closed) {
+							throw new IOException("Stream reset");
+						}
+						changed.awaitUninterruptibly();
+					}
+					byte[] first = received.peek();
+					n = Math.min(len, first.length - receivedOffset);
+					System.arraycopy(first, receivedOffset, b, off, n);
+					receivedOffset = receivedOffset + n;
+					if (receivedOffset == first.length) {
+						received.poll();
+						receivedOffset = 0;
+					}
+					consumed = consumed + n;
+					if (!endReceived && consumed >= STREAM_WINDOW / 2) { // window is given back in large steps
+						update = consumed;
+						receiveWindow = receiveWindow + consumed;
+						consumed = 0;
+					}
+				} finally {
+					lock.unlock();
+				}
+				if (update > 0) {
+					writeWindowUpdate(id, update);
+				}
+				return n;
+			}
+
+		}
+
+	}
+
+	/* Stream of a response body, sent in DATA frames of the largest size, the peer accepts
+	 * by default. */
+	private final class BodyOutputStream extends OutputStream {
+
+		private final Stream stream;
+		private byte[] buffer;
+		private int count;
+
+		private BodyOutputStream(Stream stream) {
+			this.stream = stream;
+			this.buffer = FRAMES.acquire();
+			this.count = 0;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == buffer.length) {
+				flush();
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (count == 0 && len >= buffer.length) { // large writes bypass the buffer
+				writeData(stream, b, off, len, false);
+				return;
+			}
+			while (len > 0) {
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count = count + n;
+				off = off + n;
+				len = len - n;
+				if (count == buffer.length) {
+					flush();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (count > 0) {
+				writeData(stream, buffer, 0, count, false);
+				count = 0;
+			}
+		}
+
+		/* Sends the buffered bytes in the last frame of stream. */
+		private void finish() throws IOException {
+			writeData(stream, buffer, 0, count, true);
+			count = 0;
+		}
+
+		private void release() {
+			if (buffer != null) {
+				FRAMES.release(buffer);
+				buffer = null;
+			}
+		}
+
+	}
+
+}
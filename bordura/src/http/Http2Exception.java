@@ -0,0 +1,40 @@
+package http;
+
+import java.io.IOException;
+
+/* Error of an HTTP/2 connection (stream id 0) or of a single stream, with the error code
+ * (RFC 7540 7.), which is sent to the peer in GOAWAY or RST_STREAM frame. */
+class Http2Exception extends IOException {
+
+	private static final long serialVersionUID = 4172937262364113095L;
+
+	static final int NO_ERROR = 0x0;
+	static final int PROTOCOL_ERROR = 0x1;
+	static final int INTERNAL_ERROR = 0x2;
+	static final int FLOW_CONTROL_ERROR = 0x3;
+	static final int STREAM_CLOSED = 0x5;
+	static final int FRAME_SIZE_ERROR = 0x6;
+	static final int REFUSED_STREAM = 0x7;
+	static final int CANCEL = 0x8;
+	static final int COMPRESSION_ERROR = 0x9;
+	static final int ENHANCE_YOUR_CALM = 0xb;
+
+	private final int errorCode;
+	private final int streamId;
+
+	Http2Exception(int errorCode, int streamId, String msg) {
+		super(msg);
+		this.errorCode = errorCode;
+		this.streamId = streamId;
+	}
+
+	int errorCode() {
+		return errorCode;
+	}
+
+	/* Returns id of the failed stream, or 0, if the whole connection failed. */
+	int streamId() {
+		return streamId;
+	}
+
+}
@@ -22,5 +22,12 @@ public class HttpException extends Exception {
 	public int returnStatusCode() {
 		return status;
 	}
+	
+	/* Returns the HttpException, which caused e, or null. Streams of request bodies throw
+	 * IOException, caused by HttpException, when they reject a body only while it is read,
+	 * e.g. a chunked body beyond the maximum length with 413. */
+	static HttpException causeOf(Throwable e) {
+		return (e.getCause() instanceof HttpException cause) ? cause : null;
+	}
 
 }
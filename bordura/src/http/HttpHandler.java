@@ -0,0 +1,14 @@
+package http;
+
+import java.io.IOException;
+
+/* Application logic of a server. Receives a fully read request head and returns
+ * the response to be written back to the peer. If HttpException is thrown, a response
+ * with its status code and without body is written instead.
+ * Handlers may be invoked concurrently from several threads and may block. */
+@FunctionalInterface
+public interface HttpHandler {
+
+	HttpResponse handle(HttpRequest request) throws IOException, HttpException;
+
+}
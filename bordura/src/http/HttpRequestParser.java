@@ -0,0 +1,282 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import java.util.Arrays;
+
+/* Incremental parser of request heads. Bytes are pushed into the parser with feed(), in
+ * fragments of any size, as they arrive from the connection. Complete lines are parsed directly
+ * from the fed buffer; only a line, which is split between fragments, is collected in an internal
+ * array until its end arrives. Once the empty line, ending the head, is consumed, the request is
+ * returned and the parser is ready for the next one. */
+public class HttpRequestParser {
+
+	static final int TARGET_LIMIT = 8192; // max. length of request target, in bytes
+	static final int HEADER_FIELD_LIMIT = 8192; // max. length of a single header field line, in bytes
+	static final int HEADERS_LIMIT = 196608; // 24 * 8 kB, max. total size of header fields
+	static final int REQUEST_LINE_LIMIT = 8 + TARGET_LIMIT + 1 + 10; // method SP target SP version CRLF
+
+	private static final byte[][] METHOD_NAMES = new byte[HttpRequest.Method.values().length][];
+	static {
+		for (HttpRequest.Method method : HttpRequest.Method.values()) {
+			METHOD_NAMES[method.ordinal()] = method.name().getBytes(US_ASCII);
+		}
+	}
+
+	private static final boolean[] TARGET_CHARS = new boolean[128]; // valid characters in origin-form target
+	static {
+		for (int c = 0x61; c <= 0x7A; c++) TARGET_CHARS[c] = true; // lower-case letter
+		for (int c = 0x40; c <= 0x5A; c++) TARGET_CHARS[c] = true; // '@' or upper-case letter
+		for (int c = 0x26; c <= 0x3B; c++) TARGET_CHARS[c] = true; // '&', '\'', '(', ')', '*', '+', ',', '-', '.', digit, ':' or ';'
+		for (int c : new int[] {0x2F, 0x5F, 0x3F, 0x3D, 0x21, 0x7E, 0x24}) TARGET_CHARS[c] = true; // '/', '_', '?', '=', '!', '~', '$'
+	}
+
+	private static enum State {REQUEST_LINE, HEADER_FIELDS}
+
+	private State state;
+	private byte[] partial; // beginning of a line, split between fragments; allocated when needed
+	private int partialLength; // number of valid bytes in partial
+	private HttpRequest.Method method;
+	private RequestTarget target;
+	private HttpVersion version;
+	private final HeaderFields.Collector headers;
+	private int totalHeaderSize;
+
+	public HttpRequestParser() {
+		this.partial = null;
+		this.headers = new HeaderFields.Collector();
+		reset();
+	}
+
+	/* Discards any progress on the current request. */
+	public void reset() {
+		state = State.REQUEST_LINE;
+		partialLength = 0;
+		method = null;
+		target = null;
+		version = null;
+		headers.reset();
+		totalHeaderSize = 0;
+	}
+
+	/* Returns true, if some bytes of the current request have been consumed already. */
+	public boolean started() {
+		return state != State.REQUEST_LINE || partialLength > 0;
+	}
+
+	/* Consumes bytes from data, until the end of request head at most. Returns the request,
+	 * once its head is complete, or null, if all bytes were consumed and more are needed.
+	 * Bytes after the end of head are left in data. After an HttpException, the parser
+	 * must be reset before it is used again. */
+	public HttpRequest feed(java.nio.ByteBuffer data) throws HttpException {
+		while (data.hasRemaining()) {
+			final int from = data.position();
+			final int lf = indexOfLF(data);
+			final int limit = (state == State.REQUEST_LINE) ? REQUEST_LINE_LIMIT : HEADER_FIELD_LIMIT;
+			final int lineLength = partialLength + (lf >= 0 ? lf + 1 : data.limit()) - from;
+			if (lineLength > limit) {
+				throw new HttpException(state == State.REQUEST_LINE ? 414 : 431);
+			}
+			if (lf < 0) { // line continues in the next fragment
+				appendToPartial(data, data.limit());
+				return null;
+			}
+			HttpRequest request;
+			if (partialLength == 0 && data.hasArray()) { // fast path, whole line is in data
+				data.position(lf + 1);
+				request = parseLine(data.array(), data.arrayOffset() + from, data.arrayOffset() + lf);
+			} else {
+				appendToPartial(data, lf + 1);
+				request = parseLine(partial, 0, partialLength - 1);
+			}
+			partialLength = 0;
+			if (request != null) {
+				return request;
+			}
+		}
+		return null;
+	}
+
+	private static int indexOfLF(java.nio.ByteBuffer data) {
+		if (data.hasArray()) {
+			final byte[] b = data.array();
+			final int offset = data.arrayOffset();
+			for (int i = offset + data.position(), end = offset + data.limit(); i < end; i++) {
+				if (b[i] == AsciiChars.LF) {
+					return i - offset;
+				}
+			}
+		} else {
+			for (int i = data.position(), end = data.limit(); i < end; i++) {
+				if (data.get(i) == AsciiChars.LF) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/* Moves bytes of data from its position to end into partial. */
+	private void appendToPartial(java.nio.ByteBuffer data, int end) {
+		final int length = end - data.position();
+		if (partial == null || partial.length < partialLength + length) {
+			int capacity = Math.max(partialLength + length, partial == null ? 256 : partial.length * 2);
+			partial = Arrays.copyOf(partial == null ? new byte[0] : partial, Math.min(capacity, REQUEST_LINE_LIMIT));
+		}
+		data.get(partial, partialLength, length);
+		partialLength = partialLength + length;
+	}
+
+	/* Parses a single line, from index from to index of its LF. Returns the request, if the line
+	 * was the empty line, ending the head, or null otherwise. */
+	private HttpRequest parseLine(byte[] b, int from, int lf) throws HttpException {
+		if (lf == from || b[lf - 1] != AsciiChars.CR) { // line must end with CRLF
+			throw new HttpException(400);
+		}
+		final int end = lf - 1; // index of CR
+		if (state == State.REQUEST_LINE) {
+			// Request line: method SP request-target SP HTTP-version CRLF
+			int sp1 = indexOf(b, from, end, (byte) AsciiChars.SP);
+			if (sp1 < 0) {
+				throw new HttpException(400);
+			}
+			int sp2 = indexOf(b, sp1 + 1, end, (byte) AsciiChars.SP);
+			if (sp2 < 0) {
+				throw new HttpException(400);
+			}
+			method = parseMethod(b, from, sp1);
+			target = parseTarget(b, sp1 + 1, sp2);
+			version = parseVersion(b, sp2 + 1, end);
+			state = State.HEADER_FIELDS;
+			return null;
+		} else if (end > from) { // header field
+			int colon = indexOfHeaderNameEnd(b, from, end);
+			int valueFrom = colon + 1;
+			int valueTo = end;
+			while (valueFrom < valueTo && (b[valueFrom] == AsciiChars.SP || b[valueFrom] == AsciiChars.HTAB)) {
+				valueFrom++; // skip leading whitespaces
+			}
+			while (valueTo > valueFrom && (b[valueTo - 1] == AsciiChars.SP || b[valueTo - 1] == AsciiChars.HTAB)) {
+				valueTo--; // skip trailing whitespaces
+			}
+			validateHeaderValue(b, valueFrom, valueTo);
+			totalHeaderSize = totalHeaderSize + (colon - from) + (valueTo - valueFrom);
+			if (totalHeaderSize > HEADERS_LIMIT) { // more than 24 full-sized header fields
+				throw new HttpException(431);
+			}
+			headers.add(b, from, colon, valueFrom, valueTo); // name and value are decoded only when needed
+			return null;
+		} else { // empty line, end of head
+			HttpRequest request = new HttpRequest(method, target, version, headers.build(), null);
+			reset();
+			return request;
+		}
+	}
+
+	private static int indexOf(byte[] b, int from, int to, byte value) {
+		for (int i = from; i < to; i++) {
+			if (b[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	static HttpRequest.Method parseMethod(byte[] b, int from, int to) throws HttpException {
+		final int length = to - from;
+		for (HttpRequest.Method method : HttpRequest.Method.values()) {
+			byte[] name = METHOD_NAMES[method.ordinal()];
+			if (name.length == length && Arrays.equals(b, from, to, name, 0, length)) {
+				return method;
+			}
+		}
+		throw new HttpException(400);
+	}
+
+	/* Validates the target and finds the offsets of its path segments and query on the way. */
+	static RequestTarget parseTarget(byte[] b, int from, int to) throws HttpException {
+		if (to - from > TARGET_LIMIT) {
+			throw new HttpException(414); // URI too long
+		}
+		if (from == to || b[from] != 0x2F) { // first character should always be '/', 0x2F
+			throw new HttpException(400);
+		}
+		int[] slashes = new int[8]; // relative to from
+		int segments = 1;
+		int pathEnd = to - from;
+		for (int i = from + 1; i < to; i++) {
+			int c = b[i];
+			if (c == 0x25) { // '%', percent-escaped character; "%" HEXDIG HEXDIG
+				if (i + 2 >= to || !AsciiChars.isHexDigit(b[i + 1]) || !AsciiChars.isHexDigit(b[i + 2])) {
+					throw new HttpException(400);
+				}
+				i = i + 2;
+			} else if (c < 0 || !TARGET_CHARS[c]) { // c is not valid in origin-form (RFC 7230 5.3.1.)
+				throw new HttpException(400);
+			} else if (pathEnd == to - from) { // still in path
+				if (c == 0x2F) { // '/' starts a segment
+					if (segments == slashes.length) {
+						slashes = Arrays.copyOf(slashes, segments * 2);
+					}
+					slashes[segments++] = i - from;
+				} else if (c == 0x3F) { // '?' starts the query
+					pathEnd = i - from;
+				}
+			}
+		}
+		return new RequestTarget(new String(b, from, to - from, US_ASCII), slashes, segments, pathEnd);
+	}
+
+	/* Parses "HTTP/" DIGIT [ "." DIGIT ] */
+	static HttpVersion parseVersion(byte[] b, int from, int to) throws HttpException {
+		final int length = to - from;
+		if ((length != 6 && length != 8) || b[from] != 0x48 || b[from + 1] != 0x54
+			|| b[from + 2] != 0x54 || b[from + 3] != 0x50 || b[from + 4] != 0x2F) { // if not "HTTP/"
+			throw new HttpException(400);
+		}
+		int majorVersion = b[from + 5] - 0x30;
+		int minorVersion = 0;
+		if (majorVersion < 0 || majorVersion > 9) { // not a digit
+			throw new HttpException(400);
+		}
+		if (length == 8) {
+			minorVersion = b[from + 7] - 0x30;
+			if (b[from + 6] != 0x2E || minorVersion < 0 || minorVersion > 9) { // not '.' DIGIT
+				throw new HttpException(400);
+			}
+		}
+		try {
+			return HttpVersion.get(majorVersion, minorVersion);
+		} catch (IllegalArgumentException e) {
+			throw new HttpException(400, e.getMessage());
+		}
+	}
+
+	/* Validates characters of header field name, starting at from. Returns index of the colon,
+	 * which ends the name. */
+	static int indexOfHeaderNameEnd(byte[] b, int from, int to) throws HttpException {
+		for (int i = from; i < to; i++) {
+			int c = b[i];
+			if (c == AsciiChars.COL) {
+				if (i == from) {
+					throw new HttpException(400); // empty name
+				}
+				return i;
+			} else if (!AsciiChars.isTchar(c)) {
+				throw new HttpException(400);
+			}
+		}
+		throw new HttpException(400); // no colon
+	}
+
+	/* Validates header field value between from and to, without leading and trailing whitespace. */
+	static void validateHeaderValue(byte[] b, int from, int to) throws HttpException {
+		for (int i = from; i < to; i++) {
+			int c = b[i];
+			if ((c < 0x20 || c > 0x7E) && c != AsciiChars.HTAB) {
+				// c is not VCHAR (visible, printing character) nor SP (0x20) nor HTAB (0x09)
+				throw new HttpException(400);
+			}
+		}
+	}
+
+}
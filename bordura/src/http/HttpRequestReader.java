@@ -0,0 +1,195 @@
+package http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.util.Arrays;
+
+/* Reads consecutive requests from an input stream of a single connection. Bytes are read
+ * in large blocks into a reusable buffer and fed to an HttpRequestParser. Bytes, read beyond
+ * the end of request head, are kept in the buffer for the body and for the next read(). */
+public class HttpRequestReader {
+
+	private final InputStream in;
+	private final InetAddress peer; // remote address, recorded in RequestHeadEvent; null, if not known
+	private final HttpRequestParser parser;
+	private final java.nio.ByteBuffer buffer; // bytes between position and limit are read, but not yet consumed
+	private final Source source;
+	private BodyInputStream previousBody; // body of the previously read request, if it had one
+	private long parseNanos; // time of parsing the head of the last request
+	private long headSize; // bytes of the head of the last request
+	private boolean released;
+
+	public HttpRequestReader(InputStream in) {
+		this(in, null);
+	}
+
+	HttpRequestReader(InputStream in, InetAddress peer) {
+		this.in = in;
+		this.peer = peer;
+		this.parser = new HttpRequestParser();
+		this.buffer = java.nio.ByteBuffer.wrap(BufferPool.BLOCKS.acquire());
+		this.buffer.flip(); // empty, in read mode
+		this.source = new Source();
+		this.previousBody = null;
+		this.parseNanos = 0;
+		this.headSize = 0;
+		this.released = false;
+	}
+
+	/* Returns the buffer to the pool. Neither the reader nor bodies of its requests may be
+	 * used afterwards. */
+	void release() {
+		if (!released) {
+			released = true;
+			BufferPool.BLOCKS.release(buffer.array());
+		}
+	}
+
+	/* Reads the next request head; its body, if any, is read from the same stream. Any unread
+	 * bytes of the previous body are skipped first. Throws EOFException, if the stream ends
+	 * before the first byte of a request. */
+	public HttpRequest read() throws IOException, HttpException {
+		if (previousBody != null) {
+			previousBody.drain(Long.MAX_VALUE);
+			previousBody = null;
+		}
+		parseNanos = 0;
+		headSize = 0;
+		RequestHeadEvent event = new RequestHeadEvent();
+		event.begin();
+		try {
+			HttpRequest request = feed();
+			while (request == null) { // all buffered bytes were consumed
+				if (!fill()) {
+					if (parser.started()) {
+						throw new HttpException(400); // stream ended in the middle of request head
+					}
+					throw new EOFException();
+				}
+				if (!parser.started()) { // first bytes of head, after waiting for them
+					event.begin();
+				}
+				request = feed();
+			}
+			request = request.withBodyFrom(source);
+			previousBody = request.bodyStream();
+			event.complete(request, 0, headSize, peer);
+			return request;
+		} catch (HttpException e) {
+			parser.reset();
+			event.complete(null, e.returnStatusCode(), headSize, peer);
+			throw e;
+		}
+	}
+
+	private HttpRequest feed() throws HttpException {
+		long start = System.nanoTime();
+		int position = buffer.position();
+		try {
+			return parser.feed(buffer);
+		} finally {
+			parseNanos += System.nanoTime() - start;
+			headSize += buffer.position() - position;
+		}
+	}
+
+	/* Returns time of parsing the head of the last request, without waiting for its bytes. */
+	long parseNanos() {
+		return parseNanos;
+	}
+
+	/* Returns true, if bytes beyond the last request are buffered already, e.g. those of a
+	 * pipelined request. */
+	boolean hasBuffered() {
+		return buffer.hasRemaining();
+	}
+
+	/* Consumes preface, if the stream starts with it, as a connection of HTTP/2 with prior
+	 * knowledge does. Bytes are read only as long as they match the preface; otherwise, they
+	 * are left in the buffer for read(). */
+	boolean readPreface(byte[] preface) throws IOException {
+		while (true) {
+			int n = Math.min(buffer.remaining(), preface.length);
+			if (!Arrays.equals(buffer.array(), buffer.position(), buffer.position() + n, preface, 0, n)) {
+				return false;
+			}
+			if (n == preface.length) {
+				buffer.position(buffer.position() + n);
+				return true;
+			}
+			if (!fillMore()) {
+				return false;
+			}
+		}
+	}
+
+	/* Returns the stream of bytes after the last request head, the buffered ones first, for a
+	 * protocol, which takes over the connection. */
+	InputStream remainder() {
+		return source;
+	}
+
+	/* Reads next block of bytes into empty buffer. Returns false at the end of stream. */
+	private boolean fill() throws IOException {
+		int n = in.read(buffer.array(), 0, buffer.capacity());
+		while (n == 0) {
+			n = in.read(buffer.array(), 0, buffer.capacity());
+		}
+		if (n < 0) {
+			return false;
+		}
+		buffer.position(0).limit(n);
+		return true;
+	}
+
+	/* Reads more bytes after the buffered ones, which are moved to the beginning of buffer.
+	 * Returns false at the end of stream. */
+	private boolean fillMore() throws IOException {
+		int buffered = buffer.remaining();
+		buffer.compact();
+		int n = in.read(buffer.array(), buffered, buffer.capacity() - buffered);
+		while (n == 0) {
+			n = in.read(buffer.array(), buffered, buffer.capacity() - buffered);
+		}
+		buffer.position(0).limit(buffered + Math.max(n, 0));
+		return n > 0;
+	}
+
+	/* Stream of bytes following the request head; the buffered ones first. */
+	private final class Source extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			if (!buffer.hasRemaining() && !fill()) {
+				return -1;
+			}
+			return buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				if (len >= buffer.capacity()) { // large reads bypass the buffer
+					return in.read(b, off, len);
+				} else if (!fill()) {
+					return -1;
+				}
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return buffer.remaining() + in.available();
+		}
+
+	}
+
+}
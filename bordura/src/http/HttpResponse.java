@@ -1,20 +1,27 @@
 package http;
 
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Supplier;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
 public class HttpResponse {
 		
@@ -54,6 +61,7 @@ public class HttpResponse {
 		Map.entry(416, "Range Not Satisfiable"),
 		Map.entry(417, "Expectation Failed"),
 		Map.entry(426, "Upgrade Required"),
+		Map.entry(429, "Too Many Requests"),
 		Map.entry(500, "Internal Server Error"),
 		Map.entry(501, "Not Implemented"),
 		Map.entry(502, "Bad Gateway"),
@@ -67,39 +75,61 @@ public class HttpResponse {
 	private final List<Map.Entry<String, String>> headers;
 	private final BodyPublisher bodyPublisher;
 	private final TransferEncoding transferEncoding;
+	private final int compressionLevel;
 	
 	private HttpResponse(HttpVersion version, int status, List<Map.Entry<String, String>> headers,
-						 BodyPublisher bodyPublisher, TransferEncoding transferEncoding) {
+						 BodyPublisher bodyPublisher, TransferEncoding transferEncoding, int compressionLevel) {
 		this.version = version;
 		this.status = status;
 		this.headers = List.copyOf(headers); // create unmodifiable list
 		this.bodyPublisher = bodyPublisher;
 		this.transferEncoding = transferEncoding;
+		this.compressionLevel = compressionLevel;
 	}
 	
 	public void writeTo(OutputStream out) throws IOException {
-		// write status line
-		out.write(version.charBytes());
-		out.write((byte) AsciiChars.SP);
-		out.write(Integer.toString(status).getBytes(US_ASCII));
-		out.write((byte) AsciiChars.SP);
-		out.write(statusCodes.get(status).getBytes(US_ASCII));
-		out.write((byte) AsciiChars.CR);
-		out.write((byte) AsciiChars.LF);
-		// write headers
-		var iter = headers.listIterator();
-		while (iter.hasNext()) {
-			var header = iter.next();
-			out.write(header.getKey().getBytes(US_ASCII));
-			out.write(AsciiChars.COL);
-			out.write(AsciiChars.SP);
-			out.write(header.getValue().getBytes(US_ASCII));
-			out.write((byte) AsciiChars.CR);
-			out.write((byte) AsciiChars.LF);
-		}
-		// write empty line
-		out.write((byte) AsciiChars.CR);
-		out.write((byte) AsciiChars.LF);
+		writeTo(out, null);
+	}
+	
+	/* Writes response to peer (null, if not known), recorded as a ResponseEvent. */
+	void writeTo(OutputStream out, InetAddress peer) throws IOException {
+		ResponseEvent event = new ResponseEvent();
+		event.begin();
+		try {
+			write(out);
+		} finally {
+			event.complete(this, peer);
+		}
+	}
+	
+	private void write(OutputStream out) throws IOException {
+		boolean gathered = false; // if true, body was sent with head
+		ByteBuffer head = encodeHead();
+		try {
+			if (out instanceof ChannelSink sink && (transferEncoding == TransferEncoding.NONE
+				|| transferEncoding == TransferEncoding.NONE_AND_CLOSE)) {
+				// head and a body in memory are sent together, in a single gathering write
+				if (bodyPublisher instanceof BodyPublisherOfByteArray body) {
+					sink.write(new ByteBuffer[] {head, ByteBuffer.wrap(body.b(), body.offset(), body.length())});
+					out.flush();
+					gathered = true;
+				} else if (bodyPublisher instanceof NoBody) {
+					sink.write(new ByteBuffer[] {head});
+					gathered = true;
+				}
+			}
+			if (!gathered) {
+				out.write(head.array(), 0, head.limit());
+			}
+		} finally {
+			BufferPool.BLOCKS.release(head.array()); // head is not retained by out; larger arrays are ignored
+		}
+		if (gathered) {
+			if (transferEncoding == TransferEncoding.NONE_AND_CLOSE) {
+				out.close();
+			}
+			return;
+		}
 		// write body, if necessary
 		if (bodyPublisher instanceof NoBody) {
 			if (transferEncoding == TransferEncoding.NONE_AND_CLOSE) {
@@ -120,24 +150,122 @@ public class HttpResponse {
 				bodyPublisher.writeChunkedTo(out);
 				break;
 			case GZIP_AND_CHUNKED:
-				bodyPublisher.writeGzippedTo(new ChunkedOutputStream(out, 1024));
+				bodyPublisher.writeGzippedTo(new ChunkedOutputStream(out), compressionLevel);
 				break;
 			case GZIP_AND_CLOSE:
-				bodyPublisher.writeGzippedTo(out); // will also close out
+				bodyPublisher.writeGzippedTo(out, compressionLevel); // will also close out
 				break;
 			}
 		}
 	}
 	
+	/* Encodes status line, header fields and the empty line into a block of BufferPool.BLOCKS,
+	 * or into an array of their own, if they do not fit into one. The caller returns the array
+	 * to the pool, once the head is written. */
+	private ByteBuffer encodeHead() {
+		byte[] statusLine = STATUS_LINES[version.ordinal()][status];
+		int length = statusLine.length + 2;
+		for (var header : headers) {
+			length = length + header.getKey().length() + header.getValue().length() + 4;
+		}
+		byte[] b = (length <= BufferPool.BLOCKS.bufferSize()) ? BufferPool.BLOCKS.acquire() : new byte[length];
+		System.arraycopy(statusLine, 0, b, 0, statusLine.length);
+		int i = statusLine.length;
+		for (var header : headers) {
+			i = putAscii(header.getKey(), b, i);
+			b[i++] = AsciiChars.COL;
+			b[i++] = AsciiChars.SP;
+			i = putAscii(header.getValue(), b, i);
+			b[i++] = AsciiChars.CR;
+			b[i++] = AsciiChars.LF;
+		}
+		b[i++] = AsciiChars.CR;
+		b[i++] = AsciiChars.LF;
+		return ByteBuffer.wrap(b, 0, i);
+	}
+	
+	/* Header fields contain only ASCII characters, as validated by the builder. */
+	private static int putAscii(String s, byte[] b, int i) {
+		for (int j = 0, length = s.length(); j < length; j++) {
+			b[i++] = (byte) s.charAt(j);
+		}
+		return i;
+	}
+	
+	/* Status line, e.g. "HTTP/1.1 200 OK" CRLF, for each version and status code. */
+	private static final byte[][][] STATUS_LINES = new byte[HttpVersion.values().length][506][];
+	static {
+		for (HttpVersion version : HttpVersion.values()) {
+			for (var status : statusCodes.entrySet()) {
+				STATUS_LINES[version.ordinal()][status.getKey()] = (version + " " + status.getKey() + " "
+					+ status.getValue() + "\r\n").getBytes(US_ASCII);
+			}
+		}
+	}
+	
 	/*
 		Optional (if needed): Create method to convert the
 		list of header fields into an unmodifiable map.
 	*/
 	
-	public Builder newBuilder() {
+	public static Builder newBuilder() {
 		return new Builder();
 	}
 	
+	/* Returns true, if the connection is closed after this response is written. */
+	boolean closesConnection() {
+		return transferEncoding == TransferEncoding.NONE_AND_CLOSE
+			|| transferEncoding == TransferEncoding.GZIP_AND_CLOSE;
+	}
+	
+	int status() {
+		return status;
+	}
+	
+	List<Map.Entry<String, String>> headers() {
+		return headers;
+	}
+	
+	boolean hasBody() {
+		return !(bodyPublisher instanceof NoBody);
+	}
+	
+	/* Returns length of body before transfer coding, or -1, if it is not known in advance. */
+	long contentLength() {
+		try {
+			return hasBody() ? Math.max(-1, bodyPublisher.contentLength()) : 0;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+	
+	/* Returns this response, as an answer to a HEAD request: with the same head, including
+	 * "Content-Length" or "Transfer-Encoding", but without body (RFC 9110 9.3.2.). */
+	HttpResponse headOnly() {
+		return hasBody() ? new HttpResponse(version, status, headers, NO_BODY, transferEncoding, compressionLevel) : this;
+	}
+	
+	/* Writes the body alone, without any transfer coding, as HTTP/2 frames it by itself. */
+	void writeBodyTo(OutputStream out) throws IOException {
+		bodyPublisher.writeTo(out);
+	}
+	
+	/* Creates a response with the given status and an empty body, as used by the servers
+	 * for requests that could not be read or handled. The body is sent with "Content-Length: 0",
+	 * so that the client does not wait for the end of connection; only statuses, which have no
+	 * body by definition (1xx, 204 and 304), are sent without it. */
+	static HttpResponse ofStatus(int status, boolean closeConnection) {
+		try {
+			Builder builder = newBuilder().status(status).closeConnectionAtEnd(closeConnection);
+			if (status >= 200 && status != 204 && status != 304) {
+				builder.body(BodyPublisher.ofString(""));
+			}
+			return builder.build();
+		} catch (IOException e) { // cannot happen, there is no file to be read
+			throw new IllegalStateException(e);
+		}
+	}
+	
 	public static class Builder {
 		
 		private HttpVersion version;
@@ -145,7 +273,10 @@ public class HttpResponse {
 		private List<Map.Entry<String, String>> headers;
 		private BodyPublisher bodyPub;
 		private boolean gzipTransferEncoding;
+		private int compressionLevel;
 		private boolean closeConnection;
+		private HttpRequest rangeRequest;
+		private HttpRequest conditionalRequest;
 		
 		private Builder() {
 			this.version = HttpVersion.HTTP_1_1;
@@ -153,7 +284,10 @@ public class HttpResponse {
 			this.headers = new LinkedList<Map.Entry<String, String>>();
 			this.bodyPub = BodyPublisher.noBody();
 			this.gzipTransferEncoding = false;
+			this.compressionLevel = Deflater.DEFAULT_COMPRESSION;
 			this.closeConnection = false;
+			this.rangeRequest = null;
+			this.conditionalRequest = null;
 		}
 		
 		public Builder version(HttpVersion version) {
@@ -207,12 +341,60 @@ public class HttpResponse {
 			return this;
 		}
 		
+		/* Compression level of gzip transfer coding, from 1 (fastest) to 9 (best), or
+		 * Deflater.DEFAULT_COMPRESSION. */
+		public Builder compressionLevel(int level) {
+			if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+				throw new IllegalArgumentException("Invalid compression level: " + Integer.toString(level, 10));
+			}
+			compressionLevel = level;
+			return this;
+		}
+		
 		public Builder closeConnectionAtEnd(boolean close) {
 			closeConnection = close;
 			return this;
 		}
 		
+		/* Serves only the byte ranges of a file body, which are asked for by the "Range" header
+		 * field of request (RFC 7233), with status 206, or 416, if none can be satisfied.
+		 * "If-Range" is compared with "ETag" or "Last-Modified" header field of this response. */
+		public Builder ranges(HttpRequest request) {
+			this.rangeRequest = request;
+			return this;
+		}
+		
+		/* Adds strong "ETag" header field, derived from hash of the representation, e.g. of a
+		 * post or a content file. */
+		public Builder entityTag(byte[] hash) {
+			return addHeader("ETag", Headers.entityTag(hash));
+		}
+		
+		public Builder lastModified(Instant instant) {
+			return addHeader("Last-Modified", Headers.formatHttpDate(instant));
+		}
+		
+		/* Evaluates the conditional header fields of request (RFC 7232 6.) against "ETag" and
+		 * "Last-Modified" header fields of this response. If the representation has not been
+		 * modified, the response is 304 without body, or, if a precondition of a state-changing
+		 * request fails, 412 with an empty one. That is decided at build() time, before the body is
+		 * read, so a file or a supplied stream is never opened for them. */
+		public Builder conditional(HttpRequest request) {
+			this.conditionalRequest = request;
+			return this;
+		}
+		
 		public HttpResponse build() throws IOException { // throws if file size cannot be read
+			if (conditionalRequest != null && status == 200) {
+				applyPreconditions();
+			}
+			if (rangeRequest != null && bodyPub instanceof BodyPublisherOfGzipVariant variant
+				&& variant.identity() instanceof BodyPublisherOfFile) {
+				bodyPub = variant.identity(); // a range is sent as it is, not from the variant of whole file
+			}
+			if (rangeRequest != null && bodyPub instanceof BodyPublisherOfFile file) {
+				applyRanges(file.path());
+			}
 			// Add appropriate "Content-Length" and "Transfer-Encoding" headers, if body is present
 			TransferEncoding transferEncoding;
 			if (bodyPub instanceof NoBody infBody) {
@@ -225,7 +407,7 @@ public class HttpResponse {
 					transferEncoding = TransferEncoding.NONE;
 				}
 			} else {
-				if (gzipTransferEncoding) {
+				if (gzipTransferEncoding && !isCompressed()) {
 					if (closeConnection) {
 						headers.add(Map.entry("Transfer-Encoding", "gzip"));
 						transferEncoding = TransferEncoding.GZIP_AND_CLOSE;
@@ -253,7 +435,157 @@ public class HttpResponse {
 				}
 			}
 			// construct response
-			return new HttpResponse(version, status, headers, bodyPub, transferEncoding);
+			return new HttpResponse(version, status, headers, bodyPub, transferEncoding, compressionLevel);
+		}
+		
+		/* Returns true, if body is compressed already, by its media type or content coding, so that
+		 * gzip transfer coding would only waste CPU time. */
+		private boolean isCompressed() {
+			for (var header : headers) {
+				if (header.getKey().equalsIgnoreCase("Content-Encoding")) {
+					return !header.getValue().equalsIgnoreCase("identity");
+				} else if (header.getKey().equalsIgnoreCase("Content-Type")) {
+					String type = header.getValue();
+					int semicolon = type.indexOf(';');
+					if (semicolon >= 0) {
+						type = type.substring(0, semicolon);
+					}
+					if (COMPRESSED_TYPES.contains(type.strip().toLowerCase())) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+		
+		private static final Set<String> COMPRESSED_TYPES = Set.of(
+			"image/jpeg", "image/png", "image/gif", "image/webp", "image/avif",
+			"video/mp4", "video/webm", "video/mpeg", "audio/mpeg", "audio/mp3", "audio/mp4", "audio/ogg",
+			"audio/aac", "application/zip", "application/gzip", "application/x-gzip", "application/zstd",
+			"application/x-7z-compressed", "application/x-rar-compressed", "font/woff", "font/woff2"
+		);
+		
+		private void applyRanges(Path path) throws IOException {
+			headers.add(Map.entry("Accept-Ranges", "bytes"));
+			List<String> range = rangeRequest.headers().get("range");
+			if (status != 200 || rangeRequest.method() != HttpRequest.Method.GET || range == null
+				|| range.size() != 1 || !ifRangeHolds()) {
+				return;
+			}
+			long size = Files.size(path);
+			List<long[]> ranges = Headers.readByteRanges(range.get(0), size);
+			if (ranges == null) { // invalid "Range" header field is ignored
+				return;
+			}
+			if (ranges.isEmpty()) {
+				status = 416;
+				headers.add(Map.entry("Content-Range", "bytes */" + size));
+				bodyPub = BodyPublisher.ofString(""); // "Content-Length: 0" ends it on a keep-alive connection
+				gzipTransferEncoding = false;
+			} else if (ranges.size() == 1) {
+				long[] r = ranges.get(0);
+				status = 206;
+				headers.add(Map.entry("Content-Range", contentRange(r, size)));
+				bodyPub = new BodyPublisherOfFileRegion(path, r[0], r[1] - r[0] + 1);
+			} else {
+				// multipart/byteranges (RFC 7233 Appendix A.), each part with its own header fields
+				String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+				String contentType = null;
+				var iter = headers.iterator();
+				while (iter.hasNext()) {
+					var header = iter.next();
+					if (header.getKey().equalsIgnoreCase("Content-Type")) {
+						contentType = header.getValue();
+						iter.remove();
+					}
+				}
+				byte[][] partHeads = new byte[ranges.size()][];
+				for (int i = 0; i < partHeads.length; i++) {
+					partHeads[i] = ("\r\n--" + boundary + "\r\n"
+						+ (contentType == null ? "" : "Content-Type: " + contentType + "\r\n")
+						+ "Content-Range: " + contentRange(ranges.get(i), size) + "\r\n\r\n").getBytes(US_ASCII);
+				}
+				status = 206;
+				headers.add(Map.entry("Content-Type", "multipart/byteranges; boundary=" + boundary));
+				bodyPub = new BodyPublisherOfFileRanges(path, List.copyOf(ranges), partHeads,
+					("\r\n--" + boundary + "--\r\n").getBytes(US_ASCII));
+			}
+		}
+		
+		private void applyPreconditions() {
+			String entityTag = header("ETag");
+			Instant lastModified = header("Last-Modified") == null ? null : Headers.readHttpDate(header("Last-Modified"));
+			Map<String, List<String>> fields = conditionalRequest.headers();
+			boolean safe = conditionalRequest.method() == HttpRequest.Method.GET
+				|| conditionalRequest.method() == HttpRequest.Method.HEAD;
+			List<String> ifMatch = fields.get("if-match");
+			List<String> ifUnmodifiedSince = fields.get("if-unmodified-since");
+			if (ifMatch != null) {
+				if (!Headers.matchesEntityTag(String.join(",", ifMatch), entityTag, false)) {
+					withoutBody(412);
+					return;
+				}
+			} else if (ifUnmodifiedSince != null && lastModified != null) {
+				Instant since = Headers.readHttpDate(ifUnmodifiedSince.get(0));
+				if (since != null && lastModified.isAfter(since)) {
+					withoutBody(412);
+					return;
+				}
+			}
+			List<String> ifNoneMatch = fields.get("if-none-match");
+			List<String> ifModifiedSince = fields.get("if-modified-since");
+			if (ifNoneMatch != null) {
+				if (Headers.matchesEntityTag(String.join(",", ifNoneMatch), entityTag, true)) {
+					withoutBody(safe ? 304 : 412);
+				}
+			} else if (ifModifiedSince != null && lastModified != null && safe) {
+				Instant since = Headers.readHttpDate(ifModifiedSince.get(0));
+				if (since != null && !lastModified.isAfter(since)) {
+					withoutBody(304);
+				}
+			}
+		}
+		
+		/* Replaces body with none for 304, which has none by definition, or with an empty one for
+		 * 412, whose "Content-Length: 0" ends it on a keep-alive connection. */
+		private void withoutBody(int status) {
+			this.status = status;
+			this.bodyPub = (status == 304) ? BodyPublisher.noBody() : BodyPublisher.ofString("");
+			this.gzipTransferEncoding = false;
+			this.rangeRequest = null;
+		}
+		
+		/* Returns value of the first header field with name, or null. */
+		private String header(String name) {
+			for (var header : headers) {
+				if (header.getKey().equalsIgnoreCase(name)) {
+					return header.getValue();
+				}
+			}
+			return null;
+		}
+		
+		/* Returns true, if request has no "If-Range" header field or if its validator matches
+		 * the current representation, so that the ranges may be served. */
+		private boolean ifRangeHolds() {
+			List<String> ifRange = rangeRequest.headers().get("if-range");
+			if (ifRange == null) {
+				return true;
+			}
+			String validator = ifRange.get(0);
+			boolean entityTag = validator.startsWith("\"") || validator.startsWith("W/");
+			for (var header : headers) {
+				if (entityTag && header.getKey().equalsIgnoreCase("ETag")) {
+					return !validator.startsWith("W/") && validator.equals(header.getValue()); // strong comparison
+				} else if (!entityTag && header.getKey().equalsIgnoreCase("Last-Modified")) {
+					return validator.equals(header.getValue());
+				}
+			}
+			return false;
+		}
+		
+		private static String contentRange(long[] range, long size) {
+			return "bytes " + range[0] + "-" + range[1] + "/" + size;
 		}
 		
 	}
@@ -269,7 +601,10 @@ public class HttpResponse {
 	public static sealed interface BodyPublisher
 		permits BodyPublisherOfByteArray,
 				BodyPublisherOfFile,
+				BodyPublisherOfFileRegion,
+				BodyPublisherOfFileRanges,
 				BodyPublisherOfInputStream,
+				BodyPublisherOfGzipVariant,
 				NoBody
 	{
 			void writeTo(OutputStream out) throws IOException;
@@ -279,24 +614,42 @@ public class HttpResponse {
 			* output stream.
 			* IOException is thrown if the source is a file and file size cannot be obtained. */
 			
+			/* The pooled buffers and Deflater of transfer codings are released also, if writing
+			 * fails, e.g. because the client has gone away mid-response. */
 			default void writeChunkedTo(OutputStream out) throws IOException {
-				ChunkedOutputStream chunkedOut = new ChunkedOutputStream(out, 1024);
-				writeTo(chunkedOut);
-				chunkedOut.finish(); // writes everything and flushes, but does not close out
+				ChunkedOutputStream chunkedOut = new ChunkedOutputStream(out);
+				try {
+					writeTo(chunkedOut);
+					chunkedOut.finish(); // writes everything and flushes, but does not close out
+				} finally {
+					chunkedOut.abort(); // does nothing after finish()
+				}
 			}
 			
-			default void writeGzippedTo(ChunkedOutputStream chunkedOut) throws IOException {
-				GZIPOutputStream gzipOut = new GZIPOutputStream(chunkedOut);
-				writeTo(gzipOut);
-				gzipOut.flush();
-				gzipOut.finish();
-				chunkedOut.finish(); // writes last-chunk and flushes, but does not close underlying output stream
+			default void writeGzippedTo(ChunkedOutputStream chunkedOut, int level) throws IOException {
+				try {
+					GzipOutputStream gzipOut = new GzipOutputStream(chunkedOut, level);
+					try {
+						writeTo(gzipOut);
+						gzipOut.flush();
+						gzipOut.finish();
+					} finally {
+						gzipOut.abort();
+					}
+					chunkedOut.finish(); // writes last-chunk and flushes, but does not close underlying output stream
+				} finally {
+					chunkedOut.abort();
+				}
 			}
 			
-			default void writeGzippedTo(OutputStream out) throws IOException {
-				GZIPOutputStream gzipOut = new GZIPOutputStream(out);
-				writeTo(gzipOut);
-				gzipOut.close(); // this will also close the connection
+			default void writeGzippedTo(OutputStream out, int level) throws IOException {
+				GzipOutputStream gzipOut = new GzipOutputStream(out, level);
+				try {
+					writeTo(gzipOut);
+					gzipOut.close(); // this will also close the connection
+				} finally {
+					gzipOut.abort();
+				}
 			}
 			
 			public static BodyPublisher ofByteArray(byte[] b) {
@@ -317,6 +670,17 @@ public class HttpResponse {
 				return new BodyPublisherOfFile(path);
 			}
 			
+			/* Body of length bytes of the file, starting at offset. */
+			public static BodyPublisher ofFile(Path path, long offset, long length) throws FileNotFoundException {
+				if (!Files.isRegularFile(path)) {
+					throw new FileNotFoundException();
+				}
+				if (offset < 0 || length < 0) {
+					throw new IllegalArgumentException();
+				}
+				return new BodyPublisherOfFileRegion(path, offset, length);
+			}
+			
 			public static BodyPublisher ofString(String s) {
 				return BodyPublisher.ofByteArray(s.getBytes(UTF_8));
 			}
@@ -369,8 +733,8 @@ public class HttpResponse {
 	
 	private static record BodyPublisherOfFile(Path path) implements BodyPublisher {
 		public void writeTo(OutputStream out) throws IOException {
-			try (var fileStream = new BufferedInputStream(Files.newInputStream(path))) {
-				fileStream.transferTo(out);
+			try (var file = FileChannel.open(path, StandardOpenOption.READ)) {
+				writeRegion(file, 0, file.size(), out);
 			}
 		}
 		public long contentLength() throws IOException {
@@ -378,6 +742,65 @@ public class HttpResponse {
 		}
 	}
 	
+	private static record BodyPublisherOfFileRegion(Path path, long offset, long length) implements BodyPublisher {
+		public void writeTo(OutputStream out) throws IOException {
+			try (var file = FileChannel.open(path, StandardOpenOption.READ)) {
+				writeRegion(file, offset, length, out);
+			}
+		}
+		public long contentLength() {
+			return length;
+		}
+	}
+	
+	private static record BodyPublisherOfFileRanges(Path path, List<long[]> ranges, byte[][] partHeads, byte[] end)
+		implements BodyPublisher {
+		public void writeTo(OutputStream out) throws IOException {
+			try (var file = FileChannel.open(path, StandardOpenOption.READ)) {
+				for (int i = 0; i < partHeads.length; i++) {
+					long[] range = ranges.get(i);
+					out.write(partHeads[i]);
+					writeRegion(file, range[0], range[1] - range[0] + 1, out);
+				}
+				out.write(end);
+			}
+		}
+		public long contentLength() {
+			long length = end.length;
+			for (int i = 0; i < partHeads.length; i++) {
+				long[] range = ranges.get(i);
+				length = length + partHeads[i].length + range[1] - range[0] + 1;
+			}
+			return length;
+		}
+	}
+	
+	/* Writes count bytes of file from position on. Skipped bytes are never read. If out is a
+	 * connection, which supports it, the region is sent to the socket without copying it through
+	 * the heap; otherwise it is copied with positional reads. */
+	static void writeRegion(FileChannel file, long position, long count, OutputStream out) throws IOException {
+		if (out instanceof ChannelSink sink) {
+			sink.transferFrom(file, position, count);
+			return;
+		}
+		byte[] block = BufferPool.BLOCKS.acquire();
+		try {
+			var buffer = ByteBuffer.wrap(block);
+			while (count > 0) {
+				buffer.clear().limit((int) Math.min(count, buffer.capacity()));
+				int n = file.read(buffer, position);
+				if (n < 0) {
+					throw new EOFException("File is shorter than expected");
+				}
+				out.write(block, 0, n);
+				position = position + n;
+				count = count - n;
+			}
+		} finally {
+			BufferPool.BLOCKS.release(block);
+		}
+	}
+	
 	private static record BodyPublisherOfInputStream(Supplier<? extends InputStream> streamSupplier)
 		implements BodyPublisher {
 		public void writeTo(OutputStream out) throws IOException {
@@ -389,6 +812,33 @@ public class HttpResponse {
 		}
 	}
 	
+	/* Body, whose gzip variant is taken from cache, rather than compressed on every response. */
+	private static record BodyPublisherOfGzipVariant(BodyPublisher identity, GzipCache cache, String key)
+		implements BodyPublisher {
+		public void writeTo(OutputStream out) throws IOException {
+			identity.writeTo(out);
+		}
+		public long contentLength() throws IOException {
+			return identity.contentLength();
+		}
+		public void writeGzippedTo(ChunkedOutputStream chunkedOut, int level) throws IOException {
+			try {
+				cache.writeGzipped(key, identity, level, chunkedOut);
+				chunkedOut.finish(); // writes last-chunk and flushes, but does not close underlying output stream
+			} finally {
+				chunkedOut.abort();
+			}
+		}
+		public void writeGzippedTo(OutputStream out, int level) throws IOException {
+			cache.writeGzipped(key, identity, level, out);
+			out.close(); // this will also close the connection
+		}
+	}
+	
+	static BodyPublisher withGzipVariant(BodyPublisher identity, GzipCache cache, String key) {
+		return new BodyPublisherOfGzipVariant(identity, cache, key);
+	}
+	
 	private static record NoBody(Map.Entry<String, String> infHeader) implements BodyPublisher {
 		public void writeTo(OutputStream out) {} // Do nothing.
 		public long contentLength() {
@@ -0,0 +1,17 @@
+package http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/* Common interface of server engines, serving requests with an HttpHandler. */
+public interface HttpServer extends Closeable {
+
+	void start() throws IOException;
+
+	InetSocketAddress localAddress() throws IOException;
+
+	@Override
+	void close(); // stops accepting connections and closes all open ones
+
+}
@@ -0,0 +1,78 @@
+package http;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Histogram of durations in nanoseconds, in buckets of powers of 2 from about 1 microsecond
+ * to about 2 minutes, and one for longer ones. Recording threads are spread over stripes by the
+ * id of thread, each stripe with counters of its own, so that threads rarely contend for a counter
+ * (per-thread histograms would grow without bound with virtual threads, one per connection).
+ * Recording takes no lock and allocates nothing; stripes are merged, when the histogram is read. */
+final class LatencyHistogram {
+
+	static final int BUCKETS = 28; // finite buckets; the last of a stripe counts longer durations
+	private static final int MIN_SHIFT = 10; // upper bound of the first bucket is 2^10 ns
+	private static final int STRIPES = 16; // power of 2
+	private static final int SUM = BUCKETS + 1; // index of the sum of durations within a stripe
+	private static final int STRIPE_LENGTH = (SUM + 1 + 7) / 8 * 8 + 8; // padded, so that stripes do not share cache lines
+
+	private final AtomicLongArray counts;
+
+	LatencyHistogram() {
+		this.counts = new AtomicLongArray(STRIPES * STRIPE_LENGTH);
+	}
+
+	void record(long nanos) {
+		if (nanos < 0) { // System.nanoTime() of another core may be slightly behind
+			nanos = 0;
+		}
+		int stripe = stripe(Thread.currentThread().getId()) * STRIPE_LENGTH;
+		counts.getAndIncrement(stripe + bucket(nanos));
+		counts.getAndAdd(stripe + SUM, nanos);
+	}
+
+	/* Returns index of the bucket of a duration. */
+	static int bucket(long nanos) {
+		if (nanos <= 1L << MIN_SHIFT) {
+			return 0;
+		}
+		return Math.min(BUCKETS, Long.SIZE - Long.numberOfLeadingZeros(nanos - 1) - MIN_SHIFT);
+	}
+
+	/* Returns upper bound of bucket in nanoseconds; the last one has none. */
+	static long upperBound(int bucket) {
+		return (bucket < BUCKETS) ? 1L << (bucket + MIN_SHIFT) : Long.MAX_VALUE;
+	}
+
+	private static int stripe(long threadId) {
+		return (int) ((threadId * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - Integer.numberOfTrailingZeros(STRIPES)));
+	}
+
+	/* Returns counts of all buckets, merged from all stripes, followed by the sum of durations. As
+	 * recording goes on meanwhile, the snapshot is not atomic, but each count is. */
+	long[] snapshot() {
+		long[] merged = new long[SUM + 1];
+		for (int stripe = 0; stripe < STRIPES * STRIPE_LENGTH; stripe += STRIPE_LENGTH) {
+			for (int i = 0; i <= SUM; i++) {
+				merged[i] += counts.get(stripe + i);
+			}
+		}
+		return merged;
+	}
+
+	/* Appends the histogram in the Prometheus text format, with cumulative buckets in seconds. */
+	void appendTo(StringBuilder text, String name, String help) {
+		long[] merged = snapshot();
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(" histogram\n");
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += merged[i];
+			text.append(name).append("_bucket{le=\"").append(upperBound(i) / 1e9).append("\"} ").append(count).append('\n');
+		}
+		count += merged[BUCKETS];
+		text.append(name).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+		text.append(name).append("_sum ").append(merged[SUM] / 1e9).append('\n');
+		text.append(name).append("_count ").append(count).append('\n');
+	}
+
+}
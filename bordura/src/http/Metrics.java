@@ -0,0 +1,125 @@
+package http;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Instrumentation of a server: histograms of the time of parsing request heads, of handling
+ * requests and of writing responses; counters of received and sent bytes and of responses by
+ * status code (also those of HttpException and of rejected requests); gauges of open connections
+ * and of requests in flight and queued by admission control. Counters are striped (LongAdder),
+ * histograms too (LatencyHistogram), so that recording takes no lock on the request path.
+ * Metrics is a handler itself, which answers with all values in the Prometheus text format, e.g.
+ * to be routed at GET /metrics. A server, which is given no Metrics, records into one of its own. */
+public final class Metrics implements HttpHandler {
+
+	private static final int MIN_STATUS = 100;
+	private static final int MAX_STATUS = 599;
+
+	private final LatencyHistogram parseTime;
+	private final LatencyHistogram handleTime;
+	private final LatencyHistogram writeTime;
+	private final LongAdder receivedBytes;
+	private final LongAdder sentBytes;
+	private final LongAdder[] responses; // by status code, from MIN_STATUS on
+	private final LongAdder openConnections;
+	private volatile AdmissionControl admission; // of the server, which records into this
+
+	public Metrics() {
+		this.parseTime = new LatencyHistogram();
+		this.handleTime = new LatencyHistogram();
+		this.writeTime = new LatencyHistogram();
+		this.receivedBytes = new LongAdder();
+		this.sentBytes = new LongAdder();
+		this.responses = new LongAdder[MAX_STATUS - MIN_STATUS + 1];
+		for (int i = 0; i < responses.length; i++) {
+			responses[i] = new LongAdder();
+		}
+		this.openConnections = new LongAdder();
+		this.admission = null;
+	}
+
+	@Override
+	public HttpResponse handle(HttpRequest request) throws IOException {
+		return HttpResponse.newBuilder().status(200)
+			.addHeader("Content-Type", "text/plain; version=0.0.4; charset=utf-8")
+			.addHeader("Cache-Control", "no-store")
+			.body(HttpResponse.BodyPublisher.ofString(render())).build();
+	}
+
+	/* Returns all values in the Prometheus text format. */
+	String render() {
+		StringBuilder text = new StringBuilder(8192);
+		parseTime.appendTo(text, "bordura_request_parse_seconds", "Time of parsing request heads.");
+		handleTime.appendTo(text, "bordura_request_handle_seconds", "Time of handlers, without waiting for admission.");
+		writeTime.appendTo(text, "bordura_response_write_seconds", "Time of writing responses.");
+		appendValue(text, "bordura_received_bytes_total", "counter", "Bytes received from clients.", receivedBytes.sum());
+		appendValue(text, "bordura_sent_bytes_total", "counter", "Bytes sent to clients.", sentBytes.sum());
+		text.append("# HELP bordura_responses_total Responses by status code.\n");
+		text.append("# TYPE bordura_responses_total counter\n");
+		for (int i = 0; i < responses.length; i++) {
+			long count = responses[i].sum();
+			if (count > 0) {
+				text.append("bordura_responses_total{code=\"").append(MIN_STATUS + i).append("\"} ").append(count).append('\n');
+			}
+		}
+		appendValue(text, "bordura_open_connections", "gauge", "Open connections.", openConnections.sum());
+		AdmissionControl admission = this.admission;
+		if (admission != null) {
+			appendValue(text, "bordura_in_flight_requests", "gauge", "Requests being handled.", admission.inFlightRequests());
+			appendValue(text, "bordura_queued_requests", "gauge", "Requests waiting for admission.", admission.queuedRequests());
+		}
+		return text.toString();
+	}
+
+	private static void appendValue(StringBuilder text, String name, String type, String help, long value) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		text.append(name).append(' ').append(value).append('\n');
+	}
+
+	/* Gauges of requests are read from admission; called by the server at its construction. */
+	void observe(AdmissionControl admission) {
+		this.admission = admission;
+	}
+
+	/* Returns handler, which records the time of handler. */
+	HttpHandler timed(HttpHandler handler) {
+		return request -> {
+			long start = System.nanoTime();
+			try {
+				return handler.handle(request);
+			} finally {
+				handleTime.record(System.nanoTime() - start);
+			}
+		};
+	}
+
+	void parsed(long nanos) {
+		parseTime.record(nanos);
+	}
+
+	/* Records a response with status, written (or failed) in nanos. */
+	void responded(int status, long nanos) {
+		if (status >= MIN_STATUS && status <= MAX_STATUS) {
+			responses[status - MIN_STATUS].increment();
+		}
+		writeTime.record(nanos);
+	}
+
+	void received(long bytes) {
+		receivedBytes.add(bytes);
+	}
+
+	void sent(long bytes) {
+		sentBytes.add(bytes);
+	}
+
+	void connectionOpened() {
+		openConnections.increment();
+	}
+
+	void connectionClosed() {
+		openConnections.decrement();
+	}
+
+}
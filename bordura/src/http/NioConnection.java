@@ -0,0 +1,710 @@
+package http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* A connection, served by NioHttpServer. Request heads are parsed by the event loop thread,
+ * while handlers are run and responses written by worker threads. Bytes of a request body are
+ * received by the event loop into the inbound buffer, from which the handler reads them;
+ * receiving is paused while the buffer is full. Responses are written directly to the
+ * non-blocking channel as long as it accepts bytes; the remainder is queued and written
+ * by the event loop, once the channel becomes writable again. File bodies are sent from their
+ * file channel with transferTo. Bodiless GET and HEAD requests do not stop parsing, so that
+ * requests, pipelined behind them, are handled concurrently on further worker threads; their
+ * responses are written in the order of requests through a ResponseQueue. Slow or idle clients
+ * are bounded by a deadline in the timer wheel of the event loop: a connection, idle between
+ * requests, is closed; a request head, not complete in time, and a body, not progressing while
+ * the handler waits for it, are answered with 408 and the connection is closed. */
+class NioConnection implements EventLoop.Handler {
+
+	/* What the deadline of a connection is waiting for. */
+	private enum Phase {NONE, IDLE, HEAD, BODY}
+
+	private static final BufferPool CHUNKS = new BufferPool(Outbound.CHUNK_SIZE); // chunks of responses
+
+	private final NioHttpServer server;
+	private final EventLoop loop;
+	private final SocketChannel channel;
+	private final java.net.InetAddress peer; // remote address, for admission control and events
+	private final Outbound outbound;
+	private final ResponseQueue responses;
+	private SelectionKey key;
+	private final HttpRequestParser parser;
+	private final java.nio.ByteBuffer inbound; // received bytes, not yet consumed; in write mode
+	private final ReentrantLock inboundLock; // guards inbound and the fields below it
+	private final Condition received;
+	private final Source source; // stream of request bodies
+	private boolean readPaused; // true, if receiving is paused, because inbound is full
+	private boolean inputShutdown; // true, if peer has closed its side of connection
+	private boolean busy; // true while a request, which stops parsing (e.g. one with a body), is handled
+	private boolean receivingBody; // true while busy with a request, whose body is read from the connection
+	private boolean waiting; // true while handler waits for bytes of body
+	private volatile boolean timedOut; // true, if body did not arrive in time; handler gets end of stream
+	private long parseNanos; // time of parsing the current request head; used by event loop
+	private long headSize; // bytes of the current request head, parsed so far; used by event loop
+	private RequestHeadEvent headEvent; // of the current request head, null before its first byte
+	private int inFlight; // requests, whose responses are not yet completely sent; used by event loop
+	private volatile boolean closed;
+	private final TimerWheel.Timeout timeout; // deadline of phase; used by event loop
+	private Phase phase;
+
+	NioConnection(NioHttpServer server, EventLoop loop, SocketChannel channel) {
+		this.server = server;
+		this.loop = loop;
+		this.channel = channel;
+		this.peer = channel.socket().getInetAddress(); // null, if already disconnected
+		this.outbound = new Outbound();
+		this.responses = new ResponseQueue(this::write);
+		this.parser = new HttpRequestParser();
+		this.inbound = java.nio.ByteBuffer.wrap(BufferPool.BLOCKS.acquire());
+		this.inboundLock = new ReentrantLock();
+		this.received = inboundLock.newCondition();
+		this.source = new Source();
+		this.readPaused = false;
+		this.inputShutdown = false;
+		this.busy = false;
+		this.receivingBody = false;
+		this.waiting = false;
+		this.timedOut = false;
+		this.parseNanos = 0;
+		this.headSize = 0;
+		this.headEvent = null;
+		this.inFlight = 0;
+		this.closed = false;
+		this.timeout = new TimerWheel.Timeout(this::expire);
+		this.phase = Phase.NONE;
+		server.metrics().connectionOpened();
+	}
+
+	/* Must be called on the event loop thread. */
+	void register() throws IOException {
+		key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+		updateTimer();
+	}
+
+	@Override
+	public void ready(SelectionKey key) throws IOException {
+		if (key.isWritable()) {
+			outbound.drain();
+		}
+		if (key.isValid() && key.isReadable()) {
+			inboundLock.lock();
+			try {
+				int n = channel.read(inbound);
+				if (n < 0) { // end of stream
+					inputShutdown = true;
+				} else if (n > 0) {
+					server.metrics().received(n);
+					if (phase == Phase.BODY) { // body progresses, so its deadline is extended
+						loop.timers().schedule(timeout, server.bodyTimeout());
+					}
+				}
+				received.signalAll(); // wake up handler, waiting for bytes of body
+				if (inputShutdown) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				} else if (busy && !inbound.hasRemaining()) { // handler is behind in reading the body
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+					readPaused = true;
+				}
+			} finally {
+				inboundLock.unlock();
+			}
+			if (!busy) {
+				processInbound(); // requests, received before the end of stream, are still served
+				if (inputShutdown && !busy && inFlight == 0) {
+					close();
+				}
+			}
+		}
+		updateTimer();
+	}
+
+	/* Feeds received bytes to the parser and dispatches requests, as their heads are complete.
+	 * Parsing goes on behind pipelinable requests, up to ResponseQueue.DEPTH of them. */
+	private void processInbound() {
+		while (!busy && !closed) {
+			if (inFlight >= ResponseQueue.DEPTH) { // resumed, when a response is sent
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				return;
+			}
+			HttpRequest request;
+			inboundLock.lock();
+			try {
+				inbound.flip();
+				if (headEvent == null && inbound.hasRemaining()) { // first bytes of head
+					headEvent = new RequestHeadEvent();
+					headEvent.begin();
+				}
+				int position = inbound.position();
+				long start = System.nanoTime();
+				request = parser.feed(inbound);
+				parseNanos += System.nanoTime() - start;
+				headSize += inbound.position() - position;
+				if (request != null) { // body, refused by the head of request, is not sent by the client
+					request = request.withBodyFrom(source).withExpectation(server.maxRequestBodyLength(), this::sendContinue);
+					headEnded(request, 0);
+				}
+			} catch (HttpException e) {
+				parser.reset();
+				headEnded(null, e.returnStatusCode());
+				dispatchError(e.returnStatusCode());
+				return;
+			} finally {
+				inbound.compact(); // keep any following bytes for the body or the next request
+				inboundLock.unlock();
+			}
+			if (request == null) {
+				return;
+			}
+			ResponseQueue.Slot slot = responses.add();
+			inFlight++;
+			boolean exclusive = !isPipelinable(request);
+			if (exclusive) {
+				busy = true;
+				receivingBody = request.bodyStream() != null;
+				if (request.bodyStream() == null) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ); // do not read further, until handled
+				} else if (!inbound.hasRemaining()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ); // resumed, when handler reads from inbound
+					readPaused = true;
+				}
+			}
+			final HttpRequest exchanged = request;
+			server.workers().execute(() -> exchange(exchanged, slot, exclusive));
+		}
+	}
+
+	/* Records the end of the current request head, parsed into request or answered with status. */
+	private void headEnded(HttpRequest request, int status) {
+		if (request != null) {
+			server.metrics().parsed(parseNanos);
+		}
+		if (headEvent != null) {
+			headEvent.complete(request, status, headSize, peer);
+		}
+		headEvent = null;
+		parseNanos = 0;
+		headSize = 0;
+	}
+
+	/* Returns true, if request may be handled concurrently with the following ones: it is safe,
+	 * has no body to be read from the connection and does not close it. */
+	private static boolean isPipelinable(HttpRequest request) {
+		return (request.method() == HttpRequest.Method.GET || request.method() == HttpRequest.Method.HEAD)
+			&& request.bodyStream() == null && request.keepAlive();
+	}
+
+	private void dispatchError(int status) {
+		ResponseQueue.Slot slot = responses.add();
+		inFlight++;
+		busy = true;
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		server.workers().execute(() -> responses.complete(slot, HttpResponse.ofStatus(status, true), true));
+	}
+
+	/* Runs on a worker thread. If exclusive, parsing of further requests is resumed, once
+	 * the body of request has been consumed. */
+	private void exchange(HttpRequest request, ResponseQueue.Slot slot, boolean exclusive) {
+		HttpResponse response;
+		try {
+			response = server.admission().handle(peer, request, server.handler());
+			if (request.method() == HttpRequest.Method.HEAD) {
+				response = response.headOnly();
+			}
+		} catch (HttpException e) {
+			response = HttpResponse.ofStatus(e.returnStatusCode(), false);
+		} catch (IOException | RuntimeException e) { // body may have been refused, while it was read
+			HttpException cause = HttpException.causeOf(e);
+			response = HttpResponse.ofStatus((cause != null) ? cause.returnStatusCode() : 500, true);
+		}
+		if (timedOut) { // handler got end of stream instead of the rest of body
+			response = HttpResponse.ofStatus(408, true);
+		}
+		boolean close = timedOut || !request.keepAlive() || !request.skipBody(BodyInputStream.DRAIN_LIMIT);
+		if (exclusive && !close) {
+			loop.execute(this::resume);
+		}
+		responses.complete(slot, response, close);
+	}
+
+	/* Sends interim response 100 (Continue), once responses to previous requests are written;
+	 * runs on a worker thread, at the first read of request body. */
+	private void sendContinue() throws IOException {
+		responses.awaitBelow(2); // only the slot of the request itself remains
+		outbound.write(ContinueInputStream.CONTINUE);
+		outbound.flush();
+	}
+
+	/* Writes response, as the ResponseQueue.Writer of this connection; runs on a worker thread. */
+	private boolean write(HttpResponse response, boolean close) {
+		long start = System.nanoTime();
+		try {
+			close = close || response.closesConnection();
+			response.writeTo(outbound, peer);
+			outbound.endOfResponse(close);
+			return !close;
+		} catch (IOException | RuntimeException e) {
+			loop.execute(this::close);
+			return false;
+		} finally {
+			server.metrics().responded(response.status(), System.nanoTime() - start);
+		}
+	}
+
+	/* Runs on the event loop thread, after the body of an exclusive request was consumed. */
+	private void resume() {
+		if (closed) {
+			return;
+		}
+		busy = false;
+		receivingBody = false;
+		readPaused = false;
+		if (!inputShutdown) {
+			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+		}
+		processInbound(); // bytes of the next request might have been received already
+		if (inputShutdown && !busy && inFlight == 0) {
+			close();
+		}
+		updateTimer();
+	}
+
+	/* Runs on the event loop thread, after count responses have been completely sent. */
+	private void completeExchange(int count, boolean close) {
+		inFlight = inFlight - count;
+		if (close) {
+			close();
+		} else if (!closed && !busy) {
+			if (inputShutdown) {
+				if (inFlight == 0) {
+					close();
+				}
+			} else {
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+				processInbound(); // parsing might have stopped at ResponseQueue.DEPTH
+			}
+		}
+		updateTimer();
+	}
+
+	/* Runs on the event loop thread, whenever the state of connection has changed. Deadlines of
+	 * IDLE and HEAD are kept, while the phase lasts; the one of BODY is extended as bytes arrive. */
+	private void updateTimer() {
+		Phase next;
+		if (closed) {
+			next = Phase.NONE;
+		} else if (busy) {
+			next = (receivingBody && !readPaused && !inputShutdown) ? Phase.BODY : Phase.NONE;
+		} else if (parser.started()) {
+			next = Phase.HEAD;
+		} else {
+			next = (inFlight == 0 && !inputShutdown) ? Phase.IDLE : Phase.NONE;
+		}
+		if (next == phase) {
+			return;
+		}
+		phase = next;
+		switch (next) {
+			case IDLE -> loop.timers().schedule(timeout, server.idleTimeout());
+			case HEAD -> loop.timers().schedule(timeout, server.headerTimeout());
+			case BODY -> loop.timers().schedule(timeout, server.bodyTimeout());
+			default -> loop.timers().cancel(timeout);
+		}
+	}
+
+	/* Runs on the event loop thread, when the deadline of phase has passed. */
+	private void expire() {
+		if (closed) {
+			return;
+		}
+		Phase expired = phase;
+		phase = Phase.NONE;
+		switch (expired) {
+			case IDLE -> close();
+			case HEAD -> {
+				parser.reset();
+				headEnded(null, 408);
+				dispatchError(408);
+			}
+			case BODY -> {
+				inboundLock.lock();
+				try {
+					if (waiting) { // handler gets end of stream and the connection is closed after its response
+						timedOut = true;
+						inputShutdown = true;
+						key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+						received.signalAll();
+					} else { // handler is busy itself, or the whole body has been received already
+						phase = Phase.BODY;
+						loop.timers().schedule(timeout, server.bodyTimeout());
+					}
+				} finally {
+					inboundLock.unlock();
+				}
+			}
+			default -> {}
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		server.metrics().connectionClosed();
+		loop.timers().cancel(timeout);
+		responses.close();
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// ignore, connection is being discarded anyway
+		}
+		outbound.abort();
+		inboundLock.lock();
+		try {
+			BufferPool.BLOCKS.release(inbound.array()); // closed, so inbound is not used anymore
+			received.signalAll(); // handler, waiting for body, gets end of stream
+		} finally {
+			inboundLock.unlock();
+		}
+	}
+
+	/* Stream of received bytes, following the request head, as read by the handler's thread. */
+	private final class Source extends InputStream {
+
+		private final byte[] single = new byte[1]; // for read() of a single byte
+
+		@Override
+		public int read() throws IOException {
+			return (read(single, 0, 1) < 0) ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			inboundLock.lock();
+			try {
+				while (closed || inbound.position() == 0) {
+					if (inputShutdown || closed) {
+						return -1;
+					}
+					waiting = true;
+					try {
+						received.await();
+					} finally {
+						waiting = false;
+					}
+				}
+				inbound.flip();
+				int n = Math.min(len, inbound.remaining());
+				inbound.get(b, off, n);
+				inbound.compact();
+				if (readPaused) { // there is room in inbound again
+					readPaused = false;
+					loop.execute(() -> {
+						if (key.isValid() && busy) {
+							key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+							updateTimer(); // body is received again, so its deadline applies
+						}
+					});
+				}
+				return n;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} finally {
+				inboundLock.unlock();
+			}
+		}
+
+		@Override
+		public int available() {
+			inboundLock.lock();
+			try {
+				return closed ? 0 : inbound.position();
+			} finally {
+				inboundLock.unlock();
+			}
+		}
+
+	}
+
+	/* Output stream of responses. Bytes are collected into chunks, which are written to the
+	 * channel directly if nothing is queued, or queued otherwise. Writing thread is blocked,
+	 * while too many bytes are queued. A file region, which could not be sent at once, is left
+	 * to the event loop too, while the writing thread waits, as it owns the file channel. */
+	private final class Outbound extends OutputStream implements ChannelSink {
+
+		private static final int CHUNK_SIZE = 16384;
+		private static final long HIGH_WATER_MARK = 262144; // max. bytes queued, before writer blocks
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition drained = lock.newCondition();
+		private final ArrayDeque<java.nio.ByteBuffer> queue = new ArrayDeque<>();
+		private long queued = 0; // number of bytes in queue
+		private java.nio.ByteBuffer chunk = null; // chunk being filled by the writing thread
+		private FileRegion region = null; // if not null, sent by the event loop after all queued chunks
+		private int pendingEnds = 0; // responses, which are completely sent when queue gets empty
+		private boolean pendingClose = false; // if true, connection is closed after them
+		private boolean failed = false;
+
+		@Override
+		public void write(int b) throws IOException {
+			if (chunk == null) {
+				chunk = java.nio.ByteBuffer.wrap(CHUNKS.acquire());
+			} else if (!chunk.hasRemaining()) {
+				flush();
+				chunk = java.nio.ByteBuffer.wrap(CHUNKS.acquire());
+			}
+			chunk.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len >= CHUNK_SIZE) { // large writes bypass the chunk
+				flush();
+				enqueue(java.nio.ByteBuffer.wrap(b, off, len), true);
+				return;
+			}
+			while (len > 0) {
+				if (chunk == null) {
+					chunk = java.nio.ByteBuffer.wrap(CHUNKS.acquire());
+				} else if (!chunk.hasRemaining()) {
+					flush();
+					chunk = java.nio.ByteBuffer.wrap(CHUNKS.acquire());
+				}
+				int n = Math.min(len, chunk.remaining());
+				chunk.put(b, off, n);
+				off = off + n;
+				len = len - n;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (chunk != null && chunk.position() > 0) {
+				java.nio.ByteBuffer full = chunk.flip();
+				chunk = null;
+				enqueue(full, false);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush(); // connection itself is closed at the end of response
+		}
+
+		@Override
+		public void write(java.nio.ByteBuffer[] buffers) throws IOException {
+			flush();
+			lock.lock();
+			try {
+				if (failed) {
+					throw new IOException("Connection closed");
+				}
+				if (queue.isEmpty()) {
+					server.metrics().sent(channel.write(buffers)); // in one gathering write, without copying into a chunk
+				}
+			} finally {
+				lock.unlock();
+			}
+			for (java.nio.ByteBuffer buffer : buffers) {
+				if (buffer.hasRemaining()) {
+					enqueue(buffer, true);
+				}
+			}
+		}
+
+		@Override
+		public void transferFrom(FileChannel file, long position, long count) throws IOException {
+			flush();
+			lock.lock();
+			try {
+				if (failed) {
+					throw new IOException("Connection closed");
+				}
+				FileRegion pending = new FileRegion(file, position, count);
+				if (queue.isEmpty()) {
+					pending.send();
+					if (pending.count == 0) {
+						return;
+					}
+					loop.execute(() -> {
+						if (key.isValid()) {
+							key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+						}
+					});
+				}
+				region = pending;
+				while (region != null && !failed) {
+					drained.await();
+				}
+				if (failed) {
+					throw new IOException("Connection closed");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/* If buffer is borrowed, its content is copied before being queued. */
+		private void enqueue(java.nio.ByteBuffer buffer, boolean borrowed) throws IOException {
+			lock.lock();
+			try {
+				if (failed) {
+					throw new IOException("Connection closed");
+				}
+				if (queue.isEmpty()) {
+					server.metrics().sent(channel.write(buffer));
+					if (!buffer.hasRemaining()) {
+						if (!borrowed) {
+							CHUNKS.release(buffer.array());
+						}
+						return;
+					}
+					loop.execute(() -> {
+						if (key.isValid()) {
+							key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+						}
+					});
+				}
+				if (borrowed) {
+					buffer = java.nio.ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+				}
+				queue.add(buffer);
+				queued = queued + buffer.remaining();
+				while (queued > HIGH_WATER_MARK && !failed) {
+					drained.await();
+				}
+				if (failed) {
+					throw new IOException("Connection closed");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void endOfResponse(boolean close) throws IOException {
+			flush();
+			lock.lock();
+			try {
+				if (queue.isEmpty() && region == null && pendingEnds == 0) {
+					loop.execute(() -> completeExchange(1, close));
+				} else {
+					pendingEnds++;
+					pendingClose = pendingClose || close;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/* Runs on the event loop thread, when channel is writable. */
+		private void drain() throws IOException {
+			int ends = 0;
+			boolean close = false;
+			lock.lock();
+			try {
+				while (!queue.isEmpty()) {
+					java.nio.ByteBuffer buffer = queue.peek();
+					int n = channel.write(buffer);
+					queued = queued - n;
+					server.metrics().sent(n);
+					if (buffer.hasRemaining()) {
+						break; // channel is full
+					}
+					CHUNKS.release(queue.poll().array()); // queued buffers are owned, either chunks or copies
+				}
+				if (queue.isEmpty() && region != null) {
+					region.send();
+					if (region.count == 0) {
+						region = null;
+					}
+				}
+				drained.signalAll();
+				if (queue.isEmpty() && region == null) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+					ends = pendingEnds;
+					close = pendingClose;
+					pendingEnds = 0;
+					pendingClose = false;
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (ends > 0) {
+				completeExchange(ends, close);
+			}
+		}
+
+		private void abort() {
+			lock.lock();
+			try {
+				failed = true;
+				for (java.nio.ByteBuffer buffer : queue) {
+					CHUNKS.release(buffer.array());
+				}
+				queue.clear();
+				region = null;
+				queued = 0;
+				drained.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+	}
+
+	/* Part of a file, which remains to be sent. */
+	private final class FileRegion {
+
+		private final FileChannel file;
+		private long position;
+		private long count;
+
+		private FileRegion(FileChannel file, long position, long count) {
+			this.file = file;
+			this.position = position;
+			this.count = count;
+		}
+
+		/* Sends as much of the region, as the channel accepts without blocking. */
+		private void send() throws IOException {
+			while (count > 0) {
+				long n = file.transferTo(position, count, channel);
+				if (n <= 0) {
+					if (position >= file.size()) {
+						throw new EOFException("File is shorter than expected");
+					}
+					return; // channel is full
+				}
+				position = position + n;
+				count = count - n;
+				server.metrics().sent(n);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,299 @@
+package http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* HTTP/1.1 server, multiplexing connections over a small number of event loop threads,
+ * each with its own selector. Idle connections do not occupy any thread; a worker thread
+ * is only taken for the time of handling a request and writing its response. Connections,
+ * which stay idle or send a request too slowly, are timed out by their event loop. Requests are
+ * handled, as far as an AdmissionControl admits them; the rest is answered with 503 or 429. Parsing,
+ * handling and writing, bytes and connections are recorded into Metrics. */
+public class NioHttpServer implements HttpServer {
+
+	private final InetSocketAddress address;
+	private final int backlog;
+	private final EventLoop[] loops;
+	private final Executor workers;
+	private final boolean ownsWorkers; // if true, workers are shut down at close()
+	private final HttpHandler handler;
+	private final AdmissionControl admission;
+	private final Metrics metrics;
+	private final long headerTimeout; // nanoseconds
+	private final long bodyTimeout;
+	private final long idleTimeout;
+	private final long maxRequestBodyLength;
+	private ServerSocketChannel serverChannel;
+	private int nextLoop; // index of loop for the next accepted connection; used by acceptor only
+
+	private NioHttpServer(InetSocketAddress address, int backlog, int eventLoops, Executor workers,
+						  boolean ownsWorkers, HttpHandler handler, AdmissionControl admission, Metrics metrics,
+						  Duration headerTimeout, Duration bodyTimeout, Duration idleTimeout, long maxRequestBodyLength)
+						  throws IOException {
+		this.address = address;
+		this.backlog = backlog;
+		this.loops = new EventLoop[eventLoops];
+		for (int i = 0; i < eventLoops; i++) {
+			loops[i] = new EventLoop("bordura-event-loop-" + i);
+		}
+		this.workers = workers;
+		this.ownsWorkers = ownsWorkers;
+		this.handler = metrics.timed(handler);
+		this.admission = admission;
+		this.metrics = metrics;
+		metrics.observe(admission);
+		this.headerTimeout = headerTimeout.toNanos();
+		this.bodyTimeout = bodyTimeout.toNanos();
+		this.idleTimeout = idleTimeout.toNanos();
+		this.maxRequestBodyLength = maxRequestBodyLength;
+		this.nextLoop = 0;
+	}
+
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	@Override
+	public void start() throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(address, backlog);
+		serverChannel.configureBlocking(false);
+		for (EventLoop loop : loops) {
+			loop.start();
+		}
+		loops[0].execute(() -> {
+			try {
+				serverChannel.register(loops[0].selector(), SelectionKey.OP_ACCEPT, new Acceptor());
+			} catch (IOException e) {
+				close();
+			}
+		});
+	}
+
+	@Override
+	public InetSocketAddress localAddress() throws IOException {
+		return (InetSocketAddress) serverChannel.getLocalAddress();
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (serverChannel != null) {
+				serverChannel.close();
+			}
+		} catch (IOException e) {
+			// ignore, server is being stopped
+		}
+		for (EventLoop loop : loops) {
+			loop.shutdown(); // closes all connections of the loop
+		}
+		if (ownsWorkers) {
+			((ExecutorService) workers).shutdown();
+		}
+	}
+
+	HttpHandler handler() {
+		return handler;
+	}
+
+	AdmissionControl admission() {
+		return admission;
+	}
+
+	Metrics metrics() {
+		return metrics;
+	}
+
+	Executor workers() {
+		return workers;
+	}
+
+	long headerTimeout() {
+		return headerTimeout;
+	}
+
+	long bodyTimeout() {
+		return bodyTimeout;
+	}
+
+	long idleTimeout() {
+		return idleTimeout;
+	}
+
+	long maxRequestBodyLength() {
+		return maxRequestBodyLength;
+	}
+
+	/* Accepts incoming connections and distributes them among event loops in round-robin fashion. */
+	private final class Acceptor implements EventLoop.Handler {
+
+		@Override
+		public void ready(SelectionKey key) throws IOException {
+			SocketChannel channel = serverChannel.accept();
+			while (channel != null) {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				EventLoop loop = loops[nextLoop];
+				nextLoop = (nextLoop + 1) % loops.length;
+				NioConnection connection = new NioConnection(NioHttpServer.this, loop, channel);
+				loop.execute(() -> {
+					try {
+						connection.register();
+					} catch (IOException e) {
+						connection.close();
+					}
+				});
+				channel = serverChannel.accept();
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				// ignore, no more connections will be accepted anyway
+			}
+		}
+
+	}
+
+	public static class Builder {
+
+		private InetSocketAddress address;
+		private int backlog;
+		private int eventLoops;
+		private Executor workers;
+		private HttpHandler handler;
+		private AdmissionControl admission;
+		private Metrics metrics;
+		private Duration headerTimeout;
+		private Duration bodyTimeout;
+		private Duration idleTimeout;
+		private long maxRequestBodyLength;
+
+		private Builder() {
+			this.address = new InetSocketAddress(8080);
+			this.backlog = 1024;
+			this.eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+			this.workers = null; // a cached thread pool is created at build() time, if not set
+			this.handler = request -> HttpResponse.ofStatus(404, false);
+			this.admission = AdmissionControl.newBuilder().build();
+			this.metrics = new Metrics();
+			this.headerTimeout = Duration.ofSeconds(20);
+			this.bodyTimeout = Duration.ofSeconds(30);
+			this.idleTimeout = Duration.ofSeconds(60);
+			this.maxRequestBodyLength = Long.MAX_VALUE;
+		}
+
+		public Builder address(InetSocketAddress address) {
+			this.address = address;
+			return this;
+		}
+
+		public Builder backlog(int backlog) {
+			if (backlog < 1) {
+				throw new IllegalArgumentException("Backlog must be positive.");
+			}
+			this.backlog = backlog;
+			return this;
+		}
+
+		public Builder eventLoops(int eventLoops) {
+			if (eventLoops < 1) {
+				throw new IllegalArgumentException("Number of event loops must be positive.");
+			}
+			this.eventLoops = eventLoops;
+			return this;
+		}
+
+		/* Executor for running handlers and writing responses. Handlers may block
+		 * (e.g. on database access), so the executor should not be too small. */
+		public Builder workers(Executor workers) {
+			this.workers = workers;
+			return this;
+		}
+
+		public Builder handler(HttpHandler handler) {
+			this.handler = handler;
+			return this;
+		}
+
+		public Builder admissionControl(AdmissionControl admission) {
+			this.admission = admission;
+			return this;
+		}
+
+		/* Metrics to record into, e.g. one, which is also routed at GET /metrics. */
+		public Builder metrics(Metrics metrics) {
+			if (metrics == null) {
+				throw new IllegalArgumentException("Metrics must not be null.");
+			}
+			this.metrics = metrics;
+			return this;
+		}
+
+		/* Time from the first byte of a request head to its end; a request, which exceeds it,
+		 * is answered with 408 and the connection is closed. */
+		public Builder headerTimeout(Duration headerTimeout) {
+			this.headerTimeout = positive(headerTimeout);
+			return this;
+		}
+
+		/* Time, for which a handler may wait for the next bytes of a request body, before the
+		 * request is answered with 408 and the connection is closed. */
+		public Builder bodyTimeout(Duration bodyTimeout) {
+			this.bodyTimeout = positive(bodyTimeout);
+			return this;
+		}
+
+		/* Time, for which a connection is kept open without any request. */
+		public Builder idleTimeout(Duration idleTimeout) {
+			this.idleTimeout = positive(idleTimeout);
+			return this;
+		}
+
+		/* Requests with a longer "Content-Length" are answered with 413, before the body is read.
+		 * A chunked body is read up to this length; beyond it, reading fails, the request is
+		 * answered with 413, and the connection is closed. */
+		public Builder maxRequestBodyLength(long maxRequestBodyLength) {
+			if (maxRequestBodyLength < 0) {
+				throw new IllegalArgumentException("Maximum length of request body must not be negative.");
+			}
+			this.maxRequestBodyLength = maxRequestBodyLength;
+			return this;
+		}
+
+		private static Duration positive(Duration timeout) {
+			if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+				throw new IllegalArgumentException("Timeout must be positive.");
+			}
+			return timeout;
+		}
+
+		public NioHttpServer build() throws IOException { // throws if a selector cannot be opened
+			if (workers == null) {
+				ExecutorService pool = Executors.newCachedThreadPool(runnable -> {
+					Thread thread = new Thread(runnable, "bordura-worker");
+					thread.setDaemon(true);
+					return thread;
+				});
+				return new NioHttpServer(address, backlog, eventLoops, pool, true, handler, admission, metrics,
+										 headerTimeout, bodyTimeout, idleTimeout, maxRequestBodyLength);
+			} else {
+				return new NioHttpServer(address, backlog, eventLoops, workers, false, handler, admission, metrics,
+										 headerTimeout, bodyTimeout, idleTimeout, maxRequestBodyLength);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,56 @@
+package http;
+
+import java.net.InetAddress;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/* Flight Recorder event of reading a request head, from its first byte to its end, so that slow
+ * clients and slow parsing show up next to other events of the JVM. As all events, it is enabled,
+ * disabled and thresholded on its own by name in the recording settings; while it is disabled,
+ * begin(), end() and commit() do nothing. */
+@Name("bordura.http.RequestHead")
+@Label("HTTP Request Head")
+@Category({"Bordura", "HTTP"})
+@Description("Receipt and parsing of an HTTP request head")
+@Threshold("10 ms")
+@StackTrace(false)
+final class RequestHeadEvent extends jdk.jfr.Event {
+
+	@Label("Method")
+	String method;
+
+	@Label("Target")
+	String target;
+
+	@Label("Head Size")
+	@DataAmount
+	long headSize;
+
+	@Label("Status")
+	@Description("Status of the response to a head, which could not be parsed, or 0")
+	int status;
+
+	@Label("Peer")
+	String peer;
+
+	/* Commits event, if it lasted beyond the threshold, with request or, if null, the status, with
+	 * which an invalid head is answered. */
+	void complete(HttpRequest request, int status, long headSize, InetAddress peer) {
+		end();
+		if (shouldCommit()) {
+			this.method = (request != null) ? request.method().name() : null;
+			this.target = (request != null) ? request.target() : null;
+			this.headSize = headSize;
+			this.status = status;
+			this.peer = (peer != null) ? peer.getHostAddress() : null;
+			commit();
+		}
+	}
+
+}
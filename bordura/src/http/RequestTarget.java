@@ -0,0 +1,145 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/* Request target in origin-form (RFC 7230 5.3.1.), split into path segments and query, when the
+ * request line is read. Only offsets are kept: a segment or query parameter is decoded from
+ * percent-encoding (as UTF-8) when it is asked for. Path "/" has a single empty segment, and
+ * a trailing '/' gives an empty last segment. */
+public final class RequestTarget {
+
+	private final String raw;
+	private final int[] slashes; // index of each '/', which starts a segment of path
+	private final int segments; // number of valid elements of slashes
+	private final int pathEnd; // index of '?', or length of raw
+	private String[] decoded; // segments, as they are decoded; null, until one is asked for
+
+	/* Offsets are found by HttpRequestParser.parseTarget, while it validates the target. */
+	RequestTarget(String raw, int[] slashes, int segments, int pathEnd) {
+		this.raw = raw;
+		this.slashes = slashes;
+		this.segments = segments;
+		this.pathEnd = pathEnd;
+		this.decoded = null;
+	}
+
+	/* Splits target at '/' and '?'. */
+	private static RequestTarget of(String target) {
+		int[] slashes = new int[8];
+		int segments = 0;
+		int pathEnd = target.length();
+		for (int i = 0; i < target.length(); i++) {
+			char c = target.charAt(i);
+			if (c == '/') {
+				if (segments == slashes.length) {
+					slashes = Arrays.copyOf(slashes, segments * 2);
+				}
+				slashes[segments++] = i;
+			} else if (c == '?') {
+				pathEnd = i;
+				break;
+			}
+		}
+		return new RequestTarget(target, slashes, segments, pathEnd);
+	}
+
+	/* Parses a route pattern, e.g. "/posts/{hash}", in the same way as a target. */
+	static RequestTarget ofPattern(String pattern) {
+		if (pattern.isEmpty() || pattern.charAt(0) != '/' || pattern.indexOf('?') >= 0) {
+			throw new IllegalArgumentException("Pattern must be a path, starting with '/': " + pattern);
+		}
+		return of(pattern);
+	}
+
+	public int segmentCount() {
+		return segments;
+	}
+
+	/* Returns segment i of path, percent-decoded. */
+	public String segment(int i) {
+		if (i < 0 || i >= segments) {
+			throw new IndexOutOfBoundsException(i);
+		}
+		if (decoded == null) {
+			decoded = new String[segments];
+		}
+		String segment = decoded[i];
+		if (segment == null) {
+			segment = decode(raw, slashes[i] + 1, segmentEnd(i), false);
+			decoded[i] = segment;
+		}
+		return segment;
+	}
+
+	/* Returns segment i of path, as it was received, without decoding. */
+	public String rawSegment(int i) {
+		if (i < 0 || i >= segments) {
+			throw new IndexOutOfBoundsException(i);
+		}
+		return raw.substring(slashes[i] + 1, segmentEnd(i));
+	}
+
+	/* Returns path, as it was received, without query. */
+	public String path() {
+		return raw.substring(0, pathEnd);
+	}
+
+	/* Returns query, as it was received, or null, if target has none. */
+	public String query() {
+		return pathEnd < raw.length() ? raw.substring(pathEnd + 1) : null;
+	}
+
+	/* Returns decoded value of the first query parameter with name ("name=value" pairs,
+	 * separated by '&', '+' meaning space), "" if it has no value, or null if it is absent. */
+	public String queryParameter(String name) {
+		int from = pathEnd + 1;
+		while (from <= raw.length()) {
+			int to = raw.indexOf('&', from);
+			if (to < 0) {
+				to = raw.length();
+			}
+			int equals = raw.indexOf('=', from);
+			int nameEnd = (equals < 0 || equals > to) ? to : equals;
+			if (decode(raw, from, nameEnd, true).equals(name)) {
+				return nameEnd == to ? "" : decode(raw, nameEnd + 1, to, true);
+			}
+			from = to + 1;
+		}
+		return null;
+	}
+
+	private int segmentEnd(int i) {
+		return i + 1 < segments ? slashes[i + 1] : pathEnd;
+	}
+
+	/* Decodes percent-encoded UTF-8 between from and to; in query, '+' is decoded as space. */
+	private static String decode(String s, int from, int to, boolean query) {
+		int percent = s.indexOf('%', from);
+		int plus = query ? s.indexOf('+', from) : -1;
+		if ((percent < 0 || percent >= to) && (plus < 0 || plus >= to)) {
+			return s.substring(from, to); // nothing to decode
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(to - from);
+		for (int i = from; i < to; i++) {
+			char c = s.charAt(i);
+			if (c == '%' && i + 2 < to) { // validated as "%" HEXDIG HEXDIG by the parser
+				bytes.write(Character.digit(s.charAt(i + 1), 16) << 4 | Character.digit(s.charAt(i + 2), 16));
+				i = i + 2;
+			} else if (c == '+' && query) {
+				bytes.write(' ');
+			} else {
+				bytes.write(c);
+			}
+		}
+		return bytes.toString(UTF_8);
+	}
+
+	@Override
+	public String toString() {
+		return raw;
+	}
+
+}
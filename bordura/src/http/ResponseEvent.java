@@ -0,0 +1,45 @@
+package http;
+
+import java.net.InetAddress;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/* Flight Recorder event of writing a response, from its head to the end of its body, as far as the
+ * connection accepts it (a response, which waits for a slow client, lasts until the client reads it). */
+@Name("bordura.http.Response")
+@Label("HTTP Response")
+@Category({"Bordura", "HTTP"})
+@Description("Writing of an HTTP response")
+@Threshold("10 ms")
+@StackTrace(false)
+final class ResponseEvent extends jdk.jfr.Event {
+
+	@Label("Status")
+	int status;
+
+	@Label("Content Length")
+	@Description("Length of body before transfer coding, or -1, if it is not known in advance")
+	@DataAmount
+	long contentLength;
+
+	@Label("Peer")
+	String peer;
+
+	/* Commits event, if it lasted beyond the threshold; the length of a file body is read only then. */
+	void complete(HttpResponse response, InetAddress peer) {
+		end();
+		if (shouldCommit()) {
+			this.status = response.status();
+			this.contentLength = response.contentLength();
+			this.peer = (peer != null) ? peer.getHostAddress() : null;
+			commit();
+		}
+	}
+
+}
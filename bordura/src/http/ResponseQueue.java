@@ -0,0 +1,150 @@
+package http;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* Responses to the requests of a single connection, which are handled concurrently, when the
+ * peer pipelines them (RFC 7230 6.3.2.), but must be written in the order of requests. A slot
+ * is taken at the tail, when a request is read, and completed with the response, once the
+ * request is handled. The thread, which completes the slot at the head, writes its response
+ * and all the following ones, which are complete already; other threads return at once. */
+final class ResponseQueue {
+
+	static final int DEPTH = 16; // max. requests of a connection, handled at the same time
+
+	/* Writes a response to the connection. Returns false, if the connection is closed after it. */
+	@FunctionalInterface
+	interface Writer {
+		boolean write(HttpResponse response, boolean close);
+	}
+
+	private final Writer writer;
+	private final ReentrantLock lock;
+	private final Condition written;
+	private final ArrayDeque<Slot> slots; // head is removed only after its response is written
+	private boolean writing; // true while some thread is writing responses
+	private boolean closed; // true, once the connection is closed; further responses are discarded
+
+	ResponseQueue(Writer writer) {
+		this.writer = writer;
+		this.lock = new ReentrantLock();
+		this.written = lock.newCondition();
+		this.slots = new ArrayDeque<>();
+		this.writing = false;
+		this.closed = false;
+	}
+
+	/* Takes a slot for the response to the request, which has just been read. */
+	Slot add() {
+		Slot slot = new Slot();
+		lock.lock();
+		try {
+			if (!closed) {
+				slots.add(slot);
+			}
+		} finally {
+			lock.unlock();
+		}
+		return slot;
+	}
+
+	/* Returns number of responses, which are not yet completely written. */
+	int size() {
+		lock.lock();
+		try {
+			return slots.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Completes slot with response, which is written when all the previous ones are. If close
+	 * is true, the connection is closed after it. */
+	void complete(Slot slot, HttpResponse response, boolean close) {
+		Slot head;
+		lock.lock();
+		try {
+			slot.response = response;
+			slot.close = close;
+			if (writing || closed || slots.peek() != slot) {
+				return; // written by the thread, which is writing already or completes the head
+			}
+			writing = true;
+			head = slot;
+		} finally {
+			lock.unlock();
+		}
+		while (head != null) {
+			boolean open = writer.write(head.response, head.close);
+			lock.lock();
+			try {
+				slots.poll();
+				if (!open) {
+					closed = true;
+					slots.clear();
+				}
+				head = slots.peek();
+				if (head == null || head.response == null) {
+					head = null;
+					writing = false;
+				}
+				written.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/* Waits, until fewer than n responses remain to be written. */
+	void awaitBelow(int n) {
+		lock.lock();
+		try {
+			while (slots.size() >= n) {
+				written.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Discards responses, which are not yet being written. */
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			if (writing) {
+				Slot head = slots.poll();
+				slots.clear();
+				slots.add(head); // removed by its writer
+			} else {
+				slots.clear();
+			}
+			written.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	static final class Slot {
+
+		private HttpResponse response; // null, until the request is handled
+		private boolean close;
+
+		private Slot() {
+			this.response = null;
+			this.close = false;
+		}
+
+	}
+
+}
@@ -0,0 +1,186 @@
+package http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/* Handler, which dispatches requests to the handlers of routes by method and path pattern,
+ * e.g. "/posts/{hash}/content/{ordinal}", where a segment in braces matches any single segment
+ * and is passed to the handler as a path parameter. Routes are compiled into a trie of path
+ * segments, so that a request is matched with one hash lookup per segment of its path, however
+ * many routes there are. Literal segments take precedence over parameters. A path, which matches
+ * no route, is answered with 404, and a route without handler for the method with 405. HEAD
+ * requests are handled by the GET handler of a route, if it has no HEAD handler; the servers send
+ * only the head of its response. */
+public final class Router implements HttpHandler {
+
+	/* Handler of a route; parameters hold the values of path parameters of the request. */
+	@FunctionalInterface
+	public interface RouteHandler {
+		HttpResponse handle(HttpRequest request, Parameters parameters) throws IOException, HttpException;
+	}
+
+	private final Node root;
+
+	private Router(Node root) {
+		this.root = root;
+	}
+
+	public static Builder newBuilder() {
+		return new Builder();
+	}
+
+	@Override
+	public HttpResponse handle(HttpRequest request) throws IOException, HttpException {
+		RequestTarget target = request.requestTarget();
+		Node node = match(root, target, 0);
+		if (node == null) {
+			throw new HttpException(404);
+		}
+		Endpoint endpoint = node.endpoints.get(request.method());
+		if (endpoint == null && request.method() == HttpRequest.Method.HEAD) {
+			endpoint = node.endpoints.get(HttpRequest.Method.GET);
+		}
+		if (endpoint == null) {
+			StringJoiner allow = new StringJoiner(", ");
+			for (HttpRequest.Method method : node.endpoints.keySet()) {
+				allow.add(method.name());
+				if (method == HttpRequest.Method.GET && !node.endpoints.containsKey(HttpRequest.Method.HEAD)) {
+					allow.add("HEAD");
+				}
+			}
+			return HttpResponse.newBuilder().status(405).addHeader("Allow", allow.toString())
+				.body(HttpResponse.BodyPublisher.ofString("")).build(); // Content-Length: 0, so the connection is kept
+		}
+		return endpoint.handler.handle(request, new Parameters(endpoint.names, endpoint.positions, target));
+	}
+
+	/* Returns the node, which matches segments of target from i on and has endpoints, or null. A
+	 * literal child is tried first; the parameter child only if the literal branch matches nothing. */
+	private static Node match(Node node, RequestTarget target, int i) {
+		if (i == target.segmentCount()) {
+			return node.endpoints.isEmpty() ? null : node;
+		}
+		if (!node.literals.isEmpty()) {
+			Node literal = node.literals.get(target.segment(i));
+			if (literal != null) {
+				Node matched = match(literal, target, i + 1);
+				if (matched != null) {
+					return matched;
+				}
+			}
+		}
+		return node.parameter == null ? null : match(node.parameter, target, i + 1);
+	}
+
+	/* Values of path parameters of a matched route, decoded from the request target. */
+	public static final class Parameters {
+
+		private final String[] names;
+		private final int[] positions; // index of segment of each parameter
+		private final RequestTarget target;
+
+		private Parameters(String[] names, int[] positions, RequestTarget target) {
+			this.names = names;
+			this.positions = positions;
+			this.target = target;
+		}
+
+		/* Returns decoded value of parameter name, or null, if route has no such parameter. */
+		public String get(String name) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equals(name)) {
+					return target.segment(positions[i]);
+				}
+			}
+			return null;
+		}
+
+	}
+
+	/* Node of the trie; the path from root to it is a sequence of segments of a pattern. */
+	private static final class Node {
+
+		private final Map<String, Node> literals = new HashMap<>();
+		private Node parameter = null; // child for a segment in braces
+		private final Map<HttpRequest.Method, Endpoint> endpoints = new EnumMap<>(HttpRequest.Method.class);
+
+		/* Returns a deep copy, so that a built router is not changed by further routes of builder. */
+		private Node copy() {
+			Node copy = new Node();
+			for (var literal : literals.entrySet()) {
+				copy.literals.put(literal.getKey(), literal.getValue().copy());
+			}
+			copy.parameter = (parameter == null) ? null : parameter.copy();
+			copy.endpoints.putAll(endpoints);
+			return copy;
+		}
+
+	}
+
+	private static record Endpoint(String[] names, int[] positions, RouteHandler handler) {}
+
+	public static class Builder {
+
+		private final Node root;
+
+		private Builder() {
+			this.root = new Node();
+		}
+
+		/* Adds a route. Pattern is a path starting with '/', whose segments are either literal
+		 * (matched after percent-decoding of the request target) or a parameter name in braces. */
+		public Builder route(HttpRequest.Method method, String pattern, RouteHandler handler) {
+			if (method == null || handler == null) {
+				throw new IllegalArgumentException("Method and handler must not be null.");
+			}
+			RequestTarget segments = RequestTarget.ofPattern(pattern);
+			List<String> names = new ArrayList<>();
+			List<Integer> positions = new ArrayList<>();
+			Node node = root;
+			for (int i = 0; i < segments.segmentCount(); i++) {
+				String segment = segments.rawSegment(i);
+				if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+					String name = segment.substring(1, segment.length() - 1);
+					if (names.contains(name)) {
+						throw new IllegalArgumentException("Duplicate path parameter: " + name);
+					}
+					names.add(name);
+					positions.add(i);
+					if (node.parameter == null) {
+						node.parameter = new Node();
+					}
+					node = node.parameter;
+				} else if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0) {
+					throw new IllegalArgumentException("Parameter must be a whole segment: " + pattern);
+				} else {
+					node = node.literals.computeIfAbsent(segments.segment(i), s -> new Node());
+				}
+			}
+			if (node.endpoints.containsKey(method)) {
+				throw new IllegalArgumentException("Duplicate route: " + method + " " + pattern);
+			}
+			node.endpoints.put(method, new Endpoint(names.toArray(new String[0]),
+				positions.stream().mapToInt(Integer::intValue).toArray(), handler));
+			return this;
+		}
+
+		/* Adds a route, whose handler does not use path parameters. */
+		public Builder route(HttpRequest.Method method, String pattern, HttpHandler handler) {
+			if (handler == null) {
+				throw new IllegalArgumentException("Handler must not be null.");
+			}
+			return route(method, pattern, (RouteHandler) (request, parameters) -> handler.handle(request));
+		}
+
+		public Router build() {
+			return new Router(root.copy());
+		}
+
+	}
+
+}
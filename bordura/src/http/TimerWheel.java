@@ -0,0 +1,158 @@
+package http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* Hashed timer wheel (Varghese and Lauck) for deadlines of connections. Each timeout is linked
+ * into the slot of the tick, in which it expires, so that scheduling, rescheduling and cancelling
+ * take constant time, whatever the number of timeouts. Timeouts, which lie more than one turn of
+ * the wheel ahead, share the slot and are skipped, until their deadline is reached. The wheel is
+ * advanced by its owner (e.g. an event loop) and runs expired tasks on the advancing thread. A
+ * Timeout is reused for all deadlines of a connection, so no allocation is needed per deadline. */
+final class TimerWheel {
+
+	/* Task with at most one pending deadline; scheduling it again replaces the deadline. */
+	static final class Timeout {
+
+		private final Runnable task;
+		private long deadline; // in System.nanoTime()
+		private Timeout previous; // in list of slot, if scheduled
+		private Timeout next;
+		private int slot; // -1, if not scheduled
+
+		Timeout(Runnable task) {
+			this.task = task;
+			this.slot = -1;
+		}
+
+	}
+
+	private final long tickNanos;
+	private final Timeout[] slots; // head of doubly linked list of each slot
+	private final int mask;
+	private final ReentrantLock lock;
+	private long tick; // number of the last tick, whose slot was processed
+	private int size; // number of scheduled timeouts
+
+	/* Slots are rounded up to a power of 2. */
+	TimerWheel(long tickNanos, int slots) {
+		if (tickNanos < 1 || slots < 1) {
+			throw new IllegalArgumentException("Tick and number of slots must be positive");
+		}
+		int powerOfTwo = Integer.highestOneBit(slots);
+		if (powerOfTwo < slots) {
+			powerOfTwo = powerOfTwo << 1;
+		}
+		this.tickNanos = tickNanos;
+		this.slots = new Timeout[powerOfTwo];
+		this.mask = powerOfTwo - 1;
+		this.lock = new ReentrantLock();
+		this.tick = System.nanoTime() / tickNanos;
+		this.size = 0;
+	}
+
+	/* Schedules timeout to expire after delay, replacing its previous deadline, if any. */
+	void schedule(Timeout timeout, long delayNanos) {
+		long deadline = System.nanoTime() + delayNanos;
+		lock.lock();
+		try {
+			unlink(timeout);
+			timeout.deadline = deadline;
+			// first tick, which starts after deadline; a passed slot is not visited again
+			long expiryTick = Math.max(deadline / tickNanos + 1, tick + 1);
+			int slot = (int) (expiryTick & mask);
+			timeout.slot = slot;
+			timeout.previous = null;
+			timeout.next = slots[slot];
+			if (slots[slot] != null) {
+				slots[slot].previous = timeout;
+			}
+			slots[slot] = timeout;
+			size++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void cancel(Timeout timeout) {
+		lock.lock();
+		try {
+			unlink(timeout);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean isEmpty() {
+		lock.lock();
+		try {
+			return size == 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Returns nanoseconds until the next tick; at most that long the owner may wait, before
+	 * it calls advance() again. */
+	long nanosToNextTick() {
+		long now = System.nanoTime();
+		return tickNanos - Math.floorMod(now, tickNanos);
+	}
+
+	/* Processes slots of all ticks up to now and runs tasks of expired timeouts. */
+	void advance() {
+		long now = System.nanoTime();
+		List<Runnable> expired = null;
+		lock.lock();
+		try {
+			long nowTick = now / tickNanos;
+			long ticks = Math.min(nowTick - tick, slots.length); // one turn visits each slot once
+			for (long t = nowTick - ticks + 1; t <= nowTick; t++) {
+				Timeout timeout = slots[(int) (t & mask)];
+				while (timeout != null) {
+					Timeout next = timeout.next;
+					if (timeout.deadline - now <= 0) {
+						unlink(timeout);
+						if (expired == null) {
+							expired = new ArrayList<>();
+						}
+						expired.add(timeout.task);
+					}
+					timeout = next;
+				}
+			}
+			tick = Math.max(tick, nowTick);
+		} finally {
+			lock.unlock();
+		}
+		if (expired != null) {
+			for (Runnable task : expired) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// task failed, e.g. because its connection was closed meanwhile; run the others anyway
+				}
+			}
+		}
+	}
+
+	private void unlink(Timeout timeout) {
+		if (timeout.slot < 0) {
+			return;
+		}
+		if (timeout.previous == null) {
+			slots[timeout.slot] = timeout.next;
+		} else {
+			timeout.previous.next = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.slot = -1;
+		size--;
+	}
+
+}
@@ -1,5 +1,7 @@
 module si.bordura {
 	requires java.sql;
+	requires jdk.jfr;
 	requires org.junit.jupiter.api;
 	requires org.bouncycastle.provider;
+	requires static jmh.core; // benchmarks only
 }
\ No newline at end of file
@@ -17,11 +17,15 @@ public class Addresses {
 			INSERT INTO address(ip, port, peer_id, active, last_contact)
 			VALUES (?, ?, NULL, ?, NULL);
 		""";
+		StatementEvent event = new StatementEvent();
+		event.begin();
 		try (PreparedStatement stmt = dbcon.prepareStatement(sql)) {
 			stmt.setBytes(1, address.getAddress().getAddress());
 			stmt.setInt(2, address.getPort());
 			stmt.setBoolean(3, isActive);
-			return stmt.executeUpdate();
+			int rows = stmt.executeUpdate();
+			event.complete("Addresses.createNew", rows, address.getAddress().getAddress().length, address);
+			return rows;
 		}
 	}
 	
@@ -31,12 +35,16 @@ public class Addresses {
 			INSERT INTO address(ip, port, peer_id, active, last_contact)
 			VALUES (?, ?, ?, ?, NULL);
 		""";
+		StatementEvent event = new StatementEvent();
+		event.begin();
 		try (PreparedStatement stmt = dbcon.prepareStatement(sql)) {
 			stmt.setBytes(1, address.getAddress().getAddress());
 			stmt.setInt(2, address.getPort());
 			stmt.setInt(3, peerID);
 			stmt.setBoolean(4, isActive);
-			return stmt.executeUpdate();
+			int rows = stmt.executeUpdate();
+			event.complete("Addresses.createNew", rows, address.getAddress().getAddress().length, address);
+			return rows;
 		}
 	}
 	
@@ -47,11 +55,15 @@ public class Addresses {
 			SET peer_id = ?
 			WHERE ip = ? AND port = ?;
 		""";
+		StatementEvent event = new StatementEvent();
+		event.begin();
 		try (PreparedStatement stmt = dbcon.prepareStatement(sql)) {
 			stmt.setInt(1, peerID);
 			stmt.setBytes(2, address.getAddress().getAddress());
 			stmt.setInt(3, address.getPort());
-			return stmt.executeUpdate();
+			int rows = stmt.executeUpdate();
+			event.complete("Addresses.asscoiateWithPeer", rows, address.getAddress().getAddress().length, address);
+			return rows;
 		}
 	}
 	
@@ -62,10 +74,14 @@ public class Addresses {
 			SET last_contact = datetime('now')
 			WHERE ip = ? AND port = ?;
 		""";
+		StatementEvent event = new StatementEvent();
+		event.begin();
 		try (PreparedStatement stmt = dbcon.prepareStatement(sql)) {
 			stmt.setBytes(1, address.getAddress().getAddress());
 			stmt.setInt(2, address.getPort());
-			return stmt.executeUpdate();
+			int rows = stmt.executeUpdate();
+			event.complete("Addresses.updateLastContact", rows, address.getAddress().getAddress().length, address);
+			return rows;
 		}
 	}
 	
@@ -76,13 +92,19 @@ public class Addresses {
 			SET last_contact = datetime('now')
 			WHERE ip = ? AND port = ?;
 		""";
+		StatementEvent event = new StatementEvent();
+		event.begin();
 		try (PreparedStatement stmt = dbcon.prepareStatement(sql)) {
 			int count = 0;
+			long size = 0;
 			for (int i = 0; i < addresses.length; i++) {
-				stmt.setBytes(1, addresses[i].getAddress().getAddress());
+				byte[] ip = addresses[i].getAddress().getAddress();
+				stmt.setBytes(1, ip);
 				stmt.setInt(2, addresses[i].getPort());
 				count += stmt.executeUpdate();
+				size += ip.length;
 			}
+			event.complete("Addresses.updateLastContacts", count, size, null); // many peers
 			return count;
 		}
 	}
@@ -94,11 +116,15 @@ public class Addresses {
 			SET active = ?
 			WHERE ip = ? AND port = ?;
 		""";
+		StatementEvent event = new StatementEvent();
+		event.begin();
 		try (PreparedStatement stmt = dbcon.prepareStatement(sql)) {
 			stmt.setBoolean(1, isActive);
 			stmt.setBytes(2, address.getAddress().getAddress());
 			stmt.setInt(3, address.getPort());
-			return stmt.executeUpdate();
+			int rows = stmt.executeUpdate();
+			event.complete("Addresses.setActive", rows, address.getAddress().getAddress().length, address);
+			return rows;
 		}
 	}
 	
@@ -109,14 +135,19 @@ public class Addresses {
 			FROM address
 			WHERE peer_id = ? AND active = 1;
 		""";
+		StatementEvent event = new StatementEvent();
+		event.begin();
 		try (PreparedStatement stmt = dbcon.prepareStatement(sql)) {
 			stmt.setInt(1, peerID);
 			ResultSet rs = stmt.executeQuery();
 			if (rs.next()) {
 				byte[] ipAddress = rs.getBinaryStream(1).readAllBytes();
 				int port = rs.getInt(2);
-				return Optional.of(new InetSocketAddress(InetAddress.getByAddress(ipAddress), port));
+				InetSocketAddress address = new InetSocketAddress(InetAddress.getByAddress(ipAddress), port);
+				event.complete("Addresses.getActiveOf", 1, ipAddress.length, address);
+				return Optional.of(address);
 			} else {
+				event.complete("Addresses.getActiveOf", 0, 0, null);
 				return Optional.empty();
 			}
 		}
@@ -8,14 +8,23 @@ import java.sql.Statement;
 public class Initialization {
 	
 	public static void createNewDatabase() throws SQLException {
-		try (Connection dbcon = DriverManager.getConnection(Configurations.dbUrl)) {
+		createNewDatabase(Configurations.dbUrl);
+	}
+	
+	public static void createNewDatabase(String dbUrl) throws SQLException {
+		try (Connection dbcon = DriverManager.getConnection(dbUrl)) {
 			// Skip. If connection gets established, a database is created.
 		}
 	}
 	
 	public static void createTables() throws SQLException {
-		try (Connection dbcon = DriverManager.getConnection(Configurations.dbUrl);
-			Statement stmt = dbcon.createStatement()) {
+		try (Connection dbcon = DriverManager.getConnection(Configurations.dbUrl)) {
+			createTables(dbcon);
+		}
+	}
+	
+	public static void createTables(Connection dbcon) throws SQLException {
+		try (Statement stmt = dbcon.createStatement()) {
 			stmt.execute("PRAGMA foreign_keys = ON;"); // enable foreign keys
 			stmt.execute("""
 				CREATE TABLE IF NOT EXISTS peer(
@@ -0,0 +1,54 @@
+package repository;
+
+import java.util.HexFormat;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/* Flight Recorder event of a stage of the station-to-station key agreement. Signing and
+ * verifying within a stage are recorded by SignatureEvent as well. */
+@Name("bordura.repository.KeyAgreementStage")
+@Label("Key Agreement Stage")
+@Category({"Bordura", "Crypto"})
+@Description("Stage of a station-to-station key agreement")
+@Threshold("10 ms")
+@StackTrace(false)
+final class KeyAgreementEvent extends jdk.jfr.Event {
+
+	@Label("Stage")
+	int stage;
+
+	@Label("Role")
+	@Description("initiator or responder")
+	String role;
+
+	@Label("Own Public Key Size")
+	@DataAmount
+	long ownPublicKeySize;
+
+	@Label("Peer Public Key Size")
+	@DataAmount
+	long peerPublicKeySize;
+
+	@Label("Peer")
+	@Description("ID of peer, if it is known in the stage")
+	String peer;
+
+	void complete(int stage, String role, byte[] ownPublicKey, byte[] peerPublicKey, byte[] peerID) {
+		end();
+		if (shouldCommit()) {
+			this.stage = stage;
+			this.role = role;
+			this.ownPublicKeySize = (ownPublicKey != null) ? ownPublicKey.length : 0;
+			this.peerPublicKeySize = (peerPublicKey != null) ? peerPublicKey.length : 0;
+			this.peer = (peerID != null) ? HexFormat.of().formatHex(peerID) : null;
+			commit();
+		}
+	}
+
+}
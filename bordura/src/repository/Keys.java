@@ -1,5 +1,6 @@
 package repository;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -42,7 +43,7 @@ public class Keys {
 		return guid;
 	}
 	
-	private static byte[] generateGUID() {
+	static byte[] generateGUID() {
 		UUID guid = UUID.randomUUID();
 		byte[] bytes = new byte[16];
 		long l = guid.getMostSignificantBits();
@@ -77,18 +78,26 @@ public class Keys {
 			INSERT INTO public_key(guid, key_val, owner, valid_to, obtained)
 			VALUES (?, ?, ?, ?, datetime('now'));
 		""";
+		StatementEvent event = new StatementEvent();
+		event.begin();
 		try (PreparedStatement stmt = dbcon.prepareStatement(sql)) {
 			stmt.setBytes(1, guid);
 			stmt.setBytes(2, keyBytes);
 			stmt.setInt(3, ownerID);
 			stmt.setString(4, validTo.toString());
-			return stmt.executeUpdate();
+			int rows = stmt.executeUpdate();
+			event.complete("Keys.savePublicKey", rows, guid.length + keyBytes.length, null);
+			return rows;
 		}
 	}
 	
 	private static void savePrivateKey(byte[] guid, PrivateKey key) throws IOException {
+		savePrivateKey(Path.of(Configurations.keystorePath), guid, key);
+	}
+	
+	static void savePrivateKey(Path keystore, byte[] guid, PrivateKey key) throws IOException {
 		String keyFileName = HexFormat.of().formatHex(guid);
-		Path keyFilePath = Path.of(Configurations.keystorePath, keyFileName);
+		Path keyFilePath = keystore.resolve(keyFileName);
 		Files.write(keyFilePath, keyRepBytes(key, KeyRep.Type.PRIVATE));
 	}
 
@@ -98,21 +107,29 @@ public class Keys {
 			FROM public_key
 			WHERE guid = ?;
 		""";
+		StatementEvent event = new StatementEvent();
+		event.begin();
 		try (PreparedStatement stmt = dbcon.prepareStatement(sql)) {
 			stmt.setBytes(1, guid);
 			ResultSet rs = stmt.executeQuery();
 			if (rs.next()) {
-				InputStream keyBytes = rs.getBinaryStream(1);
-				return Optional.of((PublicKey) ((new ObjectInputStream(keyBytes)).readObject()));
+				byte[] keyBytes = rs.getBinaryStream(1).readAllBytes();
+				event.complete("Keys.getPublicKey", 1, keyBytes.length, null);
+				return Optional.of((PublicKey) ((new ObjectInputStream(new ByteArrayInputStream(keyBytes))).readObject()));
 			} else {
+				event.complete("Keys.getPublicKey", 0, 0, null);
 				return Optional.empty();
 			}
 		}
 	}
 	
 	public static PrivateKey getPrivateKey(byte[] guid) throws IOException, ClassNotFoundException {
+		return getPrivateKey(Path.of(Configurations.keystorePath), guid);
+	}
+	
+	static PrivateKey getPrivateKey(Path keystore, byte[] guid) throws IOException, ClassNotFoundException {
 		String keyFileName = HexFormat.of().formatHex(guid);
-		Path keyFilePath = Path.of(Configurations.keystorePath, keyFileName);
+		Path keyFilePath = keystore.resolve(keyFileName);
 		try (InputStream fileStream = Files.newInputStream(keyFilePath);
 				ObjectInputStream ois = new ObjectInputStream(fileStream)) {
 			return (PrivateKey) ois.readObject();
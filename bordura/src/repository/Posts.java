@@ -21,18 +21,26 @@ public class Posts {
 	
 	public static byte[] sign(byte[] input, PrivateKey privateKey)
 			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		SignatureEvent event = new SignatureEvent();
+		event.begin();
 		Signature signature = Signature.getInstance("SHA3-256withECDSA");
 		signature.initSign(privateKey);
 		signature.update(input);
-		return signature.sign();
+		byte[] signed = signature.sign();
+		event.complete("sign", signature.getAlgorithm(), input.length, signed.length, true);
+		return signed;
 	}
 	
 	public static boolean verifySignatureDirect(byte[] input, byte[] receivedSignature, PublicKey publicKey)
 			throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+		SignatureEvent event = new SignatureEvent();
+		event.begin();
 		Signature signature = Signature.getInstance("SHA3-256withECDSA");
 		signature.initVerify(publicKey);
 		signature.update(input);
-		return signature.verify(receivedSignature);
+		boolean valid = signature.verify(receivedSignature);
+		event.complete("verify", signature.getAlgorithm(), input.length, receivedSignature.length, valid);
+		return valid;
 	}
 	
 	public static byte[] calculateHashOf(byte[] messageBytes) throws NoSuchAlgorithmException {
@@ -52,10 +60,14 @@ public class Posts {
 	public static boolean verifySignature(byte[] messageHash, byte[] encryptedMessageHash, PublicKey publicKey)
 			throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException,
 			IllegalBlockSizeException, BadPaddingException {
+		SignatureEvent event = new SignatureEvent();
+		event.begin();
 		Cipher cipher = Cipher.getInstance("ECIES", BouncyCastleProvider.PROVIDER_NAME);
 		cipher.init(Cipher.DECRYPT_MODE, publicKey);
 		byte[] decryptedMessageHash = cipher.doFinal(encryptedMessageHash);
-		return Arrays.equals(messageHash, decryptedMessageHash);
+		boolean valid = Arrays.equals(messageHash, decryptedMessageHash);
+		event.complete("verify", cipher.getAlgorithm(), messageHash.length, encryptedMessageHash.length, valid);
+		return valid;
 	}
 
 }
@@ -26,22 +26,22 @@ public class STSKeyAgreement {
 
 		/******** STAGE 1 ********/
 
-		/* Create own key-pair for Diffie-Hellman key agreement protocol */
-		KeyPairGenerator dhKeyPairGenerator = KeyPairGenerator.getInstance("DH");
-		dhKeyPairGenerator.initialize(DH_KEY_LENGTH);
-		KeyPair ownDHKeyPair = dhKeyPairGenerator.generateKeyPair();
+		KeyAgreementEvent stage1 = new KeyAgreementEvent();
+		stage1.begin();
 
-		/* Create and initialize own KeyAgreement object with generated private key. */
-		KeyAgreement dhKeyAgreement = KeyAgreement.getInstance("DH");
-		dhKeyAgreement.init(ownDHKeyPair.getPrivate());
+		/* Create own key-pair for Diffie-Hellman key agreement protocol */
+		KeyPair ownDHKeyPair = generateDHKeyPair();
 
 		/* Encode own public key and send it over to peer, together with own ID. */
 		byte[] ownDHPublicKeyEncoded = ownDHKeyPair.getPublic().getEncoded();
 		byte[] ownID = new byte[16]; // FIXME: get it from database
 		// TODO: Send over the wire to peer: [ownID, ownDHPublicKeyEncoded]
+		stage1.complete(1, "initiator", ownDHPublicKeyEncoded, null, null);
 
 		/******** STAGE 3 ********/
 
+		KeyAgreementEvent stage3 = new KeyAgreementEvent();
+		stage3.begin();
 		byte[] peerID = new byte[16]; // FIXME: Receive it from peer over the wire
 		// TODO: Verify peer's ID and obtain its public signature key for signature verification
 		PublicKey peerSigVerifyKey = null; // FIXME: obtain it from own database - obtainSigVerifyKey(peerID);
@@ -49,17 +49,12 @@ public class STSKeyAgreement {
 		/* Obtain peer's public key for Diffie-Hellman key agreement in encoded format and
 		 * instantiate DH public key from encoded format. */
 		byte[] peerDHPublicKeyEncoded = new byte[2048]; // FIXME: Receive it from peer over the wire
-		X509EncodedKeySpec peerDHPublicKeySpec = new X509EncodedKeySpec(peerDHPublicKeyEncoded);
-		PublicKey peerDHPublicKey = KeyFactory.getInstance("DH").generatePublic(peerDHPublicKeySpec);
+		PublicKey peerDHPublicKey = decodeDHPublicKey(peerDHPublicKeyEncoded);
 
 		/* Receive peer's signature over the wire and verify it using his public signature verification key. */
-		Signature signatureAlgorithm = Signature.getInstance("EdDSA");
-		signatureAlgorithm.initVerify(peerSigVerifyKey);
-		signatureAlgorithm.update(ownID);
-		signatureAlgorithm.update(peerDHPublicKeyEncoded);
-		signatureAlgorithm.update(ownDHPublicKeyEncoded);
 		byte[] peerSignature = new byte[128]; // FIXME: Receive it from peer over the wire
-		boolean validSignature = signatureAlgorithm.verify(peerSignature);
+		boolean validSignature = verify(peerSigVerifyKey, ownID, peerDHPublicKeyEncoded, ownDHPublicKeyEncoded,
+			peerSignature);
 		if (!validSignature) {
 			// TODO: Must fail. Notify peer over the wire
 			//       and then throw some STSKeyAgreementFailiureException or something.
@@ -67,18 +62,14 @@ public class STSKeyAgreement {
 
 		/* Sign concatenation of peer's ID, own DH public key and peer's DH public key. */
 		PrivateKey ownSignatureKey = null; // FIXME: get it from database or keystore
-		signatureAlgorithm.initSign(ownSignatureKey);
-		signatureAlgorithm.update(peerID);
-		signatureAlgorithm.update(ownDHPublicKeyEncoded);
-		signatureAlgorithm.update(peerDHPublicKeyEncoded);
-		byte[] ownSignature = signatureAlgorithm.sign();
+		byte[] ownSignature = sign(ownSignatureKey, peerID, ownDHPublicKeyEncoded, peerDHPublicKeyEncoded);
 
 		// TODO: Send own signature over the wire to peer.
 
 		/* Use peer's public key for the first (and only) phase on own version of
 		 * Diffie-Hellman key-agreement instance and obtain shared secret. */
-		dhKeyAgreement.doPhase(peerDHPublicKey, true);
-		byte[] sharedSecret = dhKeyAgreement.generateSecret();
+		byte[] sharedSecret = generateSharedSecret(ownDHKeyPair.getPrivate(), peerDHPublicKey);
+		stage3.complete(3, "initiator", ownDHPublicKeyEncoded, peerDHPublicKeyEncoded, peerID);
 
 	}
 
@@ -87,6 +78,8 @@ public class STSKeyAgreement {
 
 		/******** STAGE 2 ********/
 
+		KeyAgreementEvent stage2 = new KeyAgreementEvent();
+		stage2.begin();
 		byte[] peerID = new byte[16]; // FIXME: Receive it from peer over the wire
 		// TODO: Verify peer's ID and obtain its public signature key for signature verification
 		PublicKey peerSigVerifyKey = null; // FIXME: obtain it from own database - obtainSigVerifyKey(peerID);
@@ -94,8 +87,7 @@ public class STSKeyAgreement {
 		/* Obtain peer's public key for Diffie-Hellman key agreement in encoded format and
 		 * instantiate DH public key from encoded format. */
 		byte[] peerDHPublicKeyEncoded = new byte[2048]; // FIXME: Receive it from peer over the wire
-		X509EncodedKeySpec peerDHPublicKeySpec = new X509EncodedKeySpec(peerDHPublicKeyEncoded);
-		PublicKey peerDHPublicKey = KeyFactory.getInstance("DH").generatePublic(peerDHPublicKeySpec);
+		PublicKey peerDHPublicKey = decodeDHPublicKey(peerDHPublicKeyEncoded);
 
 		/* Create own key-pair for Diffie-Hellman key agreement protocol,
 		 * using the same public domain parameters as peer. */
@@ -104,13 +96,7 @@ public class STSKeyAgreement {
 			// TODO: Fail - security issue: Received key is not of appropriate length.
 			//       Throw some STSKeyAgreementFailiureException or something.
 		}
-		KeyPairGenerator dhKeyPairGenerator = KeyPairGenerator.getInstance("DH");
-		dhKeyPairGenerator.initialize(dhParamFromPeerPublicKey);
-		KeyPair ownDHKeyPair = dhKeyPairGenerator.generateKeyPair();
-
-		/* Create and initialize own KeyAgreement object with generated private key. */
-		KeyAgreement dhKeyAgreement = KeyAgreement.getInstance("DH");
-		dhKeyAgreement.init(ownDHKeyPair.getPrivate());
+		KeyPair ownDHKeyPair = generateDHKeyPair(dhParamFromPeerPublicKey);
 
 		/* Encode own public key. */
 		byte[] ownDHPublicKeyEncoded = ownDHKeyPair.getPublic().getEncoded();
@@ -119,34 +105,93 @@ public class STSKeyAgreement {
 		byte[] ownID = new byte[16]; // FIXME: get it from database
 
 		/* Sign concatenation of peer's ID, own DH public key and peer's DH public key. */
-		Signature signatureAlgorithm = Signature.getInstance("EdDSA");
 		PrivateKey ownSignatureKey = null; // FIXME: get it from database or keystore
-		signatureAlgorithm.initSign(ownSignatureKey);
-		signatureAlgorithm.update(peerID);
-		signatureAlgorithm.update(ownDHPublicKeyEncoded);
-		signatureAlgorithm.update(peerDHPublicKeyEncoded);
-		byte[] ownSignature = signatureAlgorithm.sign();
+		byte[] ownSignature = sign(ownSignatureKey, peerID, ownDHPublicKeyEncoded, peerDHPublicKeyEncoded);
 
 		// TODO: Send over wire to peer: [ownID, ownDHPublicKeyEncoded, ownSignature]
 
 		/* Use peer's public key for the first (and only) phase on own version of
 		 * Diffie-Hellman key-agreement instance and obtain shared secret. */
-		dhKeyAgreement.doPhase(peerDHPublicKey, true);
-		byte[] sharedSecret = dhKeyAgreement.generateSecret();
+		byte[] sharedSecret = generateSharedSecret(ownDHKeyPair.getPrivate(), peerDHPublicKey);
+		stage2.complete(2, "responder", ownDHPublicKeyEncoded, peerDHPublicKeyEncoded, peerID);
 
 		/******** STAGE 4 ********/
 
+		KeyAgreementEvent stage4 = new KeyAgreementEvent();
+		stage4.begin();
+
 		/* Receive peer's signature over the wire and verify it, using his public signature verification key. */
-		signatureAlgorithm.initVerify(peerSigVerifyKey);
-		signatureAlgorithm.update(ownID);
-		signatureAlgorithm.update(peerDHPublicKeyEncoded);
-		signatureAlgorithm.update(ownDHPublicKeyEncoded);
 		byte[] peerSignature = new byte[128]; // FIXME: Receive it from peer over the wire
-		boolean validSignature = signatureAlgorithm.verify(peerSignature);
+		boolean validSignature = verify(peerSigVerifyKey, ownID, peerDHPublicKeyEncoded, ownDHPublicKeyEncoded,
+			peerSignature);
 		if (!validSignature) {
 			// TODO: Must fail. Notify peer over the wire
 			//       and then throw some STSKeyAgreementFailiureException or something.
 		}
+		stage4.complete(4, "responder", ownDHPublicKeyEncoded, peerDHPublicKeyEncoded, peerID);
+	}
+
+	/* Steps of the stages above. Until messages go over the wire, both parties can be run in one
+	 * process with them, e.g. in a benchmark of a whole key agreement. */
+
+	static KeyPair generateDHKeyPair() throws NoSuchAlgorithmException {
+		KeyPairGenerator dhKeyPairGenerator = KeyPairGenerator.getInstance("DH");
+		dhKeyPairGenerator.initialize(DH_KEY_LENGTH);
+		return dhKeyPairGenerator.generateKeyPair();
+	}
+
+	static KeyPair generateDHKeyPair(DHParameterSpec dhParams)
+	throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+		KeyPairGenerator dhKeyPairGenerator = KeyPairGenerator.getInstance("DH");
+		dhKeyPairGenerator.initialize(dhParams);
+		return dhKeyPairGenerator.generateKeyPair();
+	}
+
+	static PublicKey decodeDHPublicKey(byte[] dhPublicKeyEncoded)
+	throws InvalidKeySpecException, NoSuchAlgorithmException {
+		X509EncodedKeySpec dhPublicKeySpec = new X509EncodedKeySpec(dhPublicKeyEncoded);
+		return KeyFactory.getInstance("DH").generatePublic(dhPublicKeySpec);
+	}
+
+	/* Signs concatenation of peer's ID, own DH public key and peer's DH public key. */
+	static byte[] sign(PrivateKey ownSignatureKey, byte[] peerID, byte[] ownDHPublicKeyEncoded,
+	byte[] peerDHPublicKeyEncoded) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		SignatureEvent event = new SignatureEvent();
+		event.begin();
+		Signature signatureAlgorithm = Signature.getInstance("EdDSA");
+		signatureAlgorithm.initSign(ownSignatureKey);
+		signatureAlgorithm.update(peerID);
+		signatureAlgorithm.update(ownDHPublicKeyEncoded);
+		signatureAlgorithm.update(peerDHPublicKeyEncoded);
+		byte[] signature = signatureAlgorithm.sign();
+		event.complete("sign", signatureAlgorithm.getAlgorithm(),
+			peerID.length + ownDHPublicKeyEncoded.length + peerDHPublicKeyEncoded.length, signature.length, true);
+		return signature;
+	}
+
+	/* Verifies peer's signature of concatenation of own ID, peer's DH public key and own DH public key. */
+	static boolean verify(PublicKey peerSigVerifyKey, byte[] ownID, byte[] peerDHPublicKeyEncoded,
+	byte[] ownDHPublicKeyEncoded, byte[] peerSignature)
+	throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		SignatureEvent event = new SignatureEvent();
+		event.begin();
+		Signature signatureAlgorithm = Signature.getInstance("EdDSA");
+		signatureAlgorithm.initVerify(peerSigVerifyKey);
+		signatureAlgorithm.update(ownID);
+		signatureAlgorithm.update(peerDHPublicKeyEncoded);
+		signatureAlgorithm.update(ownDHPublicKeyEncoded);
+		boolean valid = signatureAlgorithm.verify(peerSignature);
+		event.complete("verify", signatureAlgorithm.getAlgorithm(),
+			ownID.length + peerDHPublicKeyEncoded.length + ownDHPublicKeyEncoded.length, peerSignature.length, valid);
+		return valid;
+	}
+
+	static byte[] generateSharedSecret(PrivateKey ownDHPrivateKey, PublicKey peerDHPublicKey)
+	throws NoSuchAlgorithmException, InvalidKeyException {
+		KeyAgreement dhKeyAgreement = KeyAgreement.getInstance("DH");
+		dhKeyAgreement.init(ownDHPrivateKey);
+		dhKeyAgreement.doPhase(peerDHPublicKey, true);
+		return dhKeyAgreement.generateSecret();
 	}
 
 }
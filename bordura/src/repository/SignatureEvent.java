@@ -0,0 +1,51 @@
+package repository;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/* Flight Recorder event of signing or verifying, of posts and of key agreement. */
+@Name("bordura.repository.Signature")
+@Label("Signature")
+@Category({"Bordura", "Crypto"})
+@Description("Signing or verification of a signature")
+@Threshold("10 ms")
+@StackTrace(false)
+final class SignatureEvent extends jdk.jfr.Event {
+
+	@Label("Operation")
+	@Description("sign or verify")
+	String operation;
+
+	@Label("Algorithm")
+	String algorithm;
+
+	@Label("Input Size")
+	@DataAmount
+	long inputSize;
+
+	@Label("Signature Size")
+	@DataAmount
+	long signatureSize;
+
+	@Label("Valid")
+	@Description("Whether the signature was verified; true for signing")
+	boolean valid;
+
+	void complete(String operation, String algorithm, long inputSize, long signatureSize, boolean valid) {
+		end();
+		if (shouldCommit()) {
+			this.operation = operation;
+			this.algorithm = algorithm;
+			this.inputSize = inputSize;
+			this.signatureSize = signatureSize;
+			this.valid = valid;
+			commit();
+		}
+	}
+
+}
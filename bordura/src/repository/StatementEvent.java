@@ -0,0 +1,52 @@
+package repository;
+
+import java.net.InetSocketAddress;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/* Flight Recorder event of a SQL statement, from its preparation to its last row, so that slow
+ * statements (e.g. waiting for a lock of the database) show up next to HTTP events. It is enabled,
+ * disabled and thresholded on its own by name in the recording settings; while it is disabled,
+ * begin(), end() and commit() do nothing. A statement, which fails, is not recorded. */
+@Name("bordura.repository.Statement")
+@Label("SQL Statement")
+@Category({"Bordura", "Repository"})
+@Description("Execution of a SQL statement")
+@Threshold("10 ms")
+@StackTrace(false)
+final class StatementEvent extends jdk.jfr.Event {
+
+	@Label("Statement")
+	@Description("Class and method, which executes the statement")
+	String statement;
+
+	@Label("Rows")
+	@Description("Rows updated or read")
+	int rows;
+
+	@Label("Size")
+	@Description("Bytes of binary values written or read")
+	@DataAmount
+	long size;
+
+	@Label("Peer")
+	String peer;
+
+	void complete(String statement, int rows, long size, InetSocketAddress peer) {
+		end();
+		if (shouldCommit()) {
+			this.statement = statement;
+			this.rows = rows;
+			this.size = size;
+			this.peer = (peer != null) ? peer.getAddress().getHostAddress() + ":" + peer.getPort() : null;
+			commit();
+		}
+	}
+
+}
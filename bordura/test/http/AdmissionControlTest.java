@@ -0,0 +1,132 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class AdmissionControlTest {
+
+	private static HttpRequest request() throws HttpException {
+		return new HttpRequestParser().feed(ByteBuffer.wrap("GET / HTTP/1.1\r\n\r\n".getBytes(US_ASCII)));
+	}
+
+	@Test
+	void requestsBeyondLimitsAreRejectedAtOnce() throws Exception {
+		AdmissionControl admission = AdmissionControl.newBuilder().maxInFlightRequests(2).maxQueuedRequests(1)
+			.maxRequestsPerPeer(2).build();
+		InetAddress first = InetAddress.getByName("192.0.2.1");
+		InetAddress second = InetAddress.getByName("198.51.100.7");
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		HttpHandler blocking = request -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return HttpResponse.ofStatus(200, false);
+		};
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			List<Future<HttpResponse>> admitted = new ArrayList<>();
+			admitted.add(executor.submit(() -> admission.handle(first, request(), blocking)));
+			admitted.add(executor.submit(() -> admission.handle(first, request(), blocking)));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			HttpResponse limited = admission.handle(first, request(), blocking);
+			assertEquals(429, limited.status());
+			assertTrue(limited.headers().contains(java.util.Map.entry("Retry-After", "1")));
+			admitted.add(executor.submit(() -> admission.handle(second, request(), blocking))); // waits in queue
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (admission.queuedRequests() == 0 && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			HttpResponse overloaded = admission.handle(null, request(), blocking);
+			assertEquals(503, overloaded.status());
+			release.countDown();
+			for (Future<HttpResponse> response : admitted) {
+				assertEquals(200, response.get(5, TimeUnit.SECONDS).status());
+			}
+			assertEquals(200, admission.handle(first, request(), blocking).status());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void peersAreLimitedByTheirOwnRequestsOnly() throws Exception {
+		AdmissionControl admission = AdmissionControl.newBuilder().maxInFlightRequests(1000).maxRequestsPerPeer(1).build();
+		assertEquals(200, nested(admission, 0, 1000).status()); // 1000 peers in flight at once
+		assertEquals(0, admission.peers());
+	}
+
+	@Test
+	void peerLimitIsExactUnderContention() throws Exception {
+		AdmissionControl admission = AdmissionControl.newBuilder().maxRequestsPerPeer(3).build();
+		InetAddress[] addresses = {InetAddress.getByName("192.0.2.1"), InetAddress.getByName("192.0.2.2")};
+		AtomicInteger[] inHandler = {new AtomicInteger(), new AtomicInteger()};
+		AtomicInteger exceeded = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> threads = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				threads.add(executor.submit(() -> {
+					for (int i = 0; i < 5000; i++) {
+						int p = i & 1;
+						admission.handle(addresses[p], request(), request -> {
+							if (inHandler[p].incrementAndGet() > 3) {
+								exceeded.incrementAndGet();
+							}
+							inHandler[p].decrementAndGet();
+							return HttpResponse.ofStatus(200, false);
+						});
+					}
+					return null;
+				}));
+			}
+			for (Future<?> thread : threads) {
+				thread.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(0, exceeded.get());
+		assertEquals(0, admission.peers()); // counters are removed, once peers have no requests
+	}
+
+	@Test
+	void peersAreNotLimitedByDefault() throws IOException, HttpException {
+		AdmissionControl admission = AdmissionControl.newBuilder().build();
+		InetAddress peer = InetAddress.getLoopbackAddress(); // e.g. a load generator with many connections
+		HttpHandler[] nested = new HttpHandler[1];
+		AtomicInteger depth = new AtomicInteger();
+		nested[0] = request -> (depth.incrementAndGet() < 500) ? admission.handle(peer, request, nested[0])
+			: HttpResponse.ofStatus(200, false);
+		assertEquals(200, admission.handle(peer, request(), nested[0]).status()); // 500 in flight at once
+		assertEquals(0, admission.peers());
+	}
+
+	/* Handles a request of peer 10.0.x.y, whose handler handles one of the next peer, until count
+	 * are in flight; each handler also makes a second request of its own peer, which must be refused. */
+	private static HttpResponse nested(AdmissionControl admission, int i, int count) throws IOException, HttpException {
+		InetAddress peer = InetAddress.getByAddress(new byte[] {10, 0, (byte) (i >> 8), (byte) i});
+		return admission.handle(peer, request(), request -> {
+			assertEquals(429, admission.handle(peer, request(), r -> HttpResponse.ofStatus(200, false)).status());
+			return (i + 1 < count) ? nested(admission, i + 1, count) : HttpResponse.ofStatus(200, false);
+		});
+	}
+
+}
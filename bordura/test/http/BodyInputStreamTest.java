@@ -0,0 +1,103 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.jupiter.api.Test;
+
+class BodyInputStreamTest {
+
+	@Test
+	void chunkedBodyIsDecodedUpToItsEnd() throws IOException {
+		InputStream source = new ByteArrayInputStream(
+			"5;name=value\r\nhello\r\n6\r\n world\r\n0\r\nTrailer: x\r\n\r\nNEXT".getBytes(US_ASCII));
+		ChunkedInputStream body = new ChunkedInputStream(source);
+		assertEquals("hello world", new String(body.readAllBytes(), US_ASCII));
+		assertTrue(body.atEnd());
+		assertEquals("NEXT", new String(source.readAllBytes(), US_ASCII)); // nothing beyond body was read
+	}
+
+	@Test
+	void chunkedOutputIsReadBack() throws IOException {
+		byte[] data = new byte[100000];
+		new java.util.Random(7).nextBytes(data);
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		ChunkedOutputStream out = new ChunkedOutputStream(encoded, 1000);
+		out.write(data);
+		out.finish();
+		ChunkedInputStream body = new ChunkedInputStream(new ByteArrayInputStream(encoded.toByteArray()));
+		assertArrayEquals(data, body.readAllBytes());
+	}
+
+	@Test
+	void malformedChunkSizeIsRejected() {
+		ChunkedInputStream body = new ChunkedInputStream(new ByteArrayInputStream("zz\r\nhello\r\n".getBytes(US_ASCII)));
+		assertThrows(IOException.class, () -> body.readAllBytes());
+	}
+
+	@Test
+	void fixedLengthBodyStopsAtContentLength() throws IOException {
+		InputStream source = new ByteArrayInputStream("abcdefNEXT".getBytes(US_ASCII));
+		FixedLengthInputStream body = new FixedLengthInputStream(source, 6);
+		assertEquals("abcdef", new String(body.readAllBytes(), US_ASCII));
+		assertEquals(-1, body.read());
+		assertEquals("NEXT", new String(source.readAllBytes(), US_ASCII));
+	}
+
+	@Test
+	void truncatedBodyIsAnError() {
+		FixedLengthInputStream body = new FixedLengthInputStream(new ByteArrayInputStream(new byte[3]), 6);
+		assertThrows(EOFException.class, () -> body.readAllBytes());
+	}
+
+	@Test
+	void drainSkipsOnlyShortBodies() throws IOException {
+		assertTrue(new FixedLengthInputStream(new ByteArrayInputStream(new byte[100]), 100).drain(100));
+		assertFalse(new FixedLengthInputStream(new ByteArrayInputStream(new byte[100]), 100).drain(99));
+	}
+
+	@Test
+	void continueIsSentAtFirstReadOfBody() throws IOException, HttpException {
+		ByteArrayOutputStream interim = new ByteArrayOutputStream();
+		HttpRequest request = new HttpRequestParser().feed(java.nio.ByteBuffer.wrap(
+			"PUT /a HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: 5\r\n\r\n".getBytes(US_ASCII)))
+			.withBodyFrom(new ByteArrayInputStream("hello".getBytes(US_ASCII)));
+		HttpRequest expecting = request.withExpectation(5, () -> interim.write(ContinueInputStream.CONTINUE));
+		assertEquals(0, interim.size());
+		assertFalse(expecting.skipBody(BodyInputStream.DRAIN_LIMIT)); // not sent, so the connection is not reused
+		assertEquals(0, interim.size());
+		expecting = request.withExpectation(5, () -> interim.write(ContinueInputStream.CONTINUE));
+		assertEquals('h', expecting.body().get().read());
+		assertEquals("HTTP/1.1 100 Continue\r\n\r\n", interim.toString(US_ASCII));
+		assertTrue(expecting.skipBody(BodyInputStream.DRAIN_LIMIT));
+		assertEquals(413, assertThrows(HttpException.class, () -> request.withExpectation(4, null)).returnStatusCode());
+	}
+
+	@Test
+	void chunkedBodyIsLimitedWhileRead() throws IOException, HttpException {
+		HttpRequest request = new HttpRequestParser().feed(java.nio.ByteBuffer.wrap(
+			"PUT /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(US_ASCII)))
+			.withBodyFrom(new ByteArrayInputStream("5\r\nhello\r\n3\r\n wo\r\n3\r\nrld\r\n0\r\n\r\n".getBytes(US_ASCII)))
+			.withExpectation(8, null);
+		InputStream body = request.body().get();
+		assertEquals("hello wo", new String(body.readNBytes(8), US_ASCII));
+		IOException e = assertThrows(IOException.class, () -> body.read());
+		assertEquals(413, HttpException.causeOf(e).returnStatusCode());
+		assertThrows(IOException.class, () -> body.read()); // the rest of body is not read
+		assertFalse(request.skipBody(BodyInputStream.DRAIN_LIMIT));
+	}
+
+	@Test
+	void unknownExpectationIsRejected() throws HttpException {
+		HttpRequest request = new HttpRequestParser().feed(java.nio.ByteBuffer.wrap(
+			"GET / HTTP/1.1\r\nExpect: 100-continue, x-y\r\n\r\n".getBytes(US_ASCII)));
+		assertEquals(417, assertThrows(HttpException.class, () -> request.withExpectation(0, null)).returnStatusCode());
+	}
+
+}
@@ -0,0 +1,41 @@
+package http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class BufferPoolTest {
+
+	@Test
+	void releasedArrayIsReused() {
+		BufferPool pool = new BufferPool(64, 1);
+		byte[] b = pool.acquire();
+		assertEquals(64, b.length);
+		pool.release(b);
+		assertSame(b, pool.acquire());
+		assertNotSame(b, pool.acquire()); // pool is empty again
+	}
+
+	@Test
+	void poolIsBounded() {
+		BufferPool pool = new BufferPool(64, 1);
+		Set<byte[]> released = new HashSet<>();
+		for (int i = 0; i < 100; i++) {
+			byte[] b = new byte[64];
+			released.add(b);
+			pool.release(b);
+		}
+		pool.release(new byte[32]); // other sizes are ignored
+		int reused = 0;
+		for (int i = 0; i < 100; i++) {
+			if (released.contains(pool.acquire())) {
+				reused++;
+			}
+		}
+		assertTrue(reused > 0 && reused < 100);
+	}
+
+}
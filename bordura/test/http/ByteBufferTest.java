@@ -0,0 +1,28 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class ByteBufferTest {
+
+	private static void put(ByteBuffer buffer, String s) {
+		for (byte b : s.getBytes(US_ASCII)) {
+			buffer.put(b);
+		}
+	}
+
+	@Test
+	void resetBufferOfSeveralNodesIsReused() {
+		ByteBuffer buffer = new ByteBuffer(4);
+		put(buffer, "abcdefghij");
+		assertEquals("abcdefghij", buffer.read(US_ASCII));
+		buffer.reset();
+		assertTrue(buffer.empty());
+		put(buffer, "klmnopq");
+		assertEquals(7, buffer.length());
+		assertEquals("klmnopq", buffer.read(US_ASCII));
+	}
+
+}
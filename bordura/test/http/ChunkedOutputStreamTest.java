@@ -0,0 +1,87 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ChunkedOutputStreamTest {
+
+	/* Returns sizes of the chunks of encoded, up to and including last-chunk. */
+	private static List<Integer> chunkSizes(byte[] encoded) throws IOException {
+		List<Integer> sizes = new ArrayList<>();
+		String framing = new String(encoded, US_ASCII);
+		int i = 0;
+		int size;
+		do {
+			int lineEnd = framing.indexOf("\r\n", i);
+			size = Integer.parseInt(framing.substring(i, lineEnd), 16);
+			sizes.add(size);
+			i = lineEnd + 2 + size + 2;
+		} while (size > 0);
+		assertEquals(encoded.length, i, "nothing follows last-chunk");
+		return sizes;
+	}
+
+	@Test
+	void chunksGrowAndLargeWritesPassThrough() throws IOException {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		ChunkedOutputStream out = new ChunkedOutputStream(encoded, 4096);
+		for (int i = 0; i < 10000; i++) {
+			out.write('a' + i % 26);
+		}
+		out.write(new byte[70000]);
+		out.finish();
+		String framing = encoded.toString(US_ASCII);
+		assertTrue(framing.startsWith("400\r\n")); // 1024, 2048, 4096, 4096, ...
+		assertTrue(framing.contains("\r\n800\r\n") && framing.contains("\r\n1000\r\n"));
+		assertTrue(framing.contains("\r\n11170\r\n")); // 70000 bytes in a chunk of their own
+		assertTrue(framing.endsWith("\r\n0\r\n\r\n"));
+		assertEquals(80000, new ChunkedInputStream(new ByteArrayInputStream(encoded.toByteArray())).readAllBytes().length);
+	}
+
+	@Test
+	void chunksStopGrowingAtConfiguredSize() throws IOException {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		ChunkedOutputStream out = new ChunkedOutputStream(encoded, 3000);
+		for (int i = 0; i < 12000; i++) {
+			out.write(i);
+		}
+		out.finish();
+		assertEquals(List.of(1024, 2048, 3000, 3000, 2928, 0), chunkSizes(encoded.toByteArray()));
+
+		encoded.reset();
+		out = new ChunkedOutputStream(encoded); // pooled buffer
+		byte[] data = new byte[4 * BufferPool.BLOCKS.bufferSize()];
+		for (int i = 0; i < data.length; i += 100) {
+			out.write(data, i, Math.min(100, data.length - i));
+		}
+		out.finish();
+		List<Integer> sizes = chunkSizes(encoded.toByteArray());
+		int max = sizes.stream().mapToInt(Integer::intValue).max().getAsInt();
+		assertTrue(max <= BufferPool.BLOCKS.bufferSize() && max > BufferPool.BLOCKS.bufferSize() / 2, sizes.toString());
+		assertEquals(data.length, sizes.stream().mapToInt(Integer::intValue).sum());
+	}
+
+	@Test
+	void lastChunkIsWrittenOnlyOnce() throws IOException {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		ChunkedOutputStream out = new ChunkedOutputStream(encoded);
+		out.write("hello".getBytes(US_ASCII));
+		out.close(); // e.g. by a handler
+		out.finish(); // and by the server
+		out.close();
+		out.flush();
+		assertEquals("5\r\nhello\r\n0\r\n\r\n", encoded.toString(US_ASCII));
+		assertThrows(IOException.class, () -> out.write('x'));
+		assertThrows(IOException.class, () -> out.write(new byte[10000]));
+		assertEquals("5\r\nhello\r\n0\r\n\r\n", encoded.toString(US_ASCII));
+	}
+
+}
@@ -0,0 +1,145 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class GzipCacheTest {
+
+	private Path spillDirectory;
+	private final AtomicInteger compressions = new AtomicInteger();
+
+	@BeforeEach
+	void createDirectory() throws IOException {
+		spillDirectory = Files.createTempDirectory("bordura-gzip");
+	}
+
+	@AfterEach
+	void deleteDirectory() throws IOException {
+		try (Stream<Path> files = Files.list(spillDirectory)) {
+			for (Path file : files.toList()) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(spillDirectory);
+	}
+
+	/* Body, which counts how many times it was read. */
+	private HttpResponse.BodyPublisher body(String s) {
+		return HttpResponse.BodyPublisher.ofInputStream(() -> {
+			compressions.incrementAndGet();
+			return new ByteArrayInputStream(s.getBytes(UTF_8));
+		});
+	}
+
+	private static String gunzipped(GzipCache cache, String key, HttpResponse.BodyPublisher body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cache.writeGzipped(key, body, Deflater.DEFAULT_COMPRESSION, out);
+		return new String(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).readAllBytes(), UTF_8);
+	}
+
+	@Test
+	void repeatedVariantIsCompressedOnce() throws IOException {
+		GzipCache cache = GzipCache.newBuilder().build();
+		String content = "post ".repeat(1000);
+		assertEquals(content, gunzipped(cache, "a", body(content)));
+		assertEquals(content, gunzipped(cache, "a", body(content)));
+		assertEquals(1, compressions.get());
+		assertTrue(cache.memoryUsed() > 0 && cache.memoryUsed() < content.length());
+	}
+
+	@Test
+	void evictedVariantsAreSpilledAndReused() throws IOException {
+		GzipCache cache = GzipCache.newBuilder().memoryLimit(8192).spillDirectory(spillDirectory).build();
+		String[] contents = new String[20];
+		Random random = new Random(7);
+		for (int i = 0; i < contents.length; i++) {
+			byte[] b = new byte[600]; // hex of random bytes compresses to about 700 bytes
+			random.nextBytes(b);
+			contents[i] = HexFormat.of().formatHex(b);
+			assertEquals(contents[i], gunzipped(cache, "k" + i, body(contents[i])));
+		}
+		assertTrue(cache.memoryUsed() <= 8192);
+		try (Stream<Path> files = Files.list(spillDirectory)) {
+			assertTrue(files.anyMatch(file -> file.toString().endsWith(".gz")));
+		}
+		assertEquals(contents[0], gunzipped(cache, "k0", body(contents[0]))); // evicted first
+		assertEquals(20, compressions.get());
+	}
+
+	@Test
+	void largeVariantIsSentFromSpilledFile() throws IOException {
+		GzipCache cache = GzipCache.newBuilder().memoryLimit(0).spillDirectory(spillDirectory).build();
+		String content = "large ".repeat(5000);
+		assertEquals(content, gunzipped(cache, "l", body(content)));
+		assertEquals(content, gunzipped(cache, "l", body(content)));
+		assertEquals(1, compressions.get());
+		assertEquals(0, cache.memoryUsed());
+	}
+
+	private long spilledBytes() throws IOException {
+		long bytes = 0;
+		try (Stream<Path> files = Files.list(spillDirectory)) {
+			for (Path file : files.toList()) {
+				bytes += Files.size(file);
+			}
+		}
+		return bytes;
+	}
+
+	@Test
+	void spilledFilesAreKeptWithinSpillLimit() throws IOException {
+		GzipCache cache = GzipCache.newBuilder().memoryLimit(0).spillDirectory(spillDirectory).spillLimit(2500).build();
+		Random random = new Random(7);
+		String first = null;
+		for (int i = 0; i < 10; i++) {
+			byte[] b = new byte[600]; // hex of random bytes compresses to about 700 bytes
+			random.nextBytes(b);
+			String content = HexFormat.of().formatHex(b);
+			first = (i == 0) ? content : first;
+			assertEquals(content, gunzipped(cache, "k" + i, body(content)));
+			assertEquals(first, gunzipped(cache, "k0", body(first))); // k0 stays the most recently used
+			assertTrue(cache.spillUsed() <= 2500);
+			assertEquals(cache.spillUsed(), spilledBytes());
+		}
+		assertEquals(10, compressions.get());
+		// files of a former cache are counted, when it is built again
+		assertTrue(GzipCache.newBuilder().spillDirectory(spillDirectory).spillLimit(1000).build().spillUsed() <= 1000);
+		assertTrue(spilledBytes() <= 1000);
+	}
+
+	@Test
+	void changedFileReplacesItsVariant() throws IOException {
+		GzipCache cache = GzipCache.newBuilder().memoryLimit(0).spillDirectory(spillDirectory).build();
+		Path file = Files.createTempFile("bordura", ".txt");
+		try {
+			for (String content : new String[] {"old ".repeat(1000), "new content ".repeat(1000)}) {
+				Files.writeString(file, content, UTF_8);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				cache.variantOf(file).writeGzippedTo(out, Deflater.DEFAULT_COMPRESSION);
+				assertEquals(content, new String(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).readAllBytes(), UTF_8));
+				try (Stream<Path> files = Files.list(spillDirectory)) {
+					assertEquals(1, files.count()); // the variant of old content is deleted
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+}
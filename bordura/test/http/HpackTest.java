@@ -0,0 +1,56 @@
+package http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class HpackTest {
+
+	private static List<String> decode(Hpack.Decoder decoder, String hex) throws Http2Exception {
+		byte[] b = HexFormat.of().parseHex(hex.replace(" ", ""));
+		List<String> fields = new ArrayList<>();
+		decoder.decode(b, 0, b.length, fields);
+		return fields;
+	}
+
+	@Test
+	void requestsWithHuffmanCodingAndDynamicTable() throws Http2Exception { // RFC 7541 C.4.
+		Hpack.Decoder decoder = new Hpack.Decoder(4096);
+		assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+			decode(decoder, "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff"));
+		assertEquals(List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+			"cache-control", "no-cache"), decode(decoder, "8286 84be 5886 a8eb 1064 9cbf"));
+		assertEquals(List.of(":method", "GET", ":scheme", "https", ":path", "/index.html",
+			":authority", "www.example.com", "custom-key", "custom-value"),
+			decode(decoder, "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf"));
+	}
+
+	@Test
+	void invalidBlocksAreCompressionErrors() {
+		for (String hex : List.of("be", "0f", "4188 f1e3 c2e5 f23a 6ba0", "3fe2 1f")) { // unknown index, truncated, table too large
+			Http2Exception e = assertThrows(Http2Exception.class, () -> decode(new Hpack.Decoder(4096), hex));
+			assertEquals(Http2Exception.COMPRESSION_ERROR, e.errorCode());
+		}
+	}
+
+	@Test
+	void encodedFieldsAreDecoded() throws Http2Exception {
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		Hpack.encodeStatus(200, block);
+		Hpack.encodeStatus(418, block);
+		Hpack.encodeField("content-type", "text/plain", block);
+		Hpack.encodeField("x-long", "a".repeat(300), block);
+		byte[] b = block.toByteArray();
+		assertEquals((byte) 0x88, b[0]); // indexed ":status: 200"
+		List<String> fields = new ArrayList<>();
+		new Hpack.Decoder(4096).decode(b, 0, b.length, fields);
+		assertEquals(List.of(":status", "200", ":status", "418", "content-type", "text/plain",
+			"x-long", "a".repeat(300)), fields);
+	}
+
+}
@@ -0,0 +1,91 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class HttpRequestParserTest {
+
+	private static final String REQUEST = """
+		GET /posts/abc?x=1 HTTP/1.1\r
+		Host: peer.example\r
+		Accept-Encoding: gzip\r
+		X-Tag: one\r
+		x-tag:  two \r
+		\r
+		""";
+
+	@Test
+	void wholeHeadInOneFragment() throws HttpException {
+		HttpRequestParser parser = new HttpRequestParser();
+		ByteBuffer data = ByteBuffer.wrap((REQUEST + "GET /next").getBytes(US_ASCII));
+		HttpRequest request = parser.feed(data);
+		assertNotNull(request);
+		assertEquals(HttpRequest.Method.GET, request.method());
+		assertEquals("/posts/abc?x=1", request.target());
+		assertEquals(HttpVersion.HTTP_1_1, request.version());
+		assertEquals(List.of("peer.example"), request.headers().get("host"));
+		assertEquals(List.of("one", "two"), request.headers().get("x-tag"));
+		assertEquals("GET /next", US_ASCII.decode(data).toString()); // bytes of next request are left in buffer
+	}
+
+	@Test
+	void headersAreMapOfLowerCaseNames() throws HttpException {
+		HttpRequest request = new HttpRequestParser().feed(ByteBuffer.wrap(REQUEST.getBytes(US_ASCII)));
+		Map<String, List<String>> headers = request.headers();
+		assertEquals(Map.of("host", List.of("peer.example"), "accept-encoding", List.of("gzip"),
+							"x-tag", List.of("one", "two")), headers);
+		assertEquals(List.of("host", "accept-encoding", "x-tag"), List.copyOf(headers.keySet())); // in order of appearance
+		assertTrue(headers.containsKey("x-tag"));
+		assertFalse(headers.containsKey("X-Tag"));
+		assertNull(headers.get("content-length"));
+		assertThrows(UnsupportedOperationException.class, () -> headers.put("host", List.of("other")));
+	}
+
+	@Test
+	void headSplitIntoSingleByteFragments() throws HttpException {
+		HttpRequestParser parser = new HttpRequestParser();
+		byte[] bytes = REQUEST.getBytes(US_ASCII);
+		HttpRequest request = null;
+		for (int i = 0; i < bytes.length; i++) {
+			assertNull(request);
+			request = parser.feed(ByteBuffer.wrap(bytes, i, 1));
+		}
+		assertNotNull(request);
+		assertEquals("/posts/abc?x=1", request.target());
+		assertEquals(List.of("gzip"), request.headers().get("accept-encoding"));
+		assertFalse(parser.started());
+	}
+
+	@Test
+	void limitsAreEnforcedAcrossFragments() {
+		HttpRequestParser parser = new HttpRequestParser();
+		HttpException e = assertThrows(HttpException.class, () -> {
+			parser.feed(ByteBuffer.wrap("GET /".getBytes(US_ASCII)));
+			for (int i = 0; i < 10; i++) {
+				parser.feed(ByteBuffer.wrap("a".repeat(1000).getBytes(US_ASCII)));
+			}
+		});
+		assertEquals(414, e.returnStatusCode());
+		parser.reset();
+		e = assertThrows(HttpException.class, () -> parser.feed(ByteBuffer.wrap(
+			("GET / HTTP/1.1\r\nX: " + "a".repeat(8192) + "\r\n\r\n").getBytes(US_ASCII))));
+		assertEquals(431, e.returnStatusCode());
+	}
+
+	@Test
+	void malformedLinesAreRejected() {
+		for (String head : List.of("get / HTTP/1.1\r\n\r\n", "GET / HTTP/3.0\r\n\r\n",
+								   "GET / HTTP/1.1\nHost: x\r\n\r\n", "GET / HTTP/1.1\r\nHost x\r\n\r\n")) {
+			HttpException e = assertThrows(HttpException.class,
+				() -> new HttpRequestParser().feed(ByteBuffer.wrap(head.getBytes(US_ASCII))));
+			assertEquals(400, e.returnStatusCode());
+		}
+	}
+
+}
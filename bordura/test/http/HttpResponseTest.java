@@ -0,0 +1,211 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HttpResponseTest {
+
+	private Path file;
+
+	@BeforeEach
+	void createFile() throws IOException {
+		file = Files.createTempFile("bordura", ".txt");
+		Files.writeString(file, "0123456789abcdefghij", US_ASCII);
+	}
+
+	@AfterEach
+	void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static HttpRequest request(String head) throws HttpException {
+		return new HttpRequestParser().feed(ByteBuffer.wrap((head + "\r\n").getBytes(US_ASCII)));
+	}
+
+	private String written(HttpRequest request, String... headers) throws IOException {
+		HttpResponse.Builder builder = HttpResponse.newBuilder().status(200)
+			.body(HttpResponse.BodyPublisher.ofFile(file)).ranges(request);
+		for (int i = 0; i < headers.length; i += 2) {
+			builder.addHeader(headers[i], headers[i + 1]);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		builder.build().writeTo(out);
+		return out.toString(US_ASCII);
+	}
+
+	@Test
+	void headIsEncodedExactly() throws IOException {
+		String large = "x".repeat(20000); // head does not fit into the reused buffer
+		for (String value : new String[] {"text/plain", large, "text/html"}) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			HttpResponse.newBuilder().version(HttpVersion.HTTP_1_0).status(404).addHeader("Content-Type", value)
+				.body(HttpResponse.BodyPublisher.ofString("none")).build().writeTo(out);
+			assertEquals("HTTP/1.0 404 Not Found\r\nContent-Type: " + value + "\r\nContent-Length: 4\r\n\r\nnone",
+				out.toString(US_ASCII));
+		}
+	}
+
+	@Test
+	void singleRangeIsPartialContent() throws IOException, HttpException {
+		String response = written(request("GET / HTTP/1.1\r\nRange: bytes=5-9\r\n"));
+		assertTrue(response.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+		assertTrue(response.contains("Content-Range: bytes 5-9/20\r\n"));
+		assertTrue(response.contains("Content-Length: 5\r\n"));
+		assertTrue(response.endsWith("\r\n\r\n56789"));
+		assertTrue(written(request("GET / HTTP/1.1\r\nRange: bytes=-3\r\n")).endsWith("\r\n\r\nhij"));
+		assertTrue(written(request("GET / HTTP/1.1\r\nRange: bytes=18-\r\n")).endsWith("\r\n\r\nij"));
+	}
+
+	@Test
+	void multipleRangesAreMultipart() throws IOException, HttpException {
+		String response = written(request("GET / HTTP/1.1\r\nRange: bytes=0-1, 10-11\r\n"), "Content-Type", "text/plain");
+		assertTrue(response.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+		String boundary = response.substring(response.indexOf("boundary=") + 9, response.indexOf("\r\n", response.indexOf("boundary=")));
+		String body = response.substring(response.indexOf("\r\n\r\n") + 4);
+		assertEquals("\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-1/20\r\n\r\n01"
+			+ "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 10-11/20\r\n\r\nab"
+			+ "\r\n--" + boundary + "--\r\n", body);
+		assertTrue(response.contains("Content-Length: " + body.length() + "\r\n"));
+		// overlapping ranges are coalesced into one
+		assertTrue(written(request("GET / HTTP/1.1\r\nRange: bytes=2-4,0-2\r\n")).endsWith("\r\n\r\n01234"));
+	}
+
+	@Test
+	void unsatisfiableRangeIs416() throws IOException, HttpException {
+		for (String range : new String[] {"bytes=20-30", "bytes=20-", "bytes=30-", "bytes=25-,-0"}) {
+			String response = written(request("GET / HTTP/1.1\r\nRange: " + range + "\r\n"));
+			assertTrue(response.startsWith("HTTP/1.1 416 Range Not Satisfiable\r\n"), range);
+			assertTrue(response.contains("Content-Range: bytes */20\r\n"));
+			assertTrue(response.endsWith("Content-Length: 0\r\n\r\n"), range); // ends on a keep-alive connection
+		}
+		assertTrue(written(request("GET / HTTP/1.1\r\nRange: bytes=30-,0-1\r\n")).endsWith("\r\n\r\n01"));
+	}
+
+	@Test
+	void invalidRangeOrFailedIfRangeServesWholeFile() throws IOException, HttpException {
+		for (String head : new String[] {"GET / HTTP/1.1\r\nRange: bytes=9-5\r\n", "GET / HTTP/1.1\r\nRange: lines=1-2\r\n",
+										 "GET / HTTP/1.1\r\nRange: bytes=0-1\r\nIf-Range: \"old\"\r\n"}) {
+			String response = written(request(head), "ETag", "\"new\"");
+			assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+			assertTrue(response.endsWith("\r\n\r\n0123456789abcdefghij"));
+		}
+		String response = written(request("GET / HTTP/1.1\r\nRange: bytes=0-1\r\nIf-Range: \"new\"\r\n"), "ETag", "\"new\"");
+		assertTrue(response.startsWith("HTTP/1.1 206 Partial Content\r\n"));
+	}
+
+	@Test
+	void gzipIsDecodableAtEveryLevelAndSkipsCompressedTypes() throws IOException {
+		String content = "gzip ".repeat(2000);
+		for (int level : new int[] {1, 6, 9, Deflater.DEFAULT_COMPRESSION, 9}) { // deflaters are reused
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			HttpResponse.newBuilder().status(200).useGzipTransferEncoding(true).compressionLevel(level).closeConnectionAtEnd(true)
+				.body(HttpResponse.BodyPublisher.ofString(content)).build().writeTo(out);
+			byte[] b = out.toByteArray();
+			String head = "HTTP/1.1 200 OK\r\nTransfer-Encoding: gzip\r\n\r\n";
+			assertEquals(head, new String(b, 0, head.length(), US_ASCII));
+			byte[] body = new GZIPInputStream(new ByteArrayInputStream(b, head.length(), b.length - head.length())).readAllBytes();
+			assertEquals(content, new String(body, US_ASCII));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HttpResponse.newBuilder().status(200).addHeader("Content-Type", "image/jpeg").useGzipTransferEncoding(true)
+			.body(HttpResponse.BodyPublisher.ofString("jpeg")).build().writeTo(out);
+		assertEquals("HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\nContent-Length: 4\r\n\r\njpeg", out.toString(US_ASCII));
+		assertThrows(IllegalArgumentException.class, () -> HttpResponse.newBuilder().compressionLevel(10));
+	}
+
+	@Test
+	void abortedGzipBodyReturnsDeflater() {
+		for (boolean close : new boolean[] {false, true}) {
+			int pooled = GzipOutputStream.pooledDeflaters();
+			HttpResponse.BodyPublisher failing = HttpResponse.BodyPublisher.ofInputStream(() -> new InputStream() {
+				private int count = 0;
+				@Override
+				public int read() throws IOException {
+					if (++count > 10000) {
+						throw new IOException("Source failed");
+					}
+					return 'x';
+				}
+			});
+			assertThrows(IOException.class, () -> HttpResponse.newBuilder().status(200).useGzipTransferEncoding(true)
+				.closeConnectionAtEnd(close).body(failing).build().writeTo(new ByteArrayOutputStream()));
+			assertEquals(Math.max(pooled, 1), GzipOutputStream.pooledDeflaters()); // taken and given back
+		}
+	}
+
+	private String conditional(String head) throws IOException, HttpException {
+		byte[] hash = new byte[] {1, 2, 3, (byte) 0xff};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HttpResponse.newBuilder().status(200).entityTag(hash).lastModified(java.time.Instant.ofEpochSecond(784111777))
+			.body(HttpResponse.BodyPublisher.ofInputStream(() -> { throw new AssertionError("body opened"); }))
+			.conditional(request(head)).build().writeTo(out);
+		return out.toString(US_ASCII);
+	}
+
+	@Test
+	void matchingValidatorsAnswerWithoutBody() throws IOException, HttpException {
+		String response = conditional("GET / HTTP/1.1\r\nIf-None-Match: \"00\", W/\"010203ff\"\r\n");
+		assertEquals("HTTP/1.1 304 Not Modified\r\nETag: \"010203ff\"\r\nLast-Modified: Sun, 06 Nov 1994 08:49:37 GMT\r\n\r\n", response);
+		assertTrue(conditional("GET / HTTP/1.1\r\nIf-Modified-Since: Sun, 06 Nov 1994 08:49:37 GMT\r\n").startsWith("HTTP/1.1 304 "));
+		assertTrue(conditional("PUT / HTTP/1.1\r\nIf-None-Match: *\r\nContent-Length: 0\r\n").startsWith("HTTP/1.1 412 "));
+		assertTrue(conditional("DELETE / HTTP/1.1\r\nIf-Match: W/\"010203ff\"\r\n").startsWith("HTTP/1.1 412 ")); // strong comparison
+		assertThrows(AssertionError.class, () -> conditional("GET / HTTP/1.1\r\nIf-None-Match: \"00\"\r\n"));
+		assertThrows(AssertionError.class, // If-Modified-Since is ignored, when If-None-Match is present
+			() -> conditional("GET / HTTP/1.1\r\nIf-None-Match: \"00\"\r\nIf-Modified-Since: Sun, 06 Nov 1994 08:49:37 GMT\r\n"));
+		assertThrows(AssertionError.class, () -> conditional("GET / HTTP/1.1\r\nIf-Modified-Since: Sat, 05 Nov 1994 08:49:37 GMT\r\n"));
+	}
+
+	@Test
+	void failedPreconditionKeepsConnectionUsable() throws IOException {
+		byte[] hash = new byte[] {1, 2, 3, (byte) 0xff};
+		HttpServer server = NioHttpServer.newBuilder().address(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+			.handler(request -> HttpResponse.newBuilder().status(200).entityTag(hash)
+				.body(HttpResponse.BodyPublisher.ofFile(file)).conditional(request).build())
+			.build();
+		server.start();
+		try (server; Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.localAddress().getPort())) {
+			socket.setSoTimeout(2000); // a response without length would be read until the idle timeout
+			OutputStream out = socket.getOutputStream();
+			InputStream in = socket.getInputStream();
+			out.write("PUT / HTTP/1.1\r\nHost: a\r\nIf-Match: \"00\"\r\nContent-Length: 0\r\n\r\n".getBytes(US_ASCII));
+			String head = readHead(in);
+			assertTrue(head.startsWith("HTTP/1.1 412 Precondition Failed\r\n"));
+			assertTrue(head.contains("\r\nContent-Length: 0\r\n"));
+			out.write("GET / HTTP/1.1\r\nHost: a\r\n\r\n".getBytes(US_ASCII));
+			assertTrue(readHead(in).startsWith("HTTP/1.1 200 OK\r\n"));
+			assertEquals("0123456789abcdefghij", new String(in.readNBytes(20), US_ASCII));
+		}
+	}
+
+	private static String readHead(InputStream in) throws IOException {
+		StringBuilder head = new StringBuilder();
+		while (head.length() < 4 || head.lastIndexOf("\r\n\r\n") != head.length() - 4) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException(head.toString());
+			}
+			head.append((char) b);
+		}
+		return head.toString();
+	}
+
+}
@@ -0,0 +1,65 @@
+package http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class MetricsTest {
+
+	@Test
+	void durationsAreCountedInBucketsOfPowersOfTwo() {
+		assertEquals(0, LatencyHistogram.bucket(0));
+		assertEquals(0, LatencyHistogram.bucket(1024));
+		assertEquals(1, LatencyHistogram.bucket(1025));
+		assertEquals(1, LatencyHistogram.bucket(2048));
+		assertEquals(LatencyHistogram.BUCKETS, LatencyHistogram.bucket(Long.MAX_VALUE));
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			assertEquals(i, LatencyHistogram.bucket(LatencyHistogram.upperBound(i)));
+		}
+	}
+
+	@Test
+	void recordsOfAllThreadsAreMerged() throws InterruptedException {
+		LatencyHistogram histogram = new LatencyHistogram();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					histogram.record(1500);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long[] snapshot = histogram.snapshot();
+		assertEquals(8000, snapshot[1]);
+		assertEquals(8000 * 1500L, snapshot[LatencyHistogram.BUCKETS + 1]);
+	}
+
+	@Test
+	void responsesAreCountedByStatusCode() throws Exception {
+		Metrics metrics = new Metrics();
+		metrics.responded(200, 1000);
+		metrics.responded(200, 1000);
+		metrics.responded(new HttpException(404).returnStatusCode(), 1000);
+		metrics.sent(512);
+		metrics.connectionOpened();
+		metrics.observe(AdmissionControl.newBuilder().build());
+		String text = metrics.render();
+		assertTrue(text.contains("bordura_responses_total{code=\"200\"} 2\n"));
+		assertTrue(text.contains("bordura_responses_total{code=\"404\"} 1\n"));
+		assertFalse(text.contains("code=\"500\""));
+		assertTrue(text.contains("bordura_response_write_seconds_bucket{le=\"+Inf\"} 3\n"));
+		assertTrue(text.contains("bordura_sent_bytes_total 512\n"));
+		assertTrue(text.contains("bordura_open_connections 1\n"));
+		assertTrue(text.contains("bordura_queued_requests 0\n"));
+		assertEquals(200, metrics.handle(null).status());
+	}
+
+}
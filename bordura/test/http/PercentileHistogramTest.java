@@ -0,0 +1,45 @@
+package http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class PercentileHistogramTest {
+
+	@Test
+	void valuesAreCountedWithinTwoPercent() {
+		for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+			long highest = PercentileHistogram.highestValue(PercentileHistogram.index(value));
+			assertTrue(highest >= value && highest <= value + value / 50, Long.toString(value));
+		}
+		assertEquals(PercentileHistogram.index(Long.MAX_VALUE), PercentileHistogram.index(Long.MAX_VALUE - 1));
+	}
+
+	@Test
+	void percentilesOfUniformValues() {
+		PercentileHistogram histogram = new PercentileHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(1000, histogram.count());
+		assertEquals(500_500, histogram.mean());
+		assertEquals(500_000.0, histogram.percentile(50), 500_000 / 50.0);
+		assertEquals(990_000.0, histogram.percentile(99), 990_000 / 50.0);
+		assertEquals(1_000_000, histogram.percentile(100));
+	}
+
+	@Test
+	void stallIsSpreadOverOmittedRequests() {
+		PercentileHistogram histogram = new PercentileHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(1_000_000); // 1 ms
+		}
+		histogram.record(100_000_000); // a stall of 100 ms, during which 99 requests were not sent
+		assertEquals(1_000_000.0, histogram.percentile(99), 1_000_000 / 50.0);
+		PercentileHistogram corrected = histogram.corrected(1_000_000);
+		assertEquals(199, corrected.count());
+		assertTrue(corrected.percentile(75) > 40_000_000);
+		assertEquals(100_000_000, corrected.max());
+	}
+
+}
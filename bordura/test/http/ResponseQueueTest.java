@@ -0,0 +1,41 @@
+package http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ResponseQueueTest {
+
+	@Test
+	void responsesAreWrittenInOrderOfSlots() {
+		List<Integer> written = new ArrayList<>();
+		ResponseQueue queue = new ResponseQueue((response, close) -> written.add(response.status()) != close);
+		ResponseQueue.Slot first = queue.add();
+		ResponseQueue.Slot second = queue.add();
+		ResponseQueue.Slot third = queue.add();
+		queue.complete(third, HttpResponse.ofStatus(404, false), false);
+		queue.complete(second, HttpResponse.ofStatus(204, false), false);
+		assertEquals(List.of(), written);
+		assertEquals(3, queue.size());
+		queue.complete(first, HttpResponse.ofStatus(200, false), false);
+		assertEquals(List.of(200, 204, 404), written);
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	void responsesAfterCloseAreDiscarded() {
+		List<Integer> written = new ArrayList<>();
+		ResponseQueue queue = new ResponseQueue((response, close) -> written.add(response.status()) != close);
+		ResponseQueue.Slot first = queue.add();
+		ResponseQueue.Slot second = queue.add();
+		queue.complete(second, HttpResponse.ofStatus(200, false), false);
+		queue.complete(first, HttpResponse.ofStatus(400, true), true);
+		assertEquals(List.of(400), written);
+		assertTrue(queue.isClosed());
+		assertEquals(0, queue.size());
+	}
+
+}
@@ -0,0 +1,126 @@
+package http;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class RouterTest {
+
+	private static HttpRequest request(String requestLine) throws HttpException {
+		return new HttpRequestParser().feed(ByteBuffer.wrap((requestLine + "\r\n\r\n").getBytes(US_ASCII)));
+	}
+
+	private static String body(HttpResponse response) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		response.writeBodyTo(out);
+		return out.toString(US_ASCII);
+	}
+
+	private static String routed(Router router, String requestLine) throws IOException, HttpException {
+		return body(router.handle(request(requestLine)));
+	}
+
+	private static final Router ROUTER = Router.newBuilder()
+		.route(HttpRequest.Method.GET, "/", request -> HttpResponse.newBuilder().status(200)
+			.body(HttpResponse.BodyPublisher.ofString("root")).build())
+		.route(HttpRequest.Method.GET, "/posts/{hash}/content/{ordinal}", (request, parameters) -> HttpResponse.newBuilder()
+			.status(200).body(HttpResponse.BodyPublisher.ofString(parameters.get("hash") + "#" + parameters.get("ordinal"))).build())
+		.route(HttpRequest.Method.GET, "/posts/latest/content/{ordinal}", (request, parameters) -> HttpResponse.newBuilder()
+			.status(200).body(HttpResponse.BodyPublisher.ofString("latest#" + parameters.get("ordinal"))).build())
+		.route(HttpRequest.Method.PUT, "/posts/{hash}", (request, parameters) -> HttpResponse.newBuilder()
+			.status(200).body(HttpResponse.BodyPublisher.ofString("put " + parameters.get("hash"))).build())
+		.build();
+
+	@Test
+	void routesMatchSegmentsAndDecodeParameters() throws IOException, HttpException {
+		assertEquals("root", routed(ROUTER, "GET / HTTP/1.1"));
+		assertEquals("ab c#3", routed(ROUTER, "GET /posts/ab%20c/content/3?full=1 HTTP/1.1"));
+		assertEquals("latest#7", routed(ROUTER, "GET /posts/latest/content/7 HTTP/1.1"));
+		assertEquals("latest#7", routed(ROUTER, "GET /posts/%6Catest/content/7 HTTP/1.1")); // literal after decoding
+		assertEquals("put latest", routed(ROUTER, "PUT /posts/latest HTTP/1.1")); // literal branch has no match
+		assertEquals(200, ROUTER.handle(request("HEAD / HTTP/1.1")).status()); // by the GET handler
+		assertEquals(404, assertThrows(HttpException.class, () -> routed(ROUTER, "GET /posts/x/content HTTP/1.1")).returnStatusCode());
+		assertEquals(404, assertThrows(HttpException.class, () -> routed(ROUTER, "GET /posts/x/content/1/ HTTP/1.1")).returnStatusCode());
+		HttpResponse notAllowed = ROUTER.handle(request("DELETE /posts/x HTTP/1.1"));
+		assertEquals(405, notAllowed.status());
+		assertTrue(notAllowed.headers().contains(java.util.Map.entry("Allow", "PUT")));
+		assertTrue(notAllowed.headers().contains(java.util.Map.entry("Content-Length", "0")));
+	}
+
+	@Test
+	void headAndNotAllowedKeepConnectionUsable() throws IOException {
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		for (HttpServer server : new HttpServer[] {NioHttpServer.newBuilder().address(address).handler(ROUTER).build(),
+												   BlockingHttpServer.newBuilder().address(address).handler(ROUTER).build()}) {
+			server.start();
+			try (server; Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.localAddress().getPort())) {
+				socket.setSoTimeout(2000);
+				OutputStream out = socket.getOutputStream();
+				InputStream in = socket.getInputStream();
+				out.write("HEAD / HTTP/1.1\r\nHost: a\r\n\r\n".getBytes(US_ASCII));
+				String head = readHead(in);
+				assertTrue(head.startsWith("HTTP/1.1 200 OK\r\n"));
+				assertTrue(head.contains("\r\nContent-Length: 4\r\n")); // of the body, which a GET would get
+				out.write("GET / HTTP/1.1\r\nHost: a\r\n\r\n".getBytes(US_ASCII));
+				assertTrue(readHead(in).startsWith("HTTP/1.1 200 OK\r\n")); // no body of HEAD in between
+				assertEquals("root", new String(in.readNBytes(4), US_ASCII));
+				out.write("DELETE /posts/x HTTP/1.1\r\nHost: a\r\n\r\n".getBytes(US_ASCII));
+				head = readHead(in);
+				assertTrue(head.startsWith("HTTP/1.1 405 Method Not Allowed\r\n"));
+				assertTrue(head.contains("\r\nContent-Length: 0\r\n")); // else a client waits for its body
+				out.write("GET / HTTP/1.1\r\nHost: a\r\n\r\n".getBytes(US_ASCII)); // answered, not read as body of 405
+				assertTrue(readHead(in).startsWith("HTTP/1.1 200 OK\r\n"));
+				assertEquals("root", new String(in.readNBytes(4), US_ASCII));
+			}
+		}
+	}
+
+	private static String readHead(InputStream in) throws IOException {
+		StringBuilder head = new StringBuilder();
+		while (head.length() < 4 || head.lastIndexOf("\r\n\r\n") != head.length() - 4) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException(head.toString());
+			}
+			head.append((char) b);
+		}
+		return head.toString();
+	}
+
+	@Test
+	void targetIsSplitOnce() throws HttpException {
+		RequestTarget target = request("GET /a/b%2Fc/?q=x+y&r&s=%C5%A1 HTTP/1.1").requestTarget();
+		assertEquals(3, target.segmentCount());
+		assertEquals("b/c", target.segment(1));
+		assertEquals("b%2Fc", target.rawSegment(1));
+		assertEquals("", target.segment(2));
+		assertEquals("/a/b%2Fc/", target.path());
+		assertEquals("x y", target.queryParameter("q"));
+		assertEquals("", target.queryParameter("r"));
+		assertEquals("\u0161", target.queryParameter("s"));
+		assertNull(target.queryParameter("t"));
+		assertNull(request("GET /?? HTTP/1.1").requestTarget().queryParameter("x"));
+	}
+
+	@Test
+	void invalidRoutesAreRejected() {
+		Router.Builder builder = Router.newBuilder();
+		assertThrows(IllegalArgumentException.class, () -> builder.route(HttpRequest.Method.GET, "posts", request -> null));
+		assertThrows(IllegalArgumentException.class, () -> builder.route(HttpRequest.Method.GET, "/p{x}", request -> null));
+		assertThrows(IllegalArgumentException.class, () -> builder.route(HttpRequest.Method.GET, "/{x}/{x}", request -> null));
+		builder.route(HttpRequest.Method.GET, "/{x}", request -> null);
+		assertThrows(IllegalArgumentException.class, () -> builder.route(HttpRequest.Method.GET, "/{y}", request -> null));
+	}
+
+}
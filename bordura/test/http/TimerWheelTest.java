@@ -0,0 +1,52 @@
+package http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TimerWheelTest {
+
+	private static final long TICK = TimeUnit.MILLISECONDS.toNanos(10);
+
+	@Test
+	void expiredTimeoutsRunOnceAndCancelledOnesNever() throws InterruptedException {
+		TimerWheel wheel = new TimerWheel(TICK, 8);
+		List<String> expired = new ArrayList<>();
+		TimerWheel.Timeout first = new TimerWheel.Timeout(() -> expired.add("first"));
+		TimerWheel.Timeout second = new TimerWheel.Timeout(() -> expired.add("second"));
+		TimerWheel.Timeout third = new TimerWheel.Timeout(() -> expired.add("third"));
+		wheel.schedule(first, TICK);
+		wheel.schedule(second, TICK);
+		wheel.schedule(third, TICK);
+		wheel.cancel(second);
+		wheel.schedule(third, 100 * TICK); // replaces the first deadline; beyond one turn of the wheel
+		Thread.sleep(TimeUnit.NANOSECONDS.toMillis(3 * TICK));
+		wheel.advance();
+		assertEquals(List.of("first"), expired);
+		assertFalse(wheel.isEmpty());
+		wheel.advance();
+		assertEquals(List.of("first"), expired);
+		wheel.cancel(third);
+		assertTrue(wheel.isEmpty());
+	}
+
+	@Test
+	void timeoutsBeyondOneTurnWaitForTheirDeadline() throws InterruptedException {
+		TimerWheel wheel = new TimerWheel(TICK, 4);
+		List<String> expired = new ArrayList<>();
+		TimerWheel.Timeout late = new TimerWheel.Timeout(() -> expired.add("late"));
+		wheel.schedule(late, 6 * TICK);
+		long start = System.nanoTime();
+		while (expired.isEmpty()) {
+			Thread.sleep(1);
+			wheel.advance();
+		}
+		assertTrue(System.nanoTime() - start >= 6 * TICK);
+		assertTrue(wheel.isEmpty());
+	}
+
+}